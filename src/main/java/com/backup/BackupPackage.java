@@ -8,12 +8,18 @@ import com.google.gson.JsonParser;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
 
 /**
  * 备份包管理类 - 负责打包和解包操作
@@ -21,9 +27,20 @@ import java.util.*;
  */
 public class BackupPackage {
     
+    // 存储数据分块校验的块大小，超过一块的文件额外记录每块校验和，供抽样巡检按块校验
+    static final int STORED_BLOCK_SIZE = 1 << 20;
+    
+    // 差量编码的最小文件大小，更小的文件直接存储完整内容
+    static final int DELTA_MIN_SIZE = 64 * 1024;
+    
+    // 通过缓冲区池中的直接缓冲区分块读写文件数据时每块的大小
+    private static final int IO_CHUNK_SIZE = 1 << 20;
+    
+    private static final java.security.SecureRandom AES_IV_RANDOM = new java.security.SecureRandom();
+    
     // 包文件魔数和版本
     private static final byte[] PACKAGE_MAGIC = "FBS1".getBytes(StandardCharsets.UTF_8);
-    private static final int PACKAGE_VERSION = 1;
+    private static final int PACKAGE_VERSION = 3;
     
     // 存储模式枚举
     public enum StorageMode {
@@ -47,6 +64,18 @@ public class BackupPackage {
         AES256          // AES-256加密
     }
     
+    // 完整性级别枚举
+    public enum IntegrityLevel {
+        FAST,           // CRC32C校验，仅用于变化和损坏检测
+        STRONG          // SHA-256哈希，可作为内容标识（如去重）
+    }
+    
+    // 验证模式枚举
+    public enum VerifyMode {
+        FAST,           // 快速验证：仅校验存储数据的校验和，无需密码
+        DEEP            // 完整验证：解密、解压后校验原始内容哈希
+    }
+    
     // 文件记录类
     public static class FileRecord {
         private String relativePath;        // 相对路径
@@ -54,7 +83,12 @@ public class BackupPackage {
         private long size;                  // 原始大小
         private long storedSize;           // 存储大小
         private String hash;               // 原始哈希
-        private String storedHash;         // 存储后哈希
+        private String hashAlgorithm;      // 哈希算法（为空表示整个文件的SHA-256，否则为Merkle树算法）
+        private int hashLeafSize;          // Merkle树叶子大小
+        private List<String> leafHashes;   // Merkle树叶子哈希（可选）
+        private String storedHash;         // 存储数据的CRC32C校验和（压缩、加密之后）
+        private int storedBlockSize;       // 存储数据分块大小（0表示未分块）
+        private List<String> storedBlockChecksums; // 存储数据每块的CRC32C校验和（可选）
         private int permissions;           // 权限
         private long createdAt;            // 创建时间
         private long modifiedAt;           // 修改时间
@@ -65,6 +99,9 @@ public class BackupPackage {
         private boolean metadataOnly;      // 是否仅元数据
         private long dataOffset;           // 数据偏移量
         private String storedRelativePath; // 存储相对路径
+        private boolean deleted;           // 删除标记（增量包中表示该路径在源中已删除）
+        private String deltaBaseBackupId;  // 差量基准所在包的备份ID（为空表示存储完整内容）
+        private String deltaBaseHash;      // 差量基准内容的哈希
         
         // 构造函数
         public FileRecord() {}
@@ -92,9 +129,24 @@ public class BackupPackage {
         public String getHash() { return hash; }
         public void setHash(String hash) { this.hash = hash; }
         
+        public String getHashAlgorithm() { return hashAlgorithm; }
+        public void setHashAlgorithm(String hashAlgorithm) { this.hashAlgorithm = hashAlgorithm; }
+        
+        public int getHashLeafSize() { return hashLeafSize; }
+        public void setHashLeafSize(int hashLeafSize) { this.hashLeafSize = hashLeafSize; }
+        
+        public List<String> getLeafHashes() { return leafHashes; }
+        public void setLeafHashes(List<String> leafHashes) { this.leafHashes = leafHashes; }
+        
         public String getStoredHash() { return storedHash; }
         public void setStoredHash(String storedHash) { this.storedHash = storedHash; }
         
+        public int getStoredBlockSize() { return storedBlockSize; }
+        public void setStoredBlockSize(int storedBlockSize) { this.storedBlockSize = storedBlockSize; }
+        
+        public List<String> getStoredBlockChecksums() { return storedBlockChecksums; }
+        public void setStoredBlockChecksums(List<String> storedBlockChecksums) { this.storedBlockChecksums = storedBlockChecksums; }
+        
         public int getPermissions() { return permissions; }
         public void setPermissions(int permissions) { this.permissions = permissions; }
         
@@ -125,6 +177,18 @@ public class BackupPackage {
         public String getStoredRelativePath() { return storedRelativePath; }
         public void setStoredRelativePath(String storedRelativePath) { this.storedRelativePath = storedRelativePath; }
         
+        public boolean isDeleted() { return deleted; }
+        public void setDeleted(boolean deleted) { this.deleted = deleted; }
+        
+        public String getDeltaBaseBackupId() { return deltaBaseBackupId; }
+        public void setDeltaBaseBackupId(String deltaBaseBackupId) { this.deltaBaseBackupId = deltaBaseBackupId; }
+        
+        public String getDeltaBaseHash() { return deltaBaseHash; }
+        public void setDeltaBaseHash(String deltaBaseHash) { this.deltaBaseHash = deltaBaseHash; }
+        
+        // 存储数据是否为相对父包链中上一版本的差量
+        public boolean isDelta() { return deltaBaseBackupId != null; }
+        
         // 加密和压缩相关字段
         private boolean compressed = false;
         private CompressionMethod compressionMethod = CompressionMethod.NONE;
@@ -163,6 +227,8 @@ public class BackupPackage {
         private long totalBytes = 0;
         private String dataRelativePath = "data";
         private List<FileRecord> files = new ArrayList<>();
+        private String parentBackupId;      // 增量包的父包备份ID（完整包为空）
+        private String parentPackage;       // 父包文件路径（相对于本包所在目录）
         
         // 运行时信息（不序列化）
         private transient String manifestPath;
@@ -228,6 +294,15 @@ public class BackupPackage {
         public List<FileRecord> getFiles() { return files; }
         public void setFiles(List<FileRecord> files) { this.files = files; }
         
+        public String getParentBackupId() { return parentBackupId; }
+        public void setParentBackupId(String parentBackupId) { this.parentBackupId = parentBackupId; }
+        
+        public String getParentPackage() { return parentPackage; }
+        public void setParentPackage(String parentPackage) { this.parentPackage = parentPackage; }
+        
+        // 是否为增量包
+        public boolean isIncremental() { return parentBackupId != null; }
+        
         public String getManifestPath() { return manifestPath; }
         public void setManifestPath(String manifestPath) { this.manifestPath = manifestPath; }
         
@@ -265,27 +340,136 @@ public class BackupPackage {
     }
     
     // 包文件头结构
-    private static class PackageHeader {
+    // 版本1: 魔数 + 版本 + Manifest偏移量 + Manifest长度
+    // 版本2: 在版本1基础上追加密钥槽区域，数据使用包裹在密钥槽中的数据密钥加密
+    static class PackageHeader {
+        int version;          // 包版本
         long manifestOffset;  // Manifest偏移量
         long manifestLength;  // Manifest长度
+        KeySlots keySlots;    // 密钥槽（版本1为null）
+        long parityOffset;    // 纠删校验区偏移量（版本3起，0表示没有校验区）
+        long parityLength;    // 纠删校验区长度
         
-        PackageHeader(long offset, long length) {
+        PackageHeader(int version, long offset, long length, KeySlots keySlots) {
+            this.version = version;
             this.manifestOffset = offset;
             this.manifestLength = length;
+            this.keySlots = keySlots;
+        }
+        
+        // 密钥槽区域在文件中的位置
+        static long keySlotsPosition() {
+            return PACKAGE_MAGIC.length + 4 + 8 + 8;
         }
         
-        // 写入到输出流
-        void writeTo(DataOutputStream out) throws IOException {
-            out.writeLong(manifestOffset);
-            out.writeLong(manifestLength);
+        // 包头之后数据区的起点
+        long dataStart() {
+            long position = keySlotsPosition();
+            if (version >= 2) {
+                position += KeySlots.AREA_SIZE;
+            }
+            if (version >= 3) {
+                position += 8 + 8;
+            }
+            return position;
         }
         
-        // 从输入流读取
-        static PackageHeader readFrom(DataInputStream in) throws IOException {
-            long offset = in.readLong();
-            long length = in.readLong();
-            return new PackageHeader(offset, length);
+        boolean hasParity() {
+            return parityOffset > 0;
+        }
+        
+        // 从文件开头写入
+        void writeTo(RandomAccessFile raf) throws IOException {
+            raf.seek(0);
+            raf.write(PACKAGE_MAGIC);
+            raf.writeInt(version);
+            raf.writeLong(manifestOffset);
+            raf.writeLong(manifestLength);
+            if (keySlots != null) {
+                keySlots.writeTo(raf);
+            }
+            if (version >= 3) {
+                raf.writeLong(parityOffset);
+                raf.writeLong(parityLength);
+            }
         }
+        
+        // 从文件开头读取
+        static PackageHeader readFrom(RandomAccessFile raf) throws IOException {
+            raf.seek(0);
+            byte[] magic = new byte[4];
+            raf.readFully(magic);
+            if (!Arrays.equals(magic, PACKAGE_MAGIC)) {
+                throw new IOException("无效的包文件格式");
+            }
+            
+            int version = raf.readInt();
+            if (version < 1 || version > PACKAGE_VERSION) {
+                throw new IOException("不支持的包版本: " + version);
+            }
+            
+            long offset = raf.readLong();
+            long length = raf.readLong();
+            KeySlots keySlots = version >= 2 ? KeySlots.readFrom(raf) : null;
+            PackageHeader header = new PackageHeader(version, offset, length, keySlots);
+            if (version >= 3) {
+                header.parityOffset = raf.readLong();
+                header.parityLength = raf.readLong();
+            }
+            return header;
+        }
+    }
+    
+    /**
+     * 读取包头之后的Manifest
+     */
+    static BackupManifest readManifest(RandomAccessFile raf, PackageHeader header) throws IOException {
+        raf.seek(header.manifestOffset);
+        byte[] manifestBytes = new byte[(int) header.manifestLength];
+        raf.readFully(manifestBytes);
+        String manifestJson = new String(manifestBytes, StandardCharsets.UTF_8);
+        return BackupManifest.fromJson(manifestJson);
+    }
+    
+    /**
+     * 根据包头解析数据密钥
+     * 版本1的包直接由密码派生密钥；版本2的包从密钥槽中解开数据密钥
+     * @return 数据密钥，未提供密码或包未加密时返回null
+     */
+    static byte[] resolveDataKey(PackageHeader header, String password) throws IOException {
+        if (password == null || password.isEmpty()) {
+            return null;
+        }
+        if (header.version < 2) {
+            return deriveLegacyKey(password);
+        }
+        if (header.keySlots.isEmpty()) {
+            return null;
+        }
+        byte[] dataKey = header.keySlots.unlock(password);
+        if (dataKey == null) {
+            throw new IOException("密码错误: 无法解锁数据密钥");
+        }
+        return dataKey;
+    }
+    
+    /**
+     * 写入Manifest、可选的纠删校验区，并回写包头
+     */
+    private static void finishPackage(RandomAccessFile raf, BackupManifest manifest, KeySlots keySlots,
+                                      BackupService.BackupOptions options) throws IOException {
+        long manifestOffset = raf.getFilePointer();
+        byte[] manifestBytes = manifest.toJson().getBytes(StandardCharsets.UTF_8);
+        raf.write(manifestBytes);
+        
+        PackageHeader header = new PackageHeader(PACKAGE_VERSION, manifestOffset, manifestBytes.length, keySlots);
+        if (options.getParityShards() > 0) {
+            long protectedEnd = manifestOffset + manifestBytes.length;
+            header.parityOffset = protectedEnd;
+            header.parityLength = PackageParity.write(raf, header.dataStart(), protectedEnd,
+                options.getParityDataShards(), options.getParityShards(), PackageParity.DEFAULT_SHARD_SIZE);
+        }
+        header.writeTo(raf);
     }
     
     /**
@@ -311,30 +495,18 @@ public class BackupPackage {
         manifest.setRootName(source.getFileName().toString());
         
         try (RandomAccessFile raf = new RandomAccessFile(output.toFile(), "rw")) {
-            // 写入魔数和版本
-            raf.write(PACKAGE_MAGIC);
-            raf.writeInt(PACKAGE_VERSION);
+            raf.setLength(0);
             
             // 预留Header位置（后面再写）
-            long headerPosition = raf.getFilePointer();
-            raf.writeLong(0); // manifestOffset
-            raf.writeLong(0); // manifestLength
+            KeySlots keySlots = KeySlots.empty();
+            new PackageHeader(PACKAGE_VERSION, 0, 0, keySlots).writeTo(raf);
             
             // 收集文件并写入数据
             List<FileRecord> records = collectFiles(source, manifest, raf, options);
             manifest.setFiles(records);
             
-            // 写入Manifest
-            long manifestOffset = raf.getFilePointer();
-            String manifestJson = manifest.toJson();
-            byte[] manifestBytes = manifestJson.getBytes(StandardCharsets.UTF_8);
-            raf.write(manifestBytes);
-            long manifestLength = manifestBytes.length;
-            
-            // 回写Header
-            raf.seek(headerPosition);
-            raf.writeLong(manifestOffset);
-            raf.writeLong(manifestLength);
+            // 写入Manifest并回写Header
+            finishPackage(raf, manifest, keySlots, options);
             
             return true;
         }
@@ -375,38 +547,679 @@ public class BackupPackage {
         manifest.setCompressionMethod(compressionMethod);
         manifest.setEncryptionMethod(encryptionMethod);
         
+        // 加密时生成随机数据密钥，并用密码包裹后存入密钥槽
+        KeySlots keySlots = KeySlots.empty();
+        byte[] dataKey = null;
+        if (encrypt && encryptionMethod != EncryptionMethod.NONE && password != null && !password.isEmpty()) {
+            dataKey = KeySlots.generateDataKey();
+            keySlots.addSlot(dataKey, password);
+        }
+        
         try (RandomAccessFile raf = new RandomAccessFile(output.toFile(), "rw")) {
-            // 写入魔数和版本
-            raf.write(PACKAGE_MAGIC);
-            raf.writeInt(PACKAGE_VERSION);
+            raf.setLength(0);
             
             // 预留Header位置（后面再写）
-            long headerPosition = raf.getFilePointer();
-            raf.writeLong(0); // manifestOffset
-            raf.writeLong(0); // manifestLength
+            new PackageHeader(PACKAGE_VERSION, 0, 0, keySlots).writeTo(raf);
             
             // 收集文件并写入数据（带加密和压缩）
             List<FileRecord> records = collectFilesWithEncryption(source, manifest, raf, options, 
-                                                                compress, encrypt, compressionMethod, 
-                                                                encryptionMethod, password);
+                                                                compress, compressionMethod, 
+                                                                encryptionMethod, dataKey);
             manifest.setFiles(records);
             
-            // 写入Manifest
-            long manifestOffset = raf.getFilePointer();
-            String manifestJson = manifest.toJson();
-            byte[] manifestBytes = manifestJson.getBytes(StandardCharsets.UTF_8);
-            raf.write(manifestBytes);
-            long manifestLength = manifestBytes.length;
+            // 写入Manifest并回写Header
+            finishPackage(raf, manifest, keySlots, options);
             
-            // 回写Header
-            raf.seek(headerPosition);
-            raf.writeLong(manifestOffset);
-            raf.writeLong(manifestLength);
+            return true;
+        }
+    }
+    
+    /**
+     * 创建增量备份包
+     * 只写入相对父包链新增或变化的文件，已删除的路径写入删除标记，Manifest中记录父包引用。
+     * 父包已加密时复制其密钥槽并沿用同一数据密钥，整条增量链可以用同一组密码解锁；
+     * 修改密码（changePassword、addPassword、removePassword）时链上共用这组密钥槽的包一起修改。
+     * @param sourcePath 源路径
+     * @param outputPath 输出包文件路径
+     * @param options 备份选项
+     * @param compress 是否压缩
+     * @param encrypt 是否加密
+     * @param compressionMethod 压缩方法
+     * @param encryptionMethod 加密方法
+     * @param password 加密密码
+     * @param parentPackagePath 父包路径（完整包或增量包）
+     * @param compareContentHash 大小和修改时间相同时是否再比较内容哈希
+     * @param deltaEncoding 变化的大文件是否存储为相对上一版本的二进制差量
+     * @return 是否成功
+     */
+    public static boolean createIncrementalPackage(String sourcePath, String outputPath,
+                                                  BackupService.BackupOptions options,
+                                                  boolean compress, boolean encrypt,
+                                                  CompressionMethod compressionMethod,
+                                                  EncryptionMethod encryptionMethod,
+                                                  String password,
+                                                  String parentPackagePath,
+                                                  boolean compareContentHash,
+                                                  boolean deltaEncoding) throws IOException {
+        Path source = Paths.get(sourcePath);
+        Path output = Paths.get(outputPath);
+        Path parent = Paths.get(parentPackagePath);
+        
+        if (!Files.exists(source)) {
+            throw new IOException("源路径不存在: " + sourcePath);
+        }
+        
+        // 解析父包链，得到每个路径当前的记录
+        List<Path> chain = resolveChain(parent);
+        Map<String, ChainRecord> baseline = resolveChainRecords(chain);
+        
+        PackageHeader parentHeader;
+        BackupManifest parentManifest;
+        try (RandomAccessFile parentRaf = new RandomAccessFile(parent.toFile(), "r")) {
+            parentHeader = PackageHeader.readFrom(parentRaf);
+            parentManifest = readManifest(parentRaf, parentHeader);
+        }
+        
+        // 创建Manifest
+        BackupManifest manifest = new BackupManifest();
+        manifest.setSourcePath(sourcePath);
+        manifest.setStorageMode(StorageMode.PACKAGE);
+        manifest.setRootName(source.getFileName().toString());
+        manifest.setCompressed(compress);
+        manifest.setEncrypted(encrypt);
+        manifest.setCompressionMethod(compressionMethod);
+        manifest.setEncryptionMethod(encryptionMethod);
+        manifest.setParentBackupId(parentManifest.getBackupId());
+        manifest.setParentPackage(output.toAbsolutePath().getParent().relativize(parent.toAbsolutePath()).toString());
+        
+        // 父包有密钥槽时沿用其数据密钥
+        KeySlots keySlots = KeySlots.empty();
+        byte[] dataKey = null;
+        if (encrypt && encryptionMethod != EncryptionMethod.NONE && password != null && !password.isEmpty()) {
+            if (parentHeader.keySlots != null && !parentHeader.keySlots.isEmpty()) {
+                dataKey = parentHeader.keySlots.unlock(password);
+                if (dataKey == null) {
+                    throw new IOException("密码错误: 无法解锁父包的数据密钥");
+                }
+                keySlots = parentHeader.keySlots.copy();
+            } else {
+                dataKey = KeySlots.generateDataKey();
+                keySlots.addSlot(dataKey, password);
+            }
+        }
+        
+        try (RandomAccessFile raf = new RandomAccessFile(output.toFile(), "rw");
+             ChainReader deltaReader = deltaEncoding ? new ChainReader(chain, password) : null) {
+            raf.setLength(0);
+            
+            // 预留Header位置（后面再写）
+            new PackageHeader(PACKAGE_VERSION, 0, 0, keySlots).writeTo(raf);
+            
+            // 只收集变化的文件
+            List<FileRecord> records = collectFilesWithEncryption(source, manifest, raf, options,
+                                                                compress, compressionMethod,
+                                                                encryptionMethod, dataKey,
+                                                                baseline, compareContentHash, deltaReader);
+            manifest.setFiles(records);
+            
+            // 写入Manifest并回写Header
+            finishPackage(raf, manifest, keySlots, options);
             
             return true;
         }
     }
     
+    // =============== 高并发I/O流水线 ===============
+    
+    /**
+     * I/O模式下的打包流水线
+     * 文件读取在I/O线程（支持时为虚拟线程）上并发进行，每个挂载点的并发读取数受信号量限制；
+     * 差量、压缩、加密和哈希在有界的CPU线程池上进行；调用线程按扫描顺序写入数据并添加记录，
+     * 包内的数据和记录顺序与顺序模式相同。在途文件的数量和总大小都有上限，避免预读占用过多内存。
+     * 启用自适应并发时（非I/O模式也使用流水线，最多按并行度读取），同时进行的读取数随主机负载调整。
+     * 每个文件在读取前按文件大小的两倍申请内存额度（读取的数据和编码结果），写入后归还；额度不足时先写出队首的文件，
+     * 队列为空时等待其他任务归还额度，不会因为队列中的后续文件占用额度而死锁。
+     */
+    private static final class WritePipeline implements Closeable {
+        
+        /**
+         * 文件数据编码器
+         */
+        interface Encoder {
+            byte[] encode(byte[] fileData) throws IOException;
+        }
+        
+        // 在途文件数据的总大小上限
+        private static final long MAX_INFLIGHT_BYTES = 256L * 1024 * 1024;
+        
+        private static final class Pending {
+            private final FileRecord record;
+            private final Path path;
+            private final CompletableFuture<byte[]> storedData;   // 无数据的记录为null
+            private final long memory;                            // 申请的内存额度
+            
+            Pending(FileRecord record, Path path, CompletableFuture<byte[]> storedData, long memory) {
+                this.record = record;
+                this.path = path;
+                this.storedData = storedData;
+                this.memory = memory;
+            }
+        }
+        
+        private final RandomAccessFile raf;
+        private final List<FileRecord> records;
+        private final BackupManifest manifest;
+        private final ExecutorService ioExecutor;
+        private final ExecutorService cpuExecutor;
+        private final Semaphore permits;
+        private final ConcurrencyController controller;     // 自适应并发控制，未启用时为null
+        private final IoThrottle throttle;
+        private final int window;
+        private final Deque<Pending> queue = new ArrayDeque<>();
+        private long inflightBytes;
+        
+        WritePipeline(Path source, RandomAccessFile raf, List<FileRecord> records, BackupManifest manifest,
+                      BackupService.BackupOptions options) {
+            this.raf = raf;
+            this.records = records;
+            this.manifest = manifest;
+            int concurrency = options.isIoMode() ? options.getIoConcurrency() : options.getParallelism();
+            this.ioExecutor = IoExecutors.newIoExecutor("backup-read", concurrency);
+            this.cpuExecutor = IoExecutors.newCpuExecutor("backup-encode", options.getParallelism());
+            this.permits = options.isIoMode()
+                ? IoExecutors.mountPermits(source, concurrency) : new Semaphore(Math.max(1, concurrency));
+            this.controller = ConcurrencyController.create(options, concurrency);
+            this.window = Math.max(1, concurrency);
+            this.throttle = options.getThrottle();
+        }
+        
+        /**
+         * 添加没有数据的记录（目录等）
+         */
+        void addRecord(FileRecord record) throws IOException {
+            queue.add(new Pending(record, null, null, 0));
+            drain(window);
+        }
+        
+        /**
+         * 添加文件：异步读取并编码，轮到时再写入
+         */
+        void addFile(FileRecord record, Path path, Encoder encoder) throws IOException {
+            long memory = acquireMemory(record.getSize() * 2);
+            CompletableFuture<byte[]> storedData = CompletableFuture
+                .supplyAsync(() -> read(path), ioExecutor)
+                .thenApplyAsync(fileData -> {
+                    try {
+                        return encoder.encode(fileData);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, cpuExecutor);
+            queue.add(new Pending(record, path, storedData, memory));
+            inflightBytes += record.getSize();
+            drain(window);
+        }
+        
+        /**
+         * 写入所有剩余的文件
+         */
+        void finish() throws IOException {
+            drain(0);
+        }
+        
+        @Override
+        public void close() {
+            ioExecutor.shutdownNow();
+            cpuExecutor.shutdownNow();
+            // 出错中止时归还未写入的文件的额度
+            for (Pending pending : queue) {
+                MemoryBudget.global().release(pending.memory);
+            }
+            queue.clear();
+        }
+        
+        // 申请内存额度：不足时先写出队首的文件归还额度，队列为空时等待
+        private long acquireMemory(long bytes) throws IOException {
+            long memory;
+            while ((memory = MemoryBudget.global().tryAcquire(bytes)) < 0) {
+                if (queue.isEmpty()) {
+                    return MemoryBudget.global().acquire(bytes);
+                }
+                drain(queue.size() - 1);
+            }
+            return memory;
+        }
+        
+        private byte[] read(Path path) {
+            if (controller != null) {
+                controller.acquire();
+            }
+            permits.acquireUninterruptibly();
+            long started = System.nanoTime();
+            long bytes = 0;
+            try {
+                byte[] fileData = readFile(path, throttle);
+                bytes = fileData.length;
+                return fileData;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                permits.release();
+                if (controller != null) {
+                    controller.release(System.nanoTime() - started, bytes);
+                }
+            }
+        }
+        
+        // 按顺序写入队首的文件，直到在途数量和大小都低于上限
+        private void drain(int limit) throws IOException {
+            while (!queue.isEmpty() && (queue.size() > limit || inflightBytes > MAX_INFLIGHT_BYTES)) {
+                Pending pending = queue.poll();
+                if (pending.storedData == null) {
+                    records.add(pending.record);
+                    manifest.addFileRecord(pending.record);
+                    continue;
+                }
+                inflightBytes -= pending.record.getSize();
+                byte[] storedData;
+                try {
+                    storedData = pending.storedData.join();
+                } catch (CompletionException | CancellationException e) {
+                    MemoryBudget.global().release(pending.memory);
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    if (cause.getCause() != null && cause instanceof UncheckedIOException) {
+                        cause = cause.getCause();
+                    }
+                    System.err.println("处理文件失败: " + pending.path + " - " + cause.getMessage());
+                    continue;
+                }
+                try {
+                    pending.record.setDataOffset(raf.getFilePointer());
+                    writeFully(raf, storedData, throttle);
+                } finally {
+                    MemoryBudget.global().release(pending.memory);
+                }
+                records.add(pending.record);
+                manifest.addFileRecord(pending.record);
+            }
+        }
+    }
+    
+    // =============== 增量链 ===============
+    
+    /**
+     * 增量链中某个路径的最新记录及其所在的包
+     */
+    static class ChainRecord {
+        final Path packagePath;
+        final FileRecord record;
+        
+        ChainRecord(Path packagePath, FileRecord record) {
+            this.packagePath = packagePath;
+            this.record = record;
+        }
+    }
+    
+    /**
+     * 按需读取增量链中的文件内容：解密、解压，差量记录再沿基准版本还原
+     * 打开的包文件、数据密钥和Manifest在关闭前缓存复用；不是线程安全的，多线程共用时由调用方同步。
+     */
+    static class ChainReader implements Closeable {
+        private final String password;
+        private final Map<String, Path> packagesById = new HashMap<>();
+        private final Map<Path, String> backupIds = new HashMap<>();
+        private final Map<Path, Map<String, FileRecord>> dataRecords = new HashMap<>();
+        private final Map<Path, RandomAccessFile> files = new HashMap<>();
+        private final Map<Path, byte[]> dataKeys = new HashMap<>();
+        
+        ChainReader(List<Path> chain, String password) throws IOException {
+            this.password = password;
+            for (Path packagePath : chain) {
+                BackupManifest manifest = getPackageInfo(packagePath.toString());
+                packagesById.put(manifest.getBackupId(), packagePath);
+                backupIds.put(packagePath, manifest.getBackupId());
+                Map<String, FileRecord> records = new HashMap<>();
+                for (FileRecord record : manifest.getFiles()) {
+                    if (record.isHasData()) {
+                        records.put(record.getRelativePath(), record);
+                    }
+                }
+                dataRecords.put(packagePath, records);
+            }
+        }
+        
+        // 只读取构造时建立的映射，可以不加锁调用
+        String backupId(Path packagePath) {
+            return backupIds.get(packagePath);
+        }
+        
+        /**
+         * 读取包中某个文件的完整内容
+         */
+        byte[] read(Path packagePath, FileRecord record) throws IOException {
+            RandomAccessFile raf = files.get(packagePath);
+            if (raf == null) {
+                raf = new RandomAccessFile(packagePath.toFile(), "r");
+                files.put(packagePath, raf);
+            }
+            byte[] dataKey = null;
+            if (record.isEncrypted()) {
+                if (!dataKeys.containsKey(packagePath)) {
+                    dataKeys.put(packagePath, resolveDataKey(PackageHeader.readFrom(raf), password));
+                }
+                dataKey = dataKeys.get(packagePath);
+            }
+            return materialize(record, decodeStoredData(record, readStoredData(raf, record), dataKey));
+        }
+        
+        /**
+         * 差量记录：读取基准版本并应用差量；其他记录原样返回
+         * @param data 已解密、解压的存储数据
+         */
+        byte[] materialize(FileRecord record, byte[] data) throws IOException {
+            if (!record.isDelta()) {
+                return data;
+            }
+            Path basePackage = packagesById.get(record.getDeltaBaseBackupId());
+            if (basePackage == null) {
+                throw new IOException("增量链中找不到差量基准包: " + record.getDeltaBaseBackupId());
+            }
+            FileRecord base = dataRecords.get(basePackage).get(record.getRelativePath());
+            if (base == null || !base.getHash().equals(record.getDeltaBaseHash())) {
+                throw new IOException("差量基准不匹配: " + record.getRelativePath());
+            }
+            return DeltaCodec.apply(read(basePackage, base), data);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            for (RandomAccessFile raf : files.values()) {
+                raf.close();
+            }
+            files.clear();
+        }
+    }
+    
+    /**
+     * 解析增量链
+     * @return 从完整包到给定包的包路径列表
+     */
+    static List<Path> resolveChain(Path packagePath) throws IOException {
+        LinkedList<Path> chain = new LinkedList<>();
+        Set<String> visited = new HashSet<>();
+        Path current = packagePath.toAbsolutePath().normalize();
+        String expectedBackupId = null;
+        
+        while (current != null) {
+            if (!Files.exists(current)) {
+                throw new IOException("增量链断裂，找不到父包: " + current);
+            }
+            BackupManifest manifest = getPackageInfo(current.toString());
+            if (expectedBackupId != null && !expectedBackupId.equals(manifest.getBackupId())) {
+                throw new IOException("增量链断裂，父包备份ID不匹配: " + current);
+            }
+            if (!visited.add(manifest.getBackupId())) {
+                throw new IOException("增量链存在循环: " + current);
+            }
+            chain.addFirst(current);
+            
+            if (manifest.getParentBackupId() == null) {
+                current = null;
+            } else {
+                expectedBackupId = manifest.getParentBackupId();
+                current = current.getParent().resolve(manifest.getParentPackage()).normalize();
+            }
+        }
+        return chain;
+    }
+    
+    /**
+     * 按从旧到新的顺序合并增量链中的记录，删除标记会移除对应路径
+     * @return 路径到最新记录的映射
+     */
+    static Map<String, ChainRecord> resolveChainRecords(List<Path> chain) throws IOException {
+        Map<String, ChainRecord> resolved = new LinkedHashMap<>();
+        for (Path packagePath : chain) {
+            for (FileRecord record : getPackageInfo(packagePath.toString()).getFiles()) {
+                if (record.isDeleted()) {
+                    resolved.remove(record.getRelativePath());
+                } else {
+                    resolved.put(record.getRelativePath(), new ChainRecord(packagePath, record));
+                }
+            }
+        }
+        return resolved;
+    }
+    
+    /**
+     * 列出包还原后的全部文件记录（增量包会合并整条增量链）
+     */
+    public static List<FileRecord> listFiles(String packagePath) throws IOException {
+        List<FileRecord> files = new ArrayList<>();
+        for (ChainRecord entry : resolveChainRecords(resolveChain(Paths.get(packagePath))).values()) {
+            files.add(entry.record);
+        }
+        return files;
+    }
+    
+    /**
+     * 将增量链合并为一个新的完整包（合成完整备份），不需要访问源数据
+     * 按路径保留最新版本，一次顺序写出；存储数据尽量原样复制，不解密也不解压，
+     * 只有链中某个包的数据密钥与输出包不同时才解密后用输出包的数据密钥重新加密。
+     * 差量记录会沿增量链还原为完整内容后重新压缩、加密。
+     * 原有的增量链保持不变，确认新包可用后可以自行删除。
+     * @param packagePath 增量链末端的包
+     * @param outputPath 输出包文件路径
+     * @param password 密码（链中所有加密包共享同一组密钥槽时可以为空）
+     * @param options 备份选项（纠删校验等包级设置）
+     * @return 是否成功
+     */
+    public static boolean synthesizeFullPackage(String packagePath, String outputPath, String password,
+                                                BackupService.BackupOptions options) throws IOException {
+        Path tip = Paths.get(packagePath);
+        Path output = Paths.get(outputPath);
+        if (!Files.exists(tip)) {
+            throw new IOException("包文件不存在: " + packagePath);
+        }
+        if (output.toAbsolutePath().normalize().equals(tip.toAbsolutePath().normalize())) {
+            throw new IOException("输出包不能覆盖源包: " + outputPath);
+        }
+        
+        List<Path> chain = resolveChain(tip);
+        Map<String, ChainRecord> resolved = resolveChainRecords(chain);
+        BackupManifest tipManifest = getPackageInfo(packagePath);
+        
+        // 输出包沿用链中最新一组密钥槽
+        Map<Path, PackageHeader> headers = new HashMap<>();
+        KeySlots keySlots = null;
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            try (RandomAccessFile raf = new RandomAccessFile(chain.get(i).toFile(), "r")) {
+                PackageHeader header = PackageHeader.readFrom(raf);
+                headers.put(chain.get(i), header);
+                if (keySlots == null && header.keySlots != null && !header.keySlots.isEmpty()) {
+                    keySlots = header.keySlots.copy();
+                }
+            }
+        }
+        if (keySlots == null) {
+            keySlots = KeySlots.empty();
+        }
+        byte[] outputKey = null;
+        if (password != null && !password.isEmpty() && !keySlots.isEmpty()) {
+            outputKey = keySlots.unlock(password);
+            if (outputKey == null) {
+                throw new IOException("密码错误: 无法解锁数据密钥");
+            }
+        }
+        
+        BackupManifest manifest = new BackupManifest();
+        manifest.setSourcePath(tipManifest.getSourcePath());
+        manifest.setStorageMode(StorageMode.PACKAGE);
+        manifest.setRootName(tipManifest.getRootName());
+        manifest.setCreatedAt(tipManifest.getCreatedAt());
+        manifest.setCompressed(tipManifest.isCompressed());
+        manifest.setEncrypted(tipManifest.isEncrypted());
+        manifest.setCompressionMethod(tipManifest.getCompressionMethod());
+        manifest.setEncryptionMethod(tipManifest.getEncryptionMethod());
+        manifest.setPreserveMetadata(tipManifest.isPreserveMetadata());
+        manifest.setIncludeSpecialFiles(tipManifest.isIncludeSpecialFiles());
+        
+        try (RandomAccessFile raf = new RandomAccessFile(output.toFile(), "rw")) {
+            raf.setLength(0);
+            new PackageHeader(PACKAGE_VERSION, 0, 0, keySlots).writeTo(raf);
+            
+            Map<Path, RandomAccessFile> sources = new HashMap<>();
+            Map<Path, Boolean> rawCopy = new HashMap<>();
+            Map<Path, byte[]> transcodeKeys = new HashMap<>();
+            try (ChainReader chainReader = new ChainReader(chain, password)) {
+                for (ChainRecord entry : resolved.values()) {
+                    FileRecord record = entry.record;
+                    if (record.isHasData()) {
+                        RandomAccessFile source = sources.get(entry.packagePath);
+                        if (source == null) {
+                            source = new RandomAccessFile(entry.packagePath.toFile(), "r");
+                            sources.put(entry.packagePath, source);
+                        }
+                        
+                        Boolean sameKey = rawCopy.get(entry.packagePath);
+                        if (sameKey == null && record.isEncrypted()) {
+                            sameKey = sameDataKey(headers.get(entry.packagePath), keySlots, password, outputKey);
+                            rawCopy.put(entry.packagePath, sameKey);
+                        }
+                        
+                        long dataOffset = raf.getFilePointer();
+                        if (record.isDelta()) {
+                            // 差量记录：还原完整内容后重新编码
+                            byte[] stored = encodeMaterialized(record, chainReader.read(entry.packagePath, record),
+                                                               manifest, outputKey);
+                            raf.write(stored);
+                            record.setStoredSize(stored.length);
+                            record.setStoredBlockSize(0);
+                            record.setStoredBlockChecksums(null);
+                            recordStoredChecksums(record, stored);
+                            record.setDeltaBaseBackupId(null);
+                            record.setDeltaBaseHash(null);
+                        } else if (record.isEncrypted() && !sameKey) {
+                            // 数据密钥不同：解密后用输出包的数据密钥重新加密
+                            byte[] sourceKey = transcodeKeys.get(entry.packagePath);
+                            if (sourceKey == null) {
+                                sourceKey = resolveDataKey(headers.get(entry.packagePath), password);
+                                if (sourceKey == null || outputKey == null) {
+                                    throw new IOException("增量链中的包使用了不同的数据密钥，需要提供密码: " + entry.packagePath);
+                                }
+                                transcodeKeys.put(entry.packagePath, sourceKey);
+                            }
+                            byte[] plain = decryptData(readStoredData(source, record), sourceKey, record.getEncryptionMethod());
+                            byte[] stored = encryptData(plain, outputKey, record.getEncryptionMethod());
+                            raf.write(stored);
+                            record.setStoredSize(stored.length);
+                            record.setStoredBlockSize(0);
+                            record.setStoredBlockChecksums(null);
+                            recordStoredChecksums(record, stored);
+                        } else {
+                            // 原样复制存储数据，校验和仍然有效
+                            copyStoredData(source, record, raf);
+                        }
+                        record.setDataOffset(dataOffset);
+                    }
+                    manifest.addFileRecord(record);
+                }
+            } finally {
+                for (RandomAccessFile source : sources.values()) {
+                    source.close();
+                }
+            }
+            
+            finishPackage(raf, manifest, keySlots, options);
+            return true;
+        }
+    }
+    
+    // 按输出包的压缩设置和数据密钥重新编码还原后的完整内容
+    private static byte[] encodeMaterialized(FileRecord record, byte[] content, BackupManifest manifest,
+                                             byte[] outputKey) throws IOException {
+        byte[] stored = content;
+        record.setCompressed(false);
+        record.setCompressionMethod(CompressionMethod.NONE);
+        if (manifest.isCompressed() && manifest.getCompressionMethod() != CompressionMethod.NONE) {
+            byte[] compressedData = compressData(content, manifest.getCompressionMethod());
+            if (compressedData.length < content.length * 0.95) {
+                stored = compressedData;
+                record.setCompressed(true);
+                record.setCompressionMethod(manifest.getCompressionMethod());
+            }
+        }
+        if (record.isEncrypted()) {
+            if (outputKey == null) {
+                throw new IOException("合成差量文件需要提供密码: " + record.getRelativePath());
+            }
+            stored = encryptData(stored, outputKey, record.getEncryptionMethod());
+        }
+        return stored;
+    }
+    
+    // 判断源包与输出包是否使用同一个数据密钥
+    private static boolean sameDataKey(PackageHeader header, KeySlots outputSlots, String password, byte[] outputKey) throws IOException {
+        if (header.keySlots != null && header.keySlots.sameAs(outputSlots)) {
+            return true;
+        }
+        if (outputKey == null) {
+            return false;
+        }
+        byte[] sourceKey = resolveDataKey(header, password);
+        return sourceKey != null && Arrays.equals(sourceKey, outputKey);
+    }
+    
+    // 将一个文件的存储数据从源包直接复制到输出包当前位置
+    private static void copyStoredData(RandomAccessFile source, FileRecord record, RandomAccessFile target) throws IOException {
+        java.nio.channels.FileChannel from = source.getChannel();
+        java.nio.channels.FileChannel to = target.getChannel();
+        long position = record.getDataOffset();
+        long remaining = record.getStoredSize();
+        while (remaining > 0) {
+            long copied = from.transferTo(position, remaining, to);
+            if (copied <= 0) {
+                throw new EOFException("数据意外结束: " + record.getRelativePath());
+            }
+            position += copied;
+            remaining -= copied;
+        }
+    }
+    
+    /**
+     * 还原增量链：每个路径从保存其最新版本的包中提取
+     */
+    private static boolean extractIncrementalChain(Path packageFile, Path output, String password,
+                                                   boolean preserveMetadata, IoThrottle throttle) throws IOException {
+        List<Path> chain = resolveChain(packageFile);
+        Map<String, ChainRecord> resolved = resolveChainRecords(chain);
+        
+        try (ChainReader chainReader = new ChainReader(chain, password)) {
+            for (Path packagePath : chain) {
+                List<FileRecord> records = new ArrayList<>();
+                for (ChainRecord entry : resolved.values()) {
+                    if (entry.packagePath.equals(packagePath)) {
+                        records.add(entry.record);
+                    }
+                }
+                if (records.isEmpty()) {
+                    continue;
+                }
+                
+                BackupManifest subset = new BackupManifest();
+                subset.setFiles(records);
+                try (RandomAccessFile raf = new RandomAccessFile(packagePath.toFile(), "r")) {
+                    PackageHeader header = PackageHeader.readFrom(raf);
+                    byte[] dataKey = resolveDataKey(header, password);
+                    if (!extractFilesWithDecryption(raf, subset, output, dataKey, preserveMetadata, chainReader, throttle)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+    
     /**
      * 从包中提取文件
      * @param packagePath 包文件路径
@@ -435,19 +1248,33 @@ public class BackupPackage {
      * @param password 解密密码（如果需要）
      * @return 是否成功
      */
-    public static boolean extractPackage(String packagePath, String outputDir, String password) throws IOException {
-        return extractPackage(packagePath, outputDir, password, true); // 默认保留元数据
+    public static boolean extractPackage(String packagePath, String outputDir, String password) throws IOException {
+        return extractPackage(packagePath, outputDir, password, true); // 默认保留元数据
+    }
+    
+    /**
+     * 从包中提取文件（支持加密和解压缩，以及控制元数据保留）
+     * @param packagePath 包文件路径
+     * @param outputDir 输出目录
+     * @param password 解密密码（如果需要）
+     * @param preserveMetadata 是否保留元数据
+     * @return 是否成功
+     */
+    public static boolean extractPackage(String packagePath, String outputDir, String password, boolean preserveMetadata) throws IOException {
+        return extractPackage(packagePath, outputDir, password, preserveMetadata, IoThrottle.unlimited());
     }
     
     /**
-     * 从包中提取文件（支持加密和解压缩，以及控制元数据保留）
+     * 从包中提取文件（限制读写速率）
      * @param packagePath 包文件路径
      * @param outputDir 输出目录
      * @param password 解密密码（如果需要）
      * @param preserveMetadata 是否保留元数据
+     * @param throttle 读写限速
      * @return 是否成功
      */
-    public static boolean extractPackage(String packagePath, String outputDir, String password, boolean preserveMetadata) throws IOException {
+    public static boolean extractPackage(String packagePath, String outputDir, String password, boolean preserveMetadata,
+                                         IoThrottle throttle) throws IOException {
         Path packageFile = Paths.get(packagePath);
         Path output = Paths.get(outputDir);
         
@@ -456,36 +1283,19 @@ public class BackupPackage {
         }
         
         try (RandomAccessFile raf = new RandomAccessFile(packageFile.toFile(), "r")) {
-            // 读取魔数和版本
-            byte[] magic = new byte[4];
-            raf.readFully(magic);
-            if (!new String(magic, StandardCharsets.UTF_8).equals("FBS1")) {
-                throw new IOException("无效的包文件格式");
-            }
+            // 读取Header和Manifest
+            PackageHeader header = PackageHeader.readFrom(raf);
+            BackupManifest manifest = readManifest(raf, header);
             
-            int version = raf.readInt();
-            if (version != PACKAGE_VERSION) {
-                throw new IOException("不支持的包版本: " + version);
+            // 增量包需要沿增量链还原
+            if (manifest.isIncremental()) {
+                return extractIncrementalChain(packageFile, output, password, preserveMetadata, throttle);
             }
             
-            // 读取Header
-            long manifestOffset = raf.readLong();
-            long manifestLength = raf.readLong();
-            
-            // 读取Manifest
-            raf.seek(manifestOffset);
-            byte[] manifestBytes = new byte[(int) manifestLength];
-            raf.readFully(manifestBytes);
-            String manifestJson = new String(manifestBytes, StandardCharsets.UTF_8);
-            
-            BackupManifest manifest = BackupManifest.fromJson(manifestJson);
+            byte[] dataKey = resolveDataKey(header, password);
             
             // 提取文件（带解密和解压缩）
-            if (preserveMetadata) {
-                return extractFilesWithDecryption(raf, manifest, output, password);
-            } else {
-                return extractFilesWithDecryption(raf, manifest, output, password, false); // 不保留元数据
-            }
+            return extractFilesWithDecryption(raf, manifest, output, dataKey, preserveMetadata, null, throttle);
         } catch (IOException e) {
             // 重新抛出IOException，这样调用者可以知道具体错误
             throw e;
@@ -501,68 +1311,62 @@ public class BackupPackage {
     private static List<FileRecord> collectFiles(Path source, BackupManifest manifest, 
                                                 RandomAccessFile raf, BackupService.BackupOptions options) throws IOException {
         List<FileRecord> records = new ArrayList<>();
-        Path sourceParent = source.getParent() != null ? source.getParent() : Paths.get(".");
+        FileIndex index = openFileIndex(source, options);
         
-        Files.walk(source)
-            .forEach(path -> {
+        // 每个条目只读取一次属性
+        FileScanner.scan(source, options)
+            .forEach(entry -> {
+                JobControl.checkpoint(options);
+                Path path = entry.getPath();
                 try {
-                    if (Files.isDirectory(path)) {
+                    if (entry.getKind() == BackupService.FileKind.DIRECTORY) {
                         // 目录记录
                         FileRecord record = new FileRecord();
-                        record.setRelativePath(sourceParent.relativize(path).toString());
+                        record.setRelativePath(entry.getRelativePath());
                         record.setKind(BackupService.FileKind.DIRECTORY);
                         record.setHasData(false);
                         record.setMetadataOnly(true);
                         
                         // 设置目录属性
                         if (options.isPreserveMetadata()) {
-                            try {
-                                java.nio.file.attribute.FileTime creationTime = (java.nio.file.attribute.FileTime) 
-                                    Files.getAttribute(path, "creationTime", java.nio.file.LinkOption.NOFOLLOW_LINKS);
-                                record.setCreatedAt(creationTime.toMillis());
-                                record.setModifiedAt(Files.getLastModifiedTime(path).toMillis());
-                                java.nio.file.attribute.FileTime accessTime = (java.nio.file.attribute.FileTime) 
-                                    Files.getAttribute(path, "lastAccessTime", java.nio.file.LinkOption.NOFOLLOW_LINKS);
-                                record.setAccessedAt(accessTime.toMillis());
-                            } catch (Exception e) {
-                                // 忽略属性获取失败
-                            }
+                            record.setCreatedAt(entry.getCreatedAt());
+                            record.setModifiedAt(entry.getModifiedAt());
+                            record.setAccessedAt(entry.getAccessedAt());
                         }
                         
                         records.add(record);
                         manifest.addFileRecord(record);
-                    } else if (Files.isRegularFile(path)) {
+                    } else if (entry.getKind() == BackupService.FileKind.REGULAR) {
                         // 普通文件
                         FileRecord record = new FileRecord();
-                        record.setRelativePath(sourceParent.relativize(path).toString());
+                        record.setRelativePath(entry.getRelativePath());
                         record.setKind(BackupService.FileKind.REGULAR);
-                        record.setSize(Files.size(path));
+                        record.setSize(entry.size());
+                        record.setModifiedAt(entry.getModifiedAt());
                         record.setHasData(true);
                         
                         // 记录数据偏移量
                         record.setDataOffset(raf.getFilePointer());
                         
                         // 读取并写入文件数据
-                        byte[] fileData = Files.readAllBytes(path);
-                        raf.write(fileData);
-                        record.setStoredSize(fileData.length);
-                        
-                        // 计算哈希
-                        record.setHash(calculateHash(fileData));
+                        long memory = MemoryBudget.global().acquire(entry.size());
+                        try {
+                            byte[] fileData = readFile(path, options.getThrottle());
+                            writeFully(raf, fileData, options.getThrottle());
+                            record.setStoredSize(fileData.length);
+                            recordStoredChecksums(record, fileData);
+                            
+                            // 计算哈希（文件索引中属性未变化时沿用缓存的哈希）
+                            hashContent(record, fileData, options, index, entry);
+                        } finally {
+                            MemoryBudget.global().release(memory);
+                        }
                         
                         // 设置文件属性
                         if (options.isPreserveMetadata()) {
-                            try {
-                                java.nio.file.attribute.FileTime creationTime = (java.nio.file.attribute.FileTime) 
-                                    Files.getAttribute(path, "creationTime", java.nio.file.LinkOption.NOFOLLOW_LINKS);
-                                record.setCreatedAt(creationTime.toMillis());
-                                record.setModifiedAt(Files.getLastModifiedTime(path).toMillis());
-                                java.nio.file.attribute.FileTime accessTime = (java.nio.file.attribute.FileTime) 
-                                    Files.getAttribute(path, "lastAccessTime", java.nio.file.LinkOption.NOFOLLOW_LINKS);
-                                record.setAccessedAt(accessTime.toMillis());
-                            } catch (Exception e) {
-                                // 忽略属性获取失败
-                            }
+                            record.setCreatedAt(entry.getCreatedAt());
+                            record.setModifiedAt(entry.getModifiedAt());
+                            record.setAccessedAt(entry.getAccessedAt());
                         }
                         
                         records.add(record);
@@ -573,6 +1377,9 @@ public class BackupPackage {
                 }
             });
         
+        if (index != null) {
+            index.saveQuietly();
+        }
         return records;
     }
     
@@ -581,112 +1388,257 @@ public class BackupPackage {
      */
     private static List<FileRecord> collectFilesWithEncryption(Path source, BackupManifest manifest, 
                                                               RandomAccessFile raf, BackupService.BackupOptions options,
-                                                              boolean compress, boolean encrypt,
+                                                              boolean compress,
+                                                              CompressionMethod compressionMethod,
+                                                              EncryptionMethod encryptionMethod,
+                                                              byte[] dataKey) throws IOException {
+        return collectFilesWithEncryption(source, manifest, raf, options, compress, compressionMethod,
+                                          encryptionMethod, dataKey, null, false, null);
+    }
+    
+    /**
+     * 收集文件并写入数据（支持加密、压缩和增量）
+     * @param baseline 父包链解析后的文件记录（为null时为完整备份），未变化的文件不写入，已删除的路径写入删除标记
+     * @param compareContentHash 大小和修改时间相同时是否再比较内容哈希
+     * @param deltaReader 父包链读取器（为null时不使用差量编码），变化的大文件尝试存储为相对上一版本的差量
+     */
+    private static List<FileRecord> collectFilesWithEncryption(Path source, BackupManifest manifest, 
+                                                              RandomAccessFile raf, BackupService.BackupOptions options,
+                                                              boolean compress,
                                                               CompressionMethod compressionMethod,
                                                               EncryptionMethod encryptionMethod,
-                                                              String password) throws IOException {
+                                                              byte[] dataKey,
+                                                              Map<String, ChainRecord> baseline,
+                                                              boolean compareContentHash,
+                                                              ChainReader deltaReader) throws IOException {
         List<FileRecord> records = new ArrayList<>();
-        Path sourceParent = source.getParent() != null ? source.getParent() : Paths.get(".");
+        Set<String> seenPaths = new HashSet<>();
         
-        Files.walk(source)
-            .forEach(path -> {
-                try {
-                    if (Files.isDirectory(path)) {
-                        // 目录记录
-                        FileRecord record = new FileRecord();
-                        record.setRelativePath(sourceParent.relativize(path).toString());
-                        record.setKind(BackupService.FileKind.DIRECTORY);
-                        record.setHasData(false);
-                        record.setMetadataOnly(true);
-                        
-                        // 设置目录属性
-                        if (options.isPreserveMetadata()) {
-                            try {
-                                java.nio.file.attribute.FileTime creationTime = (java.nio.file.attribute.FileTime) 
-                                    Files.getAttribute(path, "creationTime", java.nio.file.LinkOption.NOFOLLOW_LINKS);
-                                record.setCreatedAt(creationTime.toMillis());
-                                record.setModifiedAt(Files.getLastModifiedTime(path).toMillis());
-                                java.nio.file.attribute.FileTime accessTime = (java.nio.file.attribute.FileTime) 
-                                    Files.getAttribute(path, "lastAccessTime", java.nio.file.LinkOption.NOFOLLOW_LINKS);
-                                record.setAccessedAt(accessTime.toMillis());
-                            } catch (Exception e) {
-                                // 忽略属性获取失败
+        // 高并发I/O模式或自适应并发：文件读取和编码与写入并行，按扫描顺序写入
+        WritePipeline pipeline = options.isIoMode() || options.isAdaptiveConcurrency()
+            ? new WritePipeline(source, raf, records, manifest, options) : null;
+        FileIndex index = openFileIndex(source, options);
+        
+        try {
+            // 每个条目只读取一次属性
+            FileScanner.scan(source, options)
+                .forEach(entry -> {
+                    JobControl.checkpoint(options);
+                    Path path = entry.getPath();
+                    try {
+                        seenPaths.add(entry.getRelativePath());
+                        if (entry.getKind() == BackupService.FileKind.DIRECTORY) {
+                            // 目录记录
+                            FileRecord record = new FileRecord();
+                            record.setRelativePath(entry.getRelativePath());
+                            record.setKind(BackupService.FileKind.DIRECTORY);
+                            record.setHasData(false);
+                            record.setMetadataOnly(true);
+                            
+                            // 设置目录属性
+                            if (options.isPreserveMetadata()) {
+                                record.setCreatedAt(entry.getCreatedAt());
+                                record.setModifiedAt(entry.getModifiedAt());
+                                record.setAccessedAt(entry.getAccessedAt());
                             }
-                        }
-                        
-                        records.add(record);
-                        manifest.addFileRecord(record);
-                    } else if (Files.isRegularFile(path)) {
-                        // 普通文件
-                        FileRecord record = new FileRecord();
-                        record.setRelativePath(sourceParent.relativize(path).toString());
-                        record.setKind(BackupService.FileKind.REGULAR);
-                        record.setSize(Files.size(path));
-                        record.setHasData(true);
-                        
-                        // 记录数据偏移量
-                        record.setDataOffset(raf.getFilePointer());
-                        
-                        // 读取原始文件数据
-                        byte[] fileData = Files.readAllBytes(path);
-                        byte[] processedData = fileData;
-                        
-                        // 应用压缩（如果需要）
-                        if (compress && compressionMethod != CompressionMethod.NONE) {
-                            byte[] compressedData = compressData(processedData, compressionMethod);
-                            // 只有在压缩后数据显著减小（至少5%）时才使用压缩
-                            if (compressedData.length < processedData.length * 0.95) {
-                                processedData = compressedData;
-                                record.setCompressed(true);
-                                record.setCompressionMethod(compressionMethod);
-                                record.setStoredSize(processedData.length); // 更新存储大小
+                            
+                            if (pipeline != null) {
+                                pipeline.addRecord(record);
                             } else {
-                                // 压缩无效，保持原始数据
-                                record.setCompressed(false);
-                                record.setCompressionMethod(CompressionMethod.NONE);
+                                records.add(record);
+                                manifest.addFileRecord(record);
                             }
-                        }
-                        
-                        // 应用加密（如果需要）
-                        if (encrypt && encryptionMethod != EncryptionMethod.NONE && password != null && !password.isEmpty()) {
-                            processedData = encryptData(processedData, password, encryptionMethod);
-                            record.setEncrypted(true);
-                            record.setEncryptionMethod(encryptionMethod);
-                        }
-                        
-                        // 写入处理后的数据
-                        raf.write(processedData);
-                        record.setStoredSize(processedData.length);
-                        
-                        // 计算原始数据的哈希（不是处理后的数据）
-                        record.setHash(calculateHash(fileData));
-                        
-                        // 设置文件属性
-                        if (options.isPreserveMetadata()) {
+                        } else if (entry.getKind() == BackupService.FileKind.REGULAR) {
+                            // 普通文件
+                            FileRecord record = new FileRecord();
+                            record.setRelativePath(entry.getRelativePath());
+                            record.setKind(BackupService.FileKind.REGULAR);
+                            record.setSize(entry.size());
+                            record.setModifiedAt(entry.getModifiedAt());
+                            record.setHasData(true);
+                            
+                            // 增量备份：与父包链中的记录相同则跳过
+                            ChainRecord base = baseline != null ? baseline.get(record.getRelativePath()) : null;
+                            if (base != null && isUnchanged(path, record, base.record, compareContentHash, index, entry)) {
+                                return;
+                            }
+                            
+                            // 设置文件属性
+                            if (options.isPreserveMetadata()) {
+                                record.setCreatedAt(entry.getCreatedAt());
+                                record.setModifiedAt(entry.getModifiedAt());
+                                record.setAccessedAt(entry.getAccessedAt());
+                            }
+                            
+                            if (pipeline != null) {
+                                pipeline.addFile(record, path, fileData -> encodeFileData(record, fileData, base, options, compress,
+                                    compressionMethod, encryptionMethod, dataKey, deltaReader, index, entry));
+                                return;
+                            }
+                            
+                            // 记录数据偏移量
+                            record.setDataOffset(raf.getFilePointer());
+                            
+                            // 读取原始文件数据并编码（按文件大小的两倍申请内存额度：读取的数据和编码结果）
+                            long memory = MemoryBudget.global().acquire(entry.size() * 2);
                             try {
-                                java.nio.file.attribute.FileTime creationTime = (java.nio.file.attribute.FileTime) 
-                                    Files.getAttribute(path, "creationTime", java.nio.file.LinkOption.NOFOLLOW_LINKS);
-                                record.setCreatedAt(creationTime.toMillis());
-                                record.setModifiedAt(Files.getLastModifiedTime(path).toMillis());
-                                java.nio.file.attribute.FileTime accessTime = (java.nio.file.attribute.FileTime) 
-                                    Files.getAttribute(path, "lastAccessTime", java.nio.file.LinkOption.NOFOLLOW_LINKS);
-                                record.setAccessedAt(accessTime.toMillis());
-                            } catch (Exception e) {
-                                // 忽略属性获取失败
+                                byte[] fileData = readFile(path, options.getThrottle());
+                                byte[] processedData = encodeFileData(record, fileData, base, options, compress,
+                                                                      compressionMethod, encryptionMethod, dataKey, deltaReader,
+                                                                      index, entry);
+                                
+                                // 写入处理后的数据
+                                writeFully(raf, processedData, options.getThrottle());
+                            } finally {
+                                MemoryBudget.global().release(memory);
                             }
+                            
+                            records.add(record);
+                            manifest.addFileRecord(record);
                         }
-                        
-                        records.add(record);
-                        manifest.addFileRecord(record);
+                    } catch (Exception e) {
+                        System.err.println("处理文件失败: " + path + " - " + e.getMessage());
                     }
-                } catch (Exception e) {
-                    System.err.println("处理文件失败: " + path + " - " + e.getMessage());
+                });
+            if (pipeline != null) {
+                pipeline.finish();
+            }
+            if (index != null) {
+                index.saveQuietly();
+            }
+        } finally {
+            if (pipeline != null) {
+                pipeline.close();
+            }
+        }
+        
+        // 增量备份：父包链中存在但源中已删除的路径写入删除标记
+        if (baseline != null) {
+            for (ChainRecord entry : baseline.values()) {
+                FileRecord base = entry.record;
+                if (!seenPaths.contains(base.getRelativePath())) {
+                    FileRecord tombstone = new FileRecord();
+                    tombstone.setRelativePath(base.getRelativePath());
+                    tombstone.setKind(base.getKind());
+                    tombstone.setHasData(false);
+                    tombstone.setDeleted(true);
+                    records.add(tombstone);
+                    manifest.addFileRecord(tombstone);
                 }
-            });
+            }
+        }
         
         return records;
     }
     
+    /**
+     * 编码文件数据（差量、压缩、加密），同时计算存储数据的校验和与原始数据的哈希
+     * @param base 父包链中的上一版本（为null时不使用差量）
+     * @param index 文件索引（为null时不使用）
+     * @param attrs 扫描时读取的文件属性
+     * @return 写入包中的存储数据
+     */
+    private static byte[] encodeFileData(FileRecord record, byte[] fileData, ChainRecord base,
+                                         BackupService.BackupOptions options, boolean compress,
+                                         CompressionMethod compressionMethod, EncryptionMethod encryptionMethod,
+                                         byte[] dataKey, ChainReader deltaReader,
+                                         FileIndex index, BasicFileAttributes attrs) throws IOException {
+        byte[] processedData = fileData;
+        
+        // 差量编码（如果需要）：明显小于完整内容时才使用
+        if (deltaReader != null && base != null) {
+            byte[] delta = encodeDelta(deltaReader, base, fileData);
+            if (delta != null) {
+                processedData = delta;
+                record.setDeltaBaseBackupId(deltaReader.backupId(base.packagePath));
+                record.setDeltaBaseHash(base.record.getHash());
+            }
+        }
+        
+        // 应用压缩（如果需要）
+        if (compress && compressionMethod != CompressionMethod.NONE) {
+            byte[] compressedData = compressData(processedData, compressionMethod);
+            // 只有在压缩后数据显著减小（至少5%）时才使用压缩
+            if (compressedData.length < processedData.length * 0.95) {
+                processedData = compressedData;
+                record.setCompressed(true);
+                record.setCompressionMethod(compressionMethod);
+                record.setStoredSize(processedData.length); // 更新存储大小
+            } else {
+                // 压缩无效，保持原始数据
+                record.setCompressed(false);
+                record.setCompressionMethod(CompressionMethod.NONE);
+            }
+        }
+        
+        // 应用加密（如果需要）
+        if (dataKey != null) {
+            processedData = encryptData(processedData, dataKey, encryptionMethod);
+            record.setEncrypted(true);
+            record.setEncryptionMethod(encryptionMethod);
+        }
+        
+        record.setStoredSize(processedData.length);
+        recordStoredChecksums(record, processedData);
+        
+        // 计算原始数据的哈希（不是处理后的数据）
+        hashContent(record, fileData, options, index, attrs);
+        return processedData;
+    }
+    
+    /**
+     * 计算文件相对父包链中上一版本的差量
+     * @return 差量数据；文件太小、基准不可读或差量不足完整内容一半时返回null
+     */
+    private static byte[] encodeDelta(ChainReader deltaReader, ChainRecord base, byte[] fileData) {
+        FileRecord baseRecord = base.record;
+        if (fileData.length < DELTA_MIN_SIZE || baseRecord.getKind() != BackupService.FileKind.REGULAR
+            || !baseRecord.isHasData() || baseRecord.getSize() < DELTA_MIN_SIZE) {
+            return null;
+        }
+        try {
+            // 链读取器不是线程安全的，只在读取基准内容时加锁，差量计算在锁外并行进行
+            byte[] baseData;
+            synchronized (deltaReader) {
+                baseData = deltaReader.read(base.packagePath, baseRecord);
+            }
+            byte[] delta = DeltaCodec.encode(baseData, fileData);
+            return delta.length < fileData.length / 2 ? delta : null;
+        } catch (IOException e) {
+            System.err.println("读取差量基准失败，存储完整内容: " + baseRecord.getRelativePath() + " - " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * 判断文件与父包链中的记录相比是否未变化
+     * 比较大小和修改时间，需要时再比较内容哈希；文件索引中属性未变化时使用缓存的哈希，不再读取文件
+     * @param index 文件索引（为null时不使用）
+     * @param attrs 扫描时读取的文件属性
+     */
+    private static boolean isUnchanged(Path path, FileRecord current, FileRecord base, boolean compareContentHash,
+                                       FileIndex index, BasicFileAttributes attrs) throws IOException {
+        if (base == null || base.getKind() != BackupService.FileKind.REGULAR || !base.isHasData()) {
+            return false;
+        }
+        if (base.getSize() != current.getSize() || base.getModifiedAt() == 0 || base.getModifiedAt() != current.getModifiedAt()) {
+            return false;
+        }
+        if (!compareContentHash) {
+            if (index != null) {
+                index.put(current.getRelativePath(), attrs, base.getHashAlgorithm(), base.getHashLeafSize(), base.getHash());
+            }
+            return true;
+        }
+        FileIndex.Entry cached = index != null ? index.lookup(current.getRelativePath(), attrs) : null;
+        String hash = cached != null && cached.hasHash(base.getHashAlgorithm(), base.getHashLeafSize())
+            ? cached.getHash() : contentHash(base, readFile(path));
+        if (index != null) {
+            index.put(current.getRelativePath(), attrs, base.getHashAlgorithm(), base.getHashLeafSize(), hash);
+        }
+        return hash.equals(base.getHash());
+    }
+    
     /**
      * 从包中提取文件
      */
@@ -777,7 +1729,7 @@ public class BackupPackage {
                 Files.write(targetPath, fileData);
                 
                 // 验证哈希
-                String calculatedHash = calculateHash(fileData);
+                String calculatedHash = contentHash(record, fileData);
                 if (!calculatedHash.equals(record.getHash())) {
                     System.err.println("文件哈希验证失败: " + record.getRelativePath());
                 }
@@ -844,18 +1796,13 @@ public class BackupPackage {
     }
     
     /**
-     * 提取文件（支持解密和解压缩）
-     */
-    private static boolean extractFilesWithDecryption(RandomAccessFile raf, BackupManifest manifest, 
-                                                     Path outputDir, String password) throws IOException {
-        return extractFilesWithDecryption(raf, manifest, outputDir, password, true); // 默认保留元数据
-    }
-    
-    /**
-     * 提取文件（支持解密和解压缩，以及控制元数据保留）
+     * 提取文件（支持解密、解压缩和差量还原）
+     * @param chainReader 增量链读取器，用于还原差量记录（完整包为null）
+     * @param throttle 读写限速
      */
     private static boolean extractFilesWithDecryption(RandomAccessFile raf, BackupManifest manifest, 
-                                                     Path outputDir, String password, boolean preserveMetadata) throws IOException {
+                                                     Path outputDir, byte[] dataKey, boolean preserveMetadata,
+                                                     ChainReader chainReader, IoThrottle throttle) throws IOException {
         if (!Files.exists(outputDir)) {
             Files.createDirectories(outputDir);
         }
@@ -924,37 +1871,51 @@ public class BackupPackage {
                 // 创建文件并写入数据
                 Files.createDirectories(targetPath.getParent());
                 
-                // 定位并读取数据
-                raf.seek(record.getDataOffset());
-                byte[] fileData = new byte[(int) record.getStoredSize()];
-                raf.readFully(fileData);
-                
-                // 解密数据（如果需要）
-                if (record.isEncrypted()) {
-                    if (password == null || password.isEmpty()) {
-                        throw new IOException("文件已加密，但未提供密码: " + record.getRelativePath());
+                // 按存储大小和原始大小申请内存额度（读取的数据和解码结果）
+                long memory = MemoryBudget.global().acquire(record.getStoredSize() + record.getSize());
+                try {
+                    // 定位并读取数据
+                    raf.seek(record.getDataOffset());
+                    byte[] fileData = new byte[(int) record.getStoredSize()];
+                    readFully(raf, fileData, throttle);
+                    
+                    // 解密数据（如果需要）
+                    if (record.isEncrypted()) {
+                        if (dataKey == null) {
+                            throw new IOException("文件已加密，但未提供密码: " + record.getRelativePath());
+                        }
+                        
+                        try {
+                            // 直接尝试解密，如果密码错误会抛出异常
+                            fileData = decryptData(fileData, dataKey, record.getEncryptionMethod());
+                        } catch (Exception e) {
+                            throw new IOException("密码错误或解密失败: 无法解密文件 " + record.getRelativePath() + " - " + e.getMessage());
+                        }
                     }
                     
-                    try {
-                        // 直接尝试解密，如果密码错误会抛出异常
-                        fileData = decryptData(fileData, password, record.getEncryptionMethod());
-                    } catch (Exception e) {
-                        throw new IOException("密码错误或解密失败: 无法解密文件 " + record.getRelativePath() + " - " + e.getMessage());
+                    // 解压缩数据（如果需要）
+                    if (record.isCompressed() && record.getCompressionMethod() != CompressionMethod.NONE) {
+                        fileData = decompressData(fileData, record.getCompressionMethod());
                     }
-                }
-                
-                // 解压缩数据（如果需要）
-                if (record.isCompressed() && record.getCompressionMethod() != CompressionMethod.NONE) {
-                    fileData = decompressData(fileData, record.getCompressionMethod());
-                }
-                
-                // 写入文件
-                Files.write(targetPath, fileData);
-                
-                // 验证哈希
-                String calculatedHash = calculateHash(fileData);
-                if (!calculatedHash.equals(record.getHash())) {
-                    System.err.println("文件哈希验证失败: " + record.getRelativePath());
+                    
+                    // 还原差量（如果需要）
+                    if (record.isDelta()) {
+                        if (chainReader == null) {
+                            throw new IOException("差量文件需要沿增量链还原: " + record.getRelativePath());
+                        }
+                        fileData = chainReader.materialize(record, fileData);
+                    }
+                    
+                    // 写入文件
+                    writeFile(targetPath, fileData, throttle);
+                    
+                    // 验证哈希
+                    String calculatedHash = contentHash(record, fileData);
+                    if (!calculatedHash.equals(record.getHash())) {
+                        System.err.println("文件哈希验证失败: " + record.getRelativePath());
+                    }
+                } finally {
+                    MemoryBudget.global().release(memory);
                 }
                 
                 // 设置文件元数据（如果保留元数据）
@@ -1014,26 +1975,336 @@ public class BackupPackage {
                 }
             }
         }
-        
-        return true;
+        
+        return true;
+    }
+    
+    /**
+     * 计算数据的SHA-256哈希
+     */
+    private static String calculateHash(byte[] data) {
+        try {
+            java.security.MessageDigest digest = java.security.MessageDigest.getInstance("SHA-256");
+            return Checksums.toHex(digest.digest(data));
+        } catch (Exception e) {
+            return "";
+        }
+    }
+    
+    /**
+     * 计算文件内容的Merkle树哈希并写入记录
+     * 快速级别使用CRC32C，强校验级别使用SHA-256
+     */
+    private static void hashContent(FileRecord record, byte[] data, BackupService.BackupOptions options) {
+        MerkleTree.Digest digest = contentDigest(options);
+        MerkleTree.Result result = MerkleTree.compute(data, MerkleTree.DEFAULT_LEAF_SIZE, digest);
+        record.setHash(result.getRoot());
+        record.setHashAlgorithm(digest.getAlgorithm());
+        record.setHashLeafSize(MerkleTree.DEFAULT_LEAF_SIZE);
+        if (options.isStoreLeafHashes()) {
+            record.setLeafHashes(result.getLeafHashes());
+        }
+    }
+    
+    /**
+     * 计算内容哈希并记入文件索引
+     * 索引中属性未变化且算法相同的哈希直接使用（需要保存叶子哈希时仍然计算）
+     * @param index 文件索引（为null时直接计算）
+     * @param attrs 扫描时读取的文件属性
+     */
+    private static void hashContent(FileRecord record, byte[] data, BackupService.BackupOptions options,
+                                    FileIndex index, BasicFileAttributes attrs) {
+        if (index == null) {
+            hashContent(record, data, options);
+            return;
+        }
+        FileIndex.Entry cached = index.lookup(record.getRelativePath(), attrs);
+        if (cached != null && !options.isStoreLeafHashes()
+            && cached.hasHash(contentDigest(options).getAlgorithm(), MerkleTree.DEFAULT_LEAF_SIZE)) {
+            record.setHash(cached.getHash());
+            record.setHashAlgorithm(cached.getHashAlgorithm());
+            record.setHashLeafSize(cached.getHashLeafSize());
+        } else {
+            hashContent(record, data, options);
+        }
+        index.put(record.getRelativePath(), attrs, record.getHashAlgorithm(), record.getHashLeafSize(), record.getHash());
+    }
+    
+    // 快速级别使用CRC32C，强校验级别使用SHA-256
+    private static MerkleTree.Digest contentDigest(BackupService.BackupOptions options) {
+        return options.getIntegrityLevel() == IntegrityLevel.FAST
+            ? MerkleTree.Digest.CRC32C : MerkleTree.Digest.SHA256;
+    }
+    
+    /**
+     * 打包模式的文件索引（未启用时返回null），每个源路径一个索引
+     */
+    private static FileIndex openFileIndex(Path source, BackupService.BackupOptions options) {
+        if (!options.isFileIndex()) {
+            return null;
+        }
+        return FileIndex.load(FileIndex.locate(options.getIndexDirectory(), "package:" + source.toAbsolutePath().normalize()));
+    }
+    
+    /**
+     * 记录存储数据的校验和，超过一块时同时记录每块的校验和
+     */
+    private static void recordStoredChecksums(FileRecord record, byte[] storedData) {
+        record.setStoredHash(Checksums.storedChecksum(storedData));
+        if (storedData.length > STORED_BLOCK_SIZE) {
+            record.setStoredBlockSize(STORED_BLOCK_SIZE);
+            record.setStoredBlockChecksums(Checksums.blockChecksums(storedData, STORED_BLOCK_SIZE));
+        }
+    }
+    
+    /**
+     * 按记录使用的哈希算法计算内容哈希
+     */
+    static String contentHash(FileRecord record, byte[] data) {
+        MerkleTree.Digest digest = MerkleTree.Digest.forAlgorithm(record.getHashAlgorithm());
+        if (digest != null) {
+            return MerkleTree.root(data, record.getHashLeafSize(), digest);
+        }
+        return calculateHash(data);
+    }
+    
+    /**
+     * 根据保存的叶子哈希描述损坏的数据范围
+     */
+    static String describeCorruptRanges(FileRecord record, byte[] data) {
+        MerkleTree.Digest digest = MerkleTree.Digest.forAlgorithm(record.getHashAlgorithm());
+        if (record.getLeafHashes() == null || digest == null) {
+            return "";
+        }
+        int leafSize = record.getHashLeafSize();
+        List<String> ranges = new ArrayList<>();
+        for (int leaf : MerkleTree.mismatchedLeaves(data, leafSize, record.getLeafHashes(), digest)) {
+            long start = (long) leaf * leafSize;
+            ranges.add("[" + start + ", " + Math.min(record.getSize(), start + leafSize) + ")");
+        }
+        return ", Corrupt ranges: " + String.join(" ", ranges);
+    }
+    
+    /**
+     * 读取记录的存储数据（可能经过压缩和加密）
+     */
+    private static byte[] readStoredData(RandomAccessFile raf, FileRecord record) throws IOException {
+        raf.seek(record.getDataOffset());
+        byte[] storedData = new byte[(int) record.getStoredSize()];
+        readFully(raf, storedData);
+        return storedData;
+    }
+    
+    // =============== 分块读写 ===============
+    // 堆数组直接交给RandomAccessFile或FileChannel读写时，JDK每次调用都分配与数据同样大小的临时本地内存；
+    // 以下方法通过缓冲区池中的1MB直接缓冲区分块读写，稳定运行时不再分配本地内存。
+    // 传入限速时每块分别计入令牌桶（与IoThrottle.copy一致），大文件的读写按块匀速进行，而不是整个文件读写完才等待。
+    
+    /**
+     * 读取整个文件（代替Files.readAllBytes）
+     */
+    static byte[] readFile(Path path) throws IOException {
+        return readFile(path, IoThrottle.unlimited());
+    }
+    
+    static byte[] readFile(Path path, IoThrottle throttle) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+             BufferPool.Buffer chunk = BufferPool.shared().acquire(IO_CHUNK_SIZE)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new OutOfMemoryError("文件太大: " + path);
+            }
+            ByteBuffer buffer = chunk.buffer();
+            byte[] data = new byte[(int) size];
+            int length = 0;
+            while (true) {
+                buffer.clear();
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+                buffer.flip();
+                int count = buffer.remaining();
+                throttle.acquireRead(count);
+                if (length + count > data.length) {
+                    // 读取过程中文件变大
+                    data = Arrays.copyOf(data, Math.max(data.length * 2, length + count));
+                }
+                buffer.get(data, length, count);
+                length += count;
+            }
+            return length == data.length ? data : Arrays.copyOf(data, length);
+        }
+    }
+    
+    /**
+     * 从当前位置读满数组（代替RandomAccessFile.readFully）
+     */
+    static void readFully(RandomAccessFile raf, byte[] data) throws IOException {
+        readFully(raf, data, IoThrottle.unlimited());
+    }
+    
+    static void readFully(RandomAccessFile raf, byte[] data, IoThrottle throttle) throws IOException {
+        if (data.length == 0) {
+            return;
+        }
+        FileChannel channel = raf.getChannel();
+        try (BufferPool.Buffer chunk = BufferPool.shared().acquire(Math.min(data.length, IO_CHUNK_SIZE))) {
+            ByteBuffer buffer = chunk.buffer();
+            int chunkSize = buffer.limit();
+            for (int offset = 0; offset < data.length; ) {
+                buffer.clear().limit(Math.min(chunkSize, data.length - offset));
+                throttle.acquireRead(buffer.limit());
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) {
+                        throw new EOFException();
+                    }
+                }
+                buffer.flip();
+                int count = buffer.remaining();
+                buffer.get(data, offset, count);
+                offset += count;
+            }
+        }
+    }
+    
+    /**
+     * 在当前位置写入数组（代替RandomAccessFile.write）
+     */
+    static void writeFully(RandomAccessFile raf, byte[] data) throws IOException {
+        writeChunks(raf.getChannel(), data, IoThrottle.unlimited());
+    }
+    
+    static void writeFully(RandomAccessFile raf, byte[] data, IoThrottle throttle) throws IOException {
+        writeChunks(raf.getChannel(), data, throttle);
+    }
+    
+    /**
+     * 创建或覆盖文件并写入数据（代替Files.write）
+     */
+    static void writeFile(Path path, byte[] data) throws IOException {
+        writeFile(path, data, IoThrottle.unlimited());
+    }
+    
+    static void writeFile(Path path, byte[] data, IoThrottle throttle) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeChunks(channel, data, throttle);
+        }
+    }
+    
+    private static void writeChunks(FileChannel channel, byte[] data, IoThrottle throttle) throws IOException {
+        if (data.length == 0) {
+            return;
+        }
+        try (BufferPool.Buffer chunk = BufferPool.shared().acquire(Math.min(data.length, IO_CHUNK_SIZE))) {
+            ByteBuffer buffer = chunk.buffer();
+            int chunkSize = buffer.limit();
+            for (int offset = 0; offset < data.length; ) {
+                int count = Math.min(chunkSize, data.length - offset);
+                throttle.acquireWrite(count);
+                buffer.clear();
+                buffer.put(data, offset, count).flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                offset += count;
+            }
+        }
     }
     
     /**
-     * 计算数据的SHA-256哈希
+     * 将存储数据还原为原始内容：解密 -> 解压
      */
-    private static String calculateHash(byte[] data) {
-        try {
-            java.security.MessageDigest digest = java.security.MessageDigest.getInstance("SHA-256");
-            byte[] hashBytes = digest.digest(data);
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hashBytes) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) hexString.append('0');
-                hexString.append(hex);
-            }
-            return hexString.toString();
-        } catch (Exception e) {
-            return "";
+    static byte[] decodeStoredData(FileRecord record, byte[] storedData, byte[] dataKey) throws IOException {
+        byte[] data = storedData;
+        if (record.isEncrypted()) {
+            if (dataKey == null) {
+                throw new IOException("文件已加密，但未提供密码: " + record.getRelativePath());
+            }
+            data = decryptData(data, dataKey, record.getEncryptionMethod());
+        }
+        if (record.isCompressed() && record.getCompressionMethod() != CompressionMethod.NONE) {
+            data = decompressData(data, record.getCompressionMethod());
+        }
+        return data;
+    }
+    
+    /**
+     * 随机读取包中文件的一段内容
+     * 增量包会解析整条增量链，从保存该文件最新版本的包中读取（本次未变化的文件在父包中）。
+     * 对未压缩、未加密且保存了叶子哈希的文件，只读取并校验与该范围相交的叶子；
+     * 其他文件需要还原整个文件后校验根哈希。
+     * @param packagePath 包文件路径
+     * @param relativePath 文件在包中的相对路径
+     * @param offset 起始位置
+     * @param length 读取长度
+     * @param password 解密密码（如果需要）
+     * @return 读取到的内容
+     */
+    public static byte[] readRange(String packagePath, String relativePath, long offset, int length,
+                                   String password) throws IOException {
+        Path packageFile = Paths.get(packagePath);
+        if (!Files.exists(packageFile)) {
+            throw new IOException("包文件不存在: " + packagePath);
+        }
+        
+        List<Path> chain = resolveChain(packageFile);
+        ChainRecord entry = resolveChainRecords(chain).get(relativePath);
+        if (entry == null || !entry.record.isHasData()) {
+            throw new IOException("包中不存在文件: " + relativePath);
+        }
+        FileRecord record = entry.record;
+        
+        try (RandomAccessFile raf = new RandomAccessFile(entry.packagePath.toFile(), "r")) {
+            PackageHeader header = PackageHeader.readFrom(raf);
+            if (offset < 0 || length < 0 || offset + length > record.getSize()) {
+                throw new IOException("读取范围超出文件大小: " + relativePath);
+            }
+            
+            MerkleTree.Digest digest = MerkleTree.Digest.forAlgorithm(record.getHashAlgorithm());
+            boolean rawWithLeaves = !record.isCompressed() && !record.isEncrypted() && !record.isDelta()
+                && record.getLeafHashes() != null && digest != null;
+            
+            if (rawWithLeaves) {
+                // 叶子哈希本身需与根哈希一致
+                if (!MerkleTree.rootFromLeaves(record.getLeafHashes(), digest).equals(record.getHash())) {
+                    throw new IOException("叶子哈希与根哈希不一致: " + relativePath);
+                }
+                
+                int leafSize = record.getHashLeafSize();
+                int firstLeaf = MerkleTree.firstLeaf(offset, leafSize);
+                int lastLeaf = MerkleTree.lastLeaf(offset, length, leafSize);
+                long start = (long) firstLeaf * leafSize;
+                long end = Math.min(record.getSize(), (long) (lastLeaf + 1) * leafSize);
+                
+                byte[] leaves = new byte[(int) (end - start)];
+                raf.seek(record.getDataOffset() + start);
+                raf.readFully(leaves);
+                
+                for (int leaf = firstLeaf; leaf <= lastLeaf; leaf++) {
+                    int leafOffset = (leaf - firstLeaf) * leafSize;
+                    int leafLength = Math.min(leafSize, leaves.length - leafOffset);
+                    if (!MerkleTree.leafHash(leaves, leafOffset, leafLength, digest).equals(record.getLeafHashes().get(leaf))) {
+                        throw new IOException("数据校验失败: " + relativePath + " 范围 [" + (start + leafOffset) + ", "
+                            + (start + leafOffset + leafLength) + ")");
+                    }
+                }
+                
+                int from = (int) (offset - start);
+                return Arrays.copyOfRange(leaves, from, from + length);
+            }
+            
+            // 需要还原整个文件
+            byte[] data = decodeStoredData(record, readStoredData(raf, record), resolveDataKey(header, password));
+            if (record.isDelta()) {
+                try (ChainReader chainReader = new ChainReader(chain, password)) {
+                    data = chainReader.materialize(record, data);
+                }
+            }
+            if (!contentHash(record, data).equals(record.getHash())) {
+                throw new IOException("数据校验失败: " + relativePath);
+            }
+            return Arrays.copyOfRange(data, (int) offset, (int) offset + length);
         }
     }
     
@@ -1048,34 +2319,139 @@ public class BackupPackage {
         }
         
         try (RandomAccessFile raf = new RandomAccessFile(packageFile.toFile(), "r")) {
-            // 读取魔数和版本
-            byte[] magic = new byte[4];
-            raf.readFully(magic);
-            if (!new String(magic, StandardCharsets.UTF_8).equals("FBS1")) {
-                throw new IOException("无效的包文件格式");
+            PackageHeader header = PackageHeader.readFrom(raf);
+            return readManifest(raf, header);
+        }
+    }
+    
+    // =============== 密钥槽管理 ===============
+    
+    /**
+     * 修改包密码
+     * 只重写包头中对应的密钥槽，包内数据保持不变，耗时与包大小无关。
+     * 增量包会沿父包方向修改整条增量链中共用同一组密钥槽的包，修改后整条链仍可用同一密码解锁；
+     * 以这个包为父包的后续增量包不在链中，需要分别修改。
+     * @param packagePath 包文件路径
+     * @param oldPassword 原密码
+     * @param newPassword 新密码
+     */
+    public static void changePassword(String packagePath, String oldPassword, String newPassword) throws IOException {
+        PackageHeader header = readHeaderForRekey(packagePath);
+        int slot = requireSlot(header, oldPassword);
+        KeySlots updated = header.keySlots.copy();
+        updated.setSlot(slot, header.keySlots.unlock(oldPassword), newPassword);
+        writeChainKeySlots(packagePath, header.keySlots, updated);
+    }
+    
+    /**
+     * 为包添加一个新密码（占用一个空闲密钥槽），增量链的处理同changePassword
+     * @param packagePath 包文件路径
+     * @param existingPassword 任一现有密码
+     * @param newPassword 新增的密码
+     * @return 使用的密钥槽索引
+     */
+    public static int addPassword(String packagePath, String existingPassword, String newPassword) throws IOException {
+        PackageHeader header = readHeaderForRekey(packagePath);
+        requireSlot(header, existingPassword);
+        KeySlots updated = header.keySlots.copy();
+        int slot = updated.addSlot(header.keySlots.unlock(existingPassword), newPassword);
+        writeChainKeySlots(packagePath, header.keySlots, updated);
+        return slot;
+    }
+    
+    /**
+     * 移除包的一个密码（清空其密钥槽），不允许移除最后一个密码；增量链的处理同changePassword
+     * @param packagePath 包文件路径
+     * @param password 要移除的密码
+     */
+    public static void removePassword(String packagePath, String password) throws IOException {
+        PackageHeader header = readHeaderForRekey(packagePath);
+        int slot = requireSlot(header, password);
+        if (header.keySlots.usedSlots() <= 1) {
+            throw new IOException("不能移除最后一个密码");
+        }
+        KeySlots updated = header.keySlots.copy();
+        updated.clearSlot(slot);
+        writeChainKeySlots(packagePath, header.keySlots, updated);
+    }
+    
+    // 读取要修改密钥槽的包头
+    private static PackageHeader readHeaderForRekey(String packagePath) throws IOException {
+        try (RandomAccessFile raf = openForRekey(packagePath)) {
+            return PackageHeader.readFrom(raf);
+        }
+    }
+    
+    /**
+     * 把新的密钥槽写入增量链中与原密钥槽完全相同（共用同一数据密钥）的所有包
+     * 先找出全部需要修改的包再写入，链断裂时不修改任何包
+     */
+    private static void writeChainKeySlots(String packagePath, KeySlots original, KeySlots updated) throws IOException {
+        List<Path> sharing = new ArrayList<>();
+        for (Path chainPackage : resolveChain(Paths.get(packagePath))) {
+            try (RandomAccessFile raf = new RandomAccessFile(chainPackage.toFile(), "r")) {
+                PackageHeader header = PackageHeader.readFrom(raf);
+                if (header.version >= 2 && original.sameAs(header.keySlots)) {
+                    sharing.add(chainPackage);
+                }
             }
-            
-            int version = raf.readInt();
-            if (version != PACKAGE_VERSION) {
-                throw new IOException("不支持的包版本: " + version);
+        }
+        for (Path chainPackage : sharing) {
+            try (RandomAccessFile raf = openForRekey(chainPackage.toString())) {
+                writeKeySlots(raf, updated);
             }
-            
-            // 读取Header
-            long manifestOffset = raf.readLong();
-            long manifestLength = raf.readLong();
-            
-            // 读取Manifest
-            raf.seek(manifestOffset);
-            byte[] manifestBytes = new byte[(int) manifestLength];
-            raf.readFully(manifestBytes);
-            String manifestJson = new String(manifestBytes, StandardCharsets.UTF_8);
-            
-            return BackupManifest.fromJson(manifestJson);
         }
     }
     
+    // 以读写方式打开包文件用于修改密钥槽
+    private static RandomAccessFile openForRekey(String packagePath) throws IOException {
+        Path packageFile = Paths.get(packagePath);
+        if (!Files.exists(packageFile)) {
+            throw new IOException("包文件不存在: " + packagePath);
+        }
+        return new RandomAccessFile(packageFile.toFile(), "rw");
+    }
+    
+    // 查找密码对应的密钥槽
+    private static int requireSlot(PackageHeader header, String password) throws IOException {
+        if (header.version < 2) {
+            throw new IOException("旧版本包的数据直接由密码加密，不支持修改密码，请重新打包");
+        }
+        if (header.keySlots.isEmpty()) {
+            throw new IOException("包文件未加密");
+        }
+        int slot = header.keySlots.findSlot(password);
+        if (slot < 0) {
+            throw new IOException("密码错误: 无法解锁数据密钥");
+        }
+        return slot;
+    }
+    
+    // 仅回写密钥槽区域并同步到磁盘
+    private static void writeKeySlots(RandomAccessFile raf, KeySlots keySlots) throws IOException {
+        raf.seek(PackageHeader.keySlotsPosition());
+        keySlots.writeTo(raf);
+        raf.getFD().sync();
+    }
+    
     // =============== 加密相关方法 ===============
     
+    /**
+     * 由密码派生密钥（版本1的包及独立调用的加密方法使用）
+     * @param password 密码
+     * @return 256位密钥
+     */
+    static byte[] deriveLegacyKey(String password) {
+        try {
+            // 使用SHA256哈希密码作为密钥
+            java.security.MessageDigest digest = java.security.MessageDigest.getInstance("SHA-256");
+            return digest.digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (java.security.NoSuchAlgorithmException e) {
+            // 如果SHA-256不可用，使用简单的方法
+            return password.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+    
     /**
      * 使用XOR算法加密数据
      * @param data 原始数据
@@ -1086,27 +2462,20 @@ public class BackupPackage {
         if (password == null || password.isEmpty()) {
             return data;
         }
-        
-        try {
-            // 使用SHA256哈希密码作为密钥
-            java.security.MessageDigest digest = java.security.MessageDigest.getInstance("SHA-256");
-            byte[] key = digest.digest(password.getBytes(StandardCharsets.UTF_8));
-            
-            // 应用XOR加密
-            byte[] encrypted = new byte[data.length];
-            for (int i = 0; i < data.length; i++) {
-                encrypted[i] = (byte) (data[i] ^ key[i % key.length]);
-            }
-            return encrypted;
-        } catch (java.security.NoSuchAlgorithmException e) {
-            // 如果SHA-256不可用，使用简单的方法
-            byte[] key = password.getBytes(StandardCharsets.UTF_8);
-            byte[] encrypted = new byte[data.length];
-            for (int i = 0; i < data.length; i++) {
-                encrypted[i] = (byte) (data[i] ^ key[i % key.length]);
-            }
-            return encrypted;
-        }
+        return encryptXOR(data, deriveLegacyKey(password));
+    }
+    
+    /**
+     * 使用XOR算法和指定密钥加密数据
+     * @param data 原始数据
+     * @param key 密钥
+     * @return 加密后的数据
+     */
+    public static byte[] encryptXOR(byte[] data, byte[] key) {
+        // 应用XOR加密
+        byte[] encrypted = new byte[data.length];
+        ByteKernels.xor(data, key, encrypted, data.length);
+        return encrypted;
     }
     
     /**
@@ -1130,12 +2499,21 @@ public class BackupPackage {
         if (data == null || data.length == 0 || password == null || password.isEmpty()) {
             return data;
         }
+        return encryptRC4(data, deriveLegacyKey(password));
+    }
+    
+    /**
+     * 使用RC4算法和指定密钥加密数据
+     * @param data 原始数据
+     * @param key 密钥
+     * @return 加密后的数据
+     */
+    public static byte[] encryptRC4(byte[] data, byte[] key) {
+        if (data == null || data.length == 0) {
+            return data;
+        }
         
         try {
-            // 使用密码生成密钥
-            java.security.MessageDigest digest = java.security.MessageDigest.getInstance("SHA-256");
-            byte[] key = digest.digest(password.getBytes(StandardCharsets.UTF_8));
-            
             // RC4算法实现
             byte[] state = new byte[256];
             for (int i = 0; i < 256; i++) {
@@ -1150,7 +2528,7 @@ public class BackupPackage {
                 state[j] = temp;
             }
             
-            byte[] output = data.clone();
+            byte[] output = new byte[data.length];
             int i = 0, k = 0;
             for (int counter = 0; counter < data.length; counter++) {
                 i = (i + 1) & 0xFF;
@@ -1192,16 +2570,25 @@ public class BackupPackage {
         if (data == null || data.length == 0 || password == null || password.isEmpty()) {
             return data;
         }
+        // 使用密码生成256位密钥
+        return encryptAES256(data, deriveLegacyKey(password));
+    }
+    
+    /**
+     * 使用AES-256算法和指定密钥加密数据
+     * @param data 原始数据
+     * @param key 256位密钥
+     * @return 加密后的数据（IV + 密文）
+     */
+    public static byte[] encryptAES256(byte[] data, byte[] key) {
+        if (data == null || data.length == 0) {
+            return data;
+        }
         
         try {
-            // 使用密码生成256位密钥
-            java.security.MessageDigest digest = java.security.MessageDigest.getInstance("SHA-256");
-            byte[] key = digest.digest(password.getBytes(StandardCharsets.UTF_8));
-            
             // 生成随机IV（初始化向量）
-            java.security.SecureRandom random = new java.security.SecureRandom();
             byte[] iv = new byte[16];
-            random.nextBytes(iv);
+            AES_IV_RANDOM.nextBytes(iv);
             
             // 创建AES密钥和密码器（使用CBC模式，更安全）
             javax.crypto.spec.SecretKeySpec secretKey = new javax.crypto.spec.SecretKeySpec(key, "AES");
@@ -1209,15 +2596,12 @@ public class BackupPackage {
             javax.crypto.Cipher cipher = javax.crypto.Cipher.getInstance("AES/CBC/PKCS5Padding");
             cipher.init(javax.crypto.Cipher.ENCRYPT_MODE, secretKey, ivSpec);
             
-            // 加密数据
-            byte[] encrypted = cipher.doFinal(data);
-            
-            // 将IV和加密数据合并：IV + 加密数据
-            byte[] result = new byte[iv.length + encrypted.length];
+            // 输出格式：IV + 加密数据，密文直接写入IV之后，不再单独分配再合并
+            byte[] result = new byte[iv.length + cipher.getOutputSize(data.length)];
             System.arraycopy(iv, 0, result, 0, iv.length);
-            System.arraycopy(encrypted, 0, result, iv.length, encrypted.length);
+            int length = iv.length + cipher.doFinal(data, 0, data.length, result, iv.length);
             
-            return result;
+            return length == result.length ? result : Arrays.copyOf(result, length);
         } catch (Exception e) {
             // 如果AES加密失败，抛出异常
             throw new RuntimeException("AES加密失败: " + e.getMessage(), e);
@@ -1234,30 +2618,35 @@ public class BackupPackage {
         if (data == null || data.length == 0 || password == null || password.isEmpty()) {
             return data;
         }
+        // 使用密码生成256位密钥
+        return decryptAES256(data, deriveLegacyKey(password));
+    }
+    
+    /**
+     * 使用AES-256算法和指定密钥解密数据
+     * @param data 加密数据（包含IV）
+     * @param key 256位密钥
+     * @return 解密后的数据
+     */
+    public static byte[] decryptAES256(byte[] data, byte[] key) {
+        if (data == null || data.length == 0) {
+            return data;
+        }
         
         try {
-            // 使用密码生成256位密钥
-            java.security.MessageDigest digest = java.security.MessageDigest.getInstance("SHA-256");
-            byte[] key = digest.digest(password.getBytes(StandardCharsets.UTF_8));
-            
             // 分离IV和加密数据（前16字节是IV）
             if (data.length < 16) {
                 throw new IllegalArgumentException("加密数据太短，无法提取IV");
             }
             
-            byte[] iv = new byte[16];
-            byte[] encryptedData = new byte[data.length - 16];
-            System.arraycopy(data, 0, iv, 0, 16);
-            System.arraycopy(data, 16, encryptedData, 0, encryptedData.length);
-            
             // 创建AES密钥和密码器
             javax.crypto.spec.SecretKeySpec secretKey = new javax.crypto.spec.SecretKeySpec(key, "AES");
-            javax.crypto.spec.IvParameterSpec ivSpec = new javax.crypto.spec.IvParameterSpec(iv);
+            javax.crypto.spec.IvParameterSpec ivSpec = new javax.crypto.spec.IvParameterSpec(data, 0, 16);
             javax.crypto.Cipher cipher = javax.crypto.Cipher.getInstance("AES/CBC/PKCS5Padding");
             cipher.init(javax.crypto.Cipher.DECRYPT_MODE, secretKey, ivSpec);
             
             // 解密数据
-            return cipher.doFinal(encryptedData);
+            return cipher.doFinal(data, 16, data.length - 16);
         } catch (javax.crypto.BadPaddingException e) {
             // BadPaddingException通常表示密码错误
             throw new RuntimeException("密码错误或数据损坏: " + e.getMessage(), e);
@@ -1278,14 +2667,28 @@ public class BackupPackage {
         if (method == EncryptionMethod.NONE || password == null || password.isEmpty()) {
             return data;
         }
+        return encryptData(data, deriveLegacyKey(password), method);
+    }
+    
+    /**
+     * 根据指定的加密方法和密钥加密数据
+     * @param data 原始数据
+     * @param key 密钥
+     * @param method 加密方法
+     * @return 加密后的数据
+     */
+    public static byte[] encryptData(byte[] data, byte[] key, EncryptionMethod method) {
+        if (method == EncryptionMethod.NONE || key == null) {
+            return data;
+        }
         
         switch (method) {
             case XOR:
-                return encryptXOR(data, password);
+                return encryptXOR(data, key);
             case RC4:
-                return encryptRC4(data, password);
+                return encryptRC4(data, key);
             case AES256:
-                return encryptAES256(data, password);
+                return encryptAES256(data, key);
             default:
                 return data;
         }
@@ -1303,15 +2706,30 @@ public class BackupPackage {
         if (method == EncryptionMethod.NONE || password == null || password.isEmpty()) {
             return data;
         }
+        return decryptData(data, deriveLegacyKey(password), method);
+    }
+    
+    /**
+     * 根据指定的加密方法和密钥解密数据
+     * @param data 加密数据
+     * @param key 密钥
+     * @param method 加密方法
+     * @return 解密后的数据
+     * @throws IOException 如果密钥错误或解密失败
+     */
+    public static byte[] decryptData(byte[] data, byte[] key, EncryptionMethod method) throws IOException {
+        if (method == EncryptionMethod.NONE || key == null) {
+            return data;
+        }
         
         try {
             switch (method) {
                 case XOR:
-                    return decryptXOR(data, password);
                 case RC4:
-                    return decryptRC4(data, password);
+                    // XOR和RC4是对称加密，解密和加密使用相同的方法
+                    return encryptData(data, key, method);
                 case AES256:
-                    return decryptAES256(data, password);
+                    return decryptAES256(data, key);
                 default:
                     return data;
             }
@@ -1375,12 +2793,7 @@ public class BackupPackage {
             }
             
             // 比较原始数据和重新加密后的数据是否相同
-            for (int i = 0; i < testData.length; i++) {
-                if (testData[i] != reEncrypted[i]) {
-                    return false;
-                }
-            }
-            return true;
+            return ByteKernels.mismatch(testData, 0, reEncrypted, 0, testData.length) < 0;
         } catch (Exception e) {
             return false;
         }
@@ -1594,26 +3007,17 @@ public class BackupPackage {
             return new byte[0];
         }
         
-        ByteArrayOutputStream output = new ByteArrayOutputStream();
-        
-        int count = 1;
-        byte current = data[0];
+        ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(32, data.length / 4));
         
-        for (int i = 1; i < data.length; i++) {
-            if (data[i] == current && count < 255) {
-                count++;
-            } else {
-                output.write(count);
-                output.write(current);
-                current = data[i];
-                count = 1;
-            }
+        int i = 0;
+        while (i < data.length) {
+            // 每组最多255个相同字节
+            int count = ByteKernels.runLength(data, i, 255);
+            output.write(count);
+            output.write(data[i]);
+            i += count;
         }
         
-        // 写入最后一组
-        output.write(count);
-        output.write(current);
-        
         return output.toByteArray();
     }
     
@@ -1627,24 +3031,32 @@ public class BackupPackage {
             return new byte[0];
         }
         
-        try {
-            java.util.zip.Deflater deflater = new java.util.zip.Deflater();
+        java.util.zip.Deflater deflater = new java.util.zip.Deflater();
+        try (BufferPool.Buffer chunk = BufferPool.shared().acquire(IO_CHUNK_SIZE)) {
             deflater.setInput(data);
             deflater.finish();
             
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length);
-            byte[] buffer = new byte[1024];
-            
+            // 压缩输出先写入池中的直接缓冲区，再复制到结果数组
+            ByteBuffer buffer = chunk.buffer();
+            byte[] output = new byte[data.length];
+            int length = 0;
             while (!deflater.finished()) {
-                int count = deflater.deflate(buffer);
-                outputStream.write(buffer, 0, count);
+                buffer.clear();
+                deflater.deflate(buffer);
+                buffer.flip();
+                int count = buffer.remaining();
+                if (length + count > output.length) {
+                    output = Arrays.copyOf(output, Math.max(output.length * 2, length + count));
+                }
+                buffer.get(output, length, count);
+                length += count;
             }
-            
-            deflater.end();
-            return outputStream.toByteArray();
+            return length == output.length ? output : Arrays.copyOf(output, length);
         } catch (Exception e) {
             // 如果压缩失败，返回原始数据
             return data;
+        } finally {
+            deflater.end();
         }
     }
     
@@ -1769,88 +3181,72 @@ public class BackupPackage {
      * @return 是否验证成功
      */
     public static boolean verifyPackage(String packagePath, String password) throws IOException {
-        Path packageFile = Paths.get(packagePath);
-        
-        if (!Files.exists(packageFile)) {
+        return verifyPackage(packagePath, password, VerifyMode.DEEP);
+    }
+    
+    /**
+     * 按指定模式验证包文件的完整性
+     * 快速模式只流式读取存储数据并比对校验和，不需要密码，也不解密、解压
+     * 需要逐文件结果时使用 {@link PackageVerifier}
+     * @param packagePath 包文件路径
+     * @param password 解密密码（完整验证加密包时需要）
+     * @param mode 验证模式
+     * @return 是否验证成功
+     */
+    public static boolean verifyPackage(String packagePath, String password, VerifyMode mode) throws IOException {
+        if (!Files.exists(Paths.get(packagePath))) {
             throw new IOException("包文件不存在: " + packagePath);
         }
         
-        try (RandomAccessFile raf = new RandomAccessFile(packageFile.toFile(), "r")) {
-            // 读取魔数和版本
-            byte[] magic = new byte[4];
-            raf.readFully(magic);
-            if (!new String(magic, StandardCharsets.UTF_8).equals("FBS1")) {
-                throw new IOException("无效的包文件格式");
+        // 各文件并行校验，所有失败的文件都会被报告；包含纠删校验区时先原地修复再重新验证
+        try {
+            PackageVerifier.Report report = new PackageVerifier(packagePath, password, mode).verifyAndRepair();
+            if (report.getRepair() != null && !report.getRepair().isClean()) {
+                System.out.println("已修复损坏的条带: " + report.getRepair().getRepairedStripes()
+                                 + "/" + report.getRepair().getDamagedStripes());
             }
-            
-            int version = raf.readInt();
-            if (version != PACKAGE_VERSION) {
-                throw new IOException("不支持的包版本: " + version);
+            for (PackageVerifier.EntryResult failure : report.getFailures()) {
+                System.err.println("文件验证失败: " + failure);
             }
-            
-            // 读取Header
-            long manifestOffset = raf.readLong();
-            long manifestLength = raf.readLong();
-            
-            // 读取Manifest
-            raf.seek(manifestOffset);
-            byte[] manifestBytes = new byte[(int) manifestLength];
-            raf.readFully(manifestBytes);
-            String manifestJson = new String(manifestBytes, StandardCharsets.UTF_8);
-            
-            BackupManifest manifest = BackupManifest.fromJson(manifestJson);
-            
-            // 验证所有文件的哈希
-            for (FileRecord record : manifest.getFiles()) {
-                if (record.isHasData()) {
-                    // 定位并读取数据
-                    raf.seek(record.getDataOffset());
-                    byte[] fileData = new byte[(int) record.getStoredSize()];
-                    raf.readFully(fileData);
-                    
-                    // 如果数据被压缩且加密，备份时的处理顺序是：原始数据 -> 压缩 -> 加密
-                    // 验证时需要逆向：加密数据 -> 解密 -> 解压 -> 原始数据
-                    
-                    // 如果数据被加密，先解密
-                    if (record.isEncrypted()) {
-                        if (password == null || password.isEmpty()) {
-                            throw new IOException("包文件已加密，需要提供密码进行验证: " + record.getRelativePath());
-                        }
-                        
-                        try {
-                            // 尝试解密数据
-                            fileData = decryptData(fileData, password, record.getEncryptionMethod());
-                        } catch (Exception e) {
-                            // 解密失败，密码错误或数据损坏
-                            throw new IOException("密码错误或解密失败: 无法验证文件 " + record.getRelativePath() + " - " + e.getMessage());
-                        }
-                    }
-                    
-                    // 如果数据被压缩（注意：解密后才解压）
-                    if (record.isCompressed()) {
-                        fileData = decompressData(fileData, record.getCompressionMethod());
-                    }
-                    
-                    // 计算最终解密/解压后数据的哈希（即原始数据的哈希）
-                    String calculatedHash = calculateHash(fileData);
-                    if (!calculatedHash.equals(record.getHash())) {
-                        if (record.isEncrypted() && (password == null || password.isEmpty())) {
-                            throw new IOException("包文件已加密，需要提供密码进行完整验证: " + record.getRelativePath());
-                        }
-                        System.err.println("文件哈希验证失败: " + record.getRelativePath() + 
-                                         " (Expected: " + record.getHash() + 
-                                         ", Got: " + calculatedHash + 
-                                         ", Encrypted: " + record.isEncrypted() + 
-                                         ", Compressed: " + record.isCompressed() + ")");
-                        return false;
-                    }
-                }
+            if (report.getSkippedEntries() > 0) {
+                System.out.println("未记录存储校验和的加密文件需要密码才能验证，已跳过: " + report.getSkippedEntries());
             }
-            
-            return true;
-        } catch (Exception e) {
+            return report.isSuccess();
+        } catch (IOException e) {
             System.err.println("包验证失败: " + e.getMessage());
             return false;
         }
     }
-}
\ No newline at end of file
+    
+    /**
+     * 检查包是否包含纠删校验区
+     */
+    public static boolean hasParity(String packagePath) {
+        try (RandomAccessFile raf = new RandomAccessFile(packagePath, "r")) {
+            return PackageHeader.readFrom(raf).hasParity();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * 使用纠删校验区检查并原地修复包中损坏的条带
+     * 修复只依赖分片校验和，不需要密码
+     * @param packagePath 包文件路径
+     * @return 修复结果
+     */
+    public static PackageParity.RepairReport repairPackage(String packagePath) throws IOException {
+        Path packageFile = Paths.get(packagePath);
+        if (!Files.exists(packageFile)) {
+            throw new IOException("包文件不存在: " + packagePath);
+        }
+        
+        try (RandomAccessFile raf = new RandomAccessFile(packageFile.toFile(), "rw")) {
+            PackageHeader header = PackageHeader.readFrom(raf);
+            if (!header.hasParity()) {
+                throw new IOException("包中没有纠删校验数据: " + packagePath);
+            }
+            return PackageParity.check(raf, header.parityOffset, true);
+        }
+    }
+}
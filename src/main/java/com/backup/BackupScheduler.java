@@ -0,0 +1,717 @@
+package com.backup;
+
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 备份任务调度器
+ * 每个任务有cron表达式（分 时 日 月 周）、优先级和可选的时间窗口。到期的任务进入等待队列，
+ * 调度线程按优先级（相同时先到先得）启动任务，同时运行的任务数受全局上限和每个目标磁盘（FileStore）的上限限制。
+ * 任务在时间窗口之外按窗口设置暂停（保持打开，窗口重新开始时继续）或停止（窗口重新开始时重新排队，
+ * 目录模式跳过已复制的文件，相当于从中断处继续）。暂停和停止通过JobControl在文件之间生效。
+ * 界面通过addJob/runNow/pause/resume/stop和状态监听器使用；也可以用main按任务配置文件在后台运行。
+ */
+public class BackupScheduler {
+
+    /**
+     * 窗口外的处理方式
+     */
+    public enum WindowAction {
+        PAUSE,          // 暂停，窗口开始时继续
+        STOP            // 停止，窗口开始时重新排队
+    }
+
+    /**
+     * 任务状态
+     */
+    public enum JobStatus {
+        IDLE,           // 等待下一次计划时间
+        QUEUED,         // 已到期，等待运行名额
+        RUNNING,
+        PAUSED,
+        STOPPED,        // 被窗口停止，等待窗口重新开始
+        SUCCEEDED,
+        FAILED,
+        CANCELLED       // 被手动停止
+    }
+
+    /**
+     * 调度选项
+     */
+    public static class SchedulerOptions {
+        private int maxConcurrentJobs = 2;          // 同时运行的任务数上限
+        private int maxJobsPerDisk = 1;             // 每个目标磁盘同时运行的任务数上限（0表示不限制）
+        private long tickSeconds = 5;               // 调度检查间隔
+
+        public int getMaxConcurrentJobs() { return maxConcurrentJobs; }
+        public void setMaxConcurrentJobs(int maxConcurrentJobs) { this.maxConcurrentJobs = maxConcurrentJobs; }
+
+        public int getMaxJobsPerDisk() { return maxJobsPerDisk; }
+        public void setMaxJobsPerDisk(int maxJobsPerDisk) { this.maxJobsPerDisk = maxJobsPerDisk; }
+
+        public long getTickSeconds() { return tickSeconds; }
+        public void setTickSeconds(long tickSeconds) { this.tickSeconds = tickSeconds; }
+    }
+
+    /**
+     * 每天的时间窗口，结束时间早于开始时间时跨越午夜（例如 22:00-06:00）
+     */
+    public static class TimeWindow {
+        private final LocalTime start;
+        private final LocalTime end;
+        private final WindowAction action;
+
+        public TimeWindow(LocalTime start, LocalTime end, WindowAction action) {
+            this.start = start;
+            this.end = end;
+            this.action = action;
+        }
+
+        public LocalTime getStart() { return start; }
+        public LocalTime getEnd() { return end; }
+        public WindowAction getAction() { return action; }
+
+        public boolean contains(LocalTime time) {
+            if (start.equals(end)) {
+                return true;
+            }
+            if (start.isBefore(end)) {
+                return !time.isBefore(start) && time.isBefore(end);
+            }
+            return !time.isBefore(start) || time.isBefore(end);
+        }
+    }
+
+    /**
+     * 任务定义
+     */
+    public static class JobDefinition {
+        private final String name;
+        private final List<String> sourcePaths;
+        private final String targetDir;
+        private final EnhancedBackupService.EnhancedBackupOptions options;
+        private CronExpression schedule;        // 为null时只能手动运行
+        private int priority;                   // 数值越大越优先
+        private TimeWindow window;              // 为null时任何时间都可运行
+
+        public JobDefinition(String name, List<String> sourcePaths, String targetDir,
+                             EnhancedBackupService.EnhancedBackupOptions options) {
+            this.name = name;
+            this.sourcePaths = new ArrayList<>(sourcePaths);
+            this.targetDir = targetDir;
+            this.options = options;
+        }
+
+        public String getName() { return name; }
+        public List<String> getSourcePaths() { return sourcePaths; }
+        public String getTargetDir() { return targetDir; }
+        public EnhancedBackupService.EnhancedBackupOptions getOptions() { return options; }
+
+        public CronExpression getSchedule() { return schedule; }
+        public void setSchedule(CronExpression schedule) { this.schedule = schedule; }
+
+        public int getPriority() { return priority; }
+        public void setPriority(int priority) { this.priority = priority; }
+
+        public TimeWindow getWindow() { return window; }
+        public void setWindow(TimeWindow window) { this.window = window; }
+    }
+
+    /**
+     * 任务状态快照（用于界面显示）
+     */
+    public static class JobInfo {
+        private final String name;
+        private final JobStatus status;
+        private final LocalDateTime nextRun;
+        private final LocalDateTime lastStarted;
+        private final LocalDateTime lastFinished;
+        private final String lastMessage;
+
+        JobInfo(String name, JobStatus status, LocalDateTime nextRun, LocalDateTime lastStarted,
+                LocalDateTime lastFinished, String lastMessage) {
+            this.name = name;
+            this.status = status;
+            this.nextRun = nextRun;
+            this.lastStarted = lastStarted;
+            this.lastFinished = lastFinished;
+            this.lastMessage = lastMessage;
+        }
+
+        public String getName() { return name; }
+        public JobStatus getStatus() { return status; }
+        public LocalDateTime getNextRun() { return nextRun; }
+        public LocalDateTime getLastStarted() { return lastStarted; }
+        public LocalDateTime getLastFinished() { return lastFinished; }
+        public String getLastMessage() { return lastMessage; }
+    }
+
+    // 任务的运行时状态，只在持有调度器锁时修改
+    private static class Job {
+        final JobDefinition definition;
+        JobStatus status = JobStatus.IDLE;
+        LocalDateTime nextRun;
+        LocalDateTime lastStarted;
+        LocalDateTime lastFinished;
+        String lastMessage;
+        long queuedSequence;
+        JobControl control;
+        Object disk;
+        boolean cancelRequested;
+        boolean pausedByWindow;
+
+        Job(JobDefinition definition) {
+            this.definition = definition;
+        }
+    }
+
+    private final SchedulerOptions options;
+    private final Clock clock;
+    private final Map<String, Job> jobs = new LinkedHashMap<>();
+    private final Map<Object, Integer> runningPerDisk = new HashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private int running;
+    private Consumer<JobInfo> listener;
+
+    private final Object lifecycleLock = new Object();
+    private ScheduledExecutorService ticker;
+    private ExecutorService workers;
+
+    public BackupScheduler(SchedulerOptions options) {
+        this(options, Clock.systemDefaultZone());
+    }
+
+    public BackupScheduler(SchedulerOptions options, Clock clock) {
+        this.options = options;
+        this.clock = clock;
+    }
+
+    /**
+     * 设置状态监听器（任务状态变化时在调度线程或任务线程上调用，界面需要自行切换到UI线程）
+     */
+    public synchronized void setListener(Consumer<JobInfo> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 添加或替换任务（正在运行的同名任务不受影响，结束后使用新定义）
+     */
+    public synchronized void addJob(JobDefinition definition) {
+        Job job = new Job(definition);
+        Job previous = jobs.get(definition.getName());
+        if (previous != null && (previous.status == JobStatus.RUNNING || previous.status == JobStatus.PAUSED)) {
+            throw new IllegalStateException("任务正在运行: " + definition.getName());
+        }
+        if (definition.getSchedule() != null) {
+            job.nextRun = definition.getSchedule().next(now());
+        }
+        jobs.put(definition.getName(), job);
+        notifyListener(job);
+    }
+
+    /**
+     * 删除任务（正在运行的任务先停止）
+     */
+    public synchronized void removeJob(String name) {
+        Job job = jobs.remove(name);
+        if (job != null && job.control != null) {
+            job.cancelRequested = true;
+            job.control.stop();
+        }
+    }
+
+    /**
+     * 立即把任务放入等待队列（仍受并发上限和时间窗口限制）
+     */
+    public synchronized void runNow(String name) {
+        Job job = requireJob(name);
+        if (job.status != JobStatus.RUNNING && job.status != JobStatus.PAUSED && job.status != JobStatus.QUEUED) {
+            enqueue(job);
+        }
+    }
+
+    /**
+     * 手动暂停正在运行的任务
+     */
+    public synchronized void pause(String name) {
+        Job job = requireJob(name);
+        if (job.status == JobStatus.RUNNING) {
+            job.control.pause();
+            setStatus(job, JobStatus.PAUSED);
+        }
+    }
+
+    /**
+     * 继续手动暂停的任务（窗口外的任务等窗口开始后继续）
+     */
+    public synchronized void resume(String name) {
+        Job job = requireJob(name);
+        if (job.status == JobStatus.PAUSED && inWindow(job, now().toLocalTime())) {
+            job.control.resume();
+            job.pausedByWindow = false;
+            setStatus(job, JobStatus.RUNNING);
+        }
+    }
+
+    /**
+     * 停止任务：运行中的任务在当前文件完成后结束，等待中的任务移出队列
+     */
+    public synchronized void stop(String name) {
+        Job job = requireJob(name);
+        if (job.control != null) {
+            job.cancelRequested = true;
+            job.control.stop();
+        } else if (job.status == JobStatus.QUEUED || job.status == JobStatus.STOPPED) {
+            setStatus(job, JobStatus.CANCELLED);
+        }
+    }
+
+    /**
+     * 所有任务的状态
+     */
+    public synchronized List<JobInfo> getJobs() {
+        List<JobInfo> result = new ArrayList<>();
+        for (Job job : jobs.values()) {
+            result.add(info(job));
+        }
+        return result;
+    }
+
+    /**
+     * 在后台按检查间隔调度
+     */
+    public void start() {
+        synchronized (lifecycleLock) {
+            if (ticker != null) {
+                return;
+            }
+            AtomicInteger threadIndex = new AtomicInteger();
+            workers = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "backup-job-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "backup-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            ticker.scheduleWithFixedDelay(() -> {
+                try {
+                    tick();
+                } catch (RuntimeException e) {
+                    System.err.println("任务调度失败: " + e.getMessage());
+                }
+            }, 0, options.getTickSeconds(), TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * 停止调度并停止所有运行中的任务
+     */
+    public void shutdown() {
+        synchronized (lifecycleLock) {
+            if (ticker == null) {
+                return;
+            }
+            ticker.shutdownNow();
+            ticker = null;
+            synchronized (this) {
+                for (Job job : jobs.values()) {
+                    if (job.control != null) {
+                        job.cancelRequested = true;
+                        job.control.stop();
+                    }
+                }
+            }
+            workers.shutdown();
+            workers = null;
+        }
+    }
+
+    /**
+     * 执行一次调度：把到期的任务放入队列，按时间窗口暂停/继续/停止任务，然后按优先级启动等待的任务
+     */
+    public synchronized void tick() {
+        LocalDateTime now = now();
+        LocalTime time = now.toLocalTime();
+
+        for (Job job : jobs.values()) {
+            JobDefinition definition = job.definition;
+            // 计划时间到期（错过的多次只运行一次）
+            if (job.nextRun != null && !now.isBefore(job.nextRun)) {
+                job.nextRun = definition.getSchedule().next(now);
+                if (job.status != JobStatus.RUNNING && job.status != JobStatus.PAUSED && job.status != JobStatus.QUEUED) {
+                    enqueue(job);
+                }
+            }
+            // 时间窗口
+            boolean open = inWindow(job, time);
+            if (!open && job.status == JobStatus.RUNNING) {
+                if (definition.getWindow().getAction() == WindowAction.PAUSE) {
+                    job.control.pause();
+                    job.pausedByWindow = true;
+                    setStatus(job, JobStatus.PAUSED);
+                } else {
+                    job.control.stop();
+                }
+            } else if (open && job.status == JobStatus.PAUSED && job.pausedByWindow) {
+                // 手动暂停的任务保持暂停
+                job.control.resume();
+                job.pausedByWindow = false;
+                setStatus(job, JobStatus.RUNNING);
+            } else if (open && job.status == JobStatus.STOPPED) {
+                enqueue(job);
+            }
+        }
+
+        // 按优先级启动等待的任务
+        List<Job> queued = new ArrayList<>();
+        for (Job job : jobs.values()) {
+            if (job.status == JobStatus.QUEUED && inWindow(job, time)) {
+                queued.add(job);
+            }
+        }
+        queued.sort(Comparator.comparingInt((Job job) -> -job.definition.getPriority())
+                              .thenComparingLong(job -> job.queuedSequence));
+        for (Job job : queued) {
+            if (running >= options.getMaxConcurrentJobs()) {
+                break;
+            }
+            Object disk = diskOf(job.definition.getTargetDir());
+            if (options.getMaxJobsPerDisk() > 0 && runningPerDisk.getOrDefault(disk, 0) >= options.getMaxJobsPerDisk()) {
+                continue;
+            }
+            launch(job, disk, now);
+        }
+    }
+
+    private void launch(Job job, Object disk, LocalDateTime now) {
+        running++;
+        runningPerDisk.merge(disk, 1, Integer::sum);
+        job.disk = disk;
+        job.control = new JobControl();
+        job.cancelRequested = false;
+        job.pausedByWindow = false;
+        job.lastStarted = now;
+        setStatus(job, JobStatus.RUNNING);
+
+        JobControl control = job.control;
+        Runnable task = () -> runJob(job, control);
+        if (workers != null) {
+            workers.execute(task);
+        } else {
+            // 未启动后台调度时（手动调用tick）新建线程运行
+            Thread thread = new Thread(task, "backup-job-" + job.definition.getName());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    // 在任务线程上运行备份
+    private void runJob(Job job, JobControl control) {
+        JobDefinition definition = job.definition;
+        String message;
+        boolean success = false;
+        try {
+            EnhancedBackupService.EnhancedBackupOptions backupOptions = definition.getOptions();
+            backupOptions.setJobControl(control);
+            EnhancedBackupService.EnhancedBackupResult result = new EnhancedBackupService()
+                .enhancedBackupMultiple(definition.getSourcePaths(), definition.getTargetDir(), backupOptions);
+            message = result.getMessage();
+            success = result.getSuccessfulPaths().size() == definition.getSourcePaths().size();
+        } catch (CancellationException e) {
+            message = e.getMessage();
+        } catch (IOException | RuntimeException e) {
+            message = "备份失败: " + e.getMessage();
+        }
+
+        synchronized (this) {
+            running--;
+            runningPerDisk.merge(job.disk, -1, Integer::sum);
+            job.control = null;
+            job.lastFinished = now();
+            job.lastMessage = message;
+            if (control.isStopped()) {
+                // 手动停止的任务结束；被窗口停止的任务等窗口开始后重新运行
+                setStatus(job, job.cancelRequested ? JobStatus.CANCELLED : JobStatus.STOPPED);
+            } else {
+                setStatus(job, success ? JobStatus.SUCCEEDED : JobStatus.FAILED);
+            }
+        }
+        System.out.println("任务 " + definition.getName() + " " + job.status + ": " + message);
+    }
+
+    private void enqueue(Job job) {
+        job.queuedSequence = sequence.incrementAndGet();
+        setStatus(job, JobStatus.QUEUED);
+    }
+
+    private void setStatus(Job job, JobStatus status) {
+        job.status = status;
+        notifyListener(job);
+    }
+
+    private void notifyListener(Job job) {
+        if (listener != null) {
+            try {
+                listener.accept(info(job));
+            } catch (RuntimeException e) {
+                System.err.println("任务状态监听器失败: " + e.getMessage());
+            }
+        }
+    }
+
+    private static JobInfo info(Job job) {
+        return new JobInfo(job.definition.getName(), job.status, job.nextRun, job.lastStarted, job.lastFinished, job.lastMessage);
+    }
+
+    private static boolean inWindow(Job job, LocalTime time) {
+        TimeWindow window = job.definition.getWindow();
+        return window == null || window.contains(time);
+    }
+
+    private Job requireJob(String name) {
+        Job job = jobs.get(name);
+        if (job == null) {
+            throw new IllegalArgumentException("任务不存在: " + name);
+        }
+        return job;
+    }
+
+    private LocalDateTime now() {
+        return LocalDateTime.now(clock);
+    }
+
+    // 目标目录所在的磁盘（目录不存在时使用最近的已存在上级目录）
+    private static Object diskOf(String targetDir) {
+        Path path = Paths.get(targetDir).toAbsolutePath();
+        while (path != null && !Files.exists(path)) {
+            path = path.getParent();
+        }
+        if (path != null) {
+            try {
+                return Files.getFileStore(path);
+            } catch (IOException e) {
+                // 无法确定磁盘时按路径区分
+            }
+        }
+        return targetDir;
+    }
+
+    /**
+     * cron表达式：分 时 日 月 周（0和7都表示周日）
+     * 每个字段支持 *、数字、范围 a-b、列表 a,b 和步长 * /n、a-b/n；日和周都有限制时满足任一即可（与cron相同）
+     */
+    public static final class CronExpression {
+        private final String expression;
+        private final BitSet minutes;
+        private final BitSet hours;
+        private final BitSet daysOfMonth;
+        private final BitSet months;
+        private final BitSet daysOfWeek;
+        private final boolean anyDayOfMonth;
+        private final boolean anyDayOfWeek;
+
+        private CronExpression(String expression, String[] fields) {
+            this.expression = expression;
+            this.minutes = parseField(fields[0], 0, 59);
+            this.hours = parseField(fields[1], 0, 23);
+            this.daysOfMonth = parseField(fields[2], 1, 31);
+            this.months = parseField(fields[3], 1, 12);
+            BitSet days = parseField(fields[4], 0, 7);
+            if (days.get(7)) {
+                days.set(0);
+            }
+            this.daysOfWeek = days;
+            this.anyDayOfMonth = fields[2].equals("*");
+            this.anyDayOfWeek = fields[4].equals("*");
+        }
+
+        /**
+         * 解析cron表达式
+         * @throws IllegalArgumentException 格式错误
+         */
+        public static CronExpression parse(String expression) {
+            String[] fields = expression.trim().split("\\s+");
+            if (fields.length != 5) {
+                throw new IllegalArgumentException("cron表达式需要5个字段: " + expression);
+            }
+            return new CronExpression(expression.trim(), fields);
+        }
+
+        /**
+         * 严格晚于给定时间的下一次运行时间（精确到分钟）
+         */
+        public LocalDateTime next(LocalDateTime after) {
+            LocalDateTime time = after.truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+            // 最多向后查找5年（例如2月30日这样永远不会到达的表达式）
+            LocalDateTime limit = time.plusYears(5);
+            while (time.isBefore(limit)) {
+                if (!months.get(time.getMonthValue())) {
+                    time = time.withDayOfMonth(1).withHour(0).withMinute(0).plusMonths(1);
+                } else if (!matchesDay(time)) {
+                    time = time.withHour(0).withMinute(0).plusDays(1);
+                } else if (!hours.get(time.getHour())) {
+                    time = time.withMinute(0).plusHours(1);
+                } else if (!minutes.get(time.getMinute())) {
+                    time = time.plusMinutes(1);
+                } else {
+                    return time;
+                }
+            }
+            throw new IllegalStateException("cron表达式没有可运行的时间: " + expression);
+        }
+
+        private boolean matchesDay(LocalDateTime time) {
+            boolean dayOfMonth = daysOfMonth.get(time.getDayOfMonth());
+            DayOfWeek dayOfWeek = time.getDayOfWeek();
+            boolean dayOfWeekMatch = daysOfWeek.get(dayOfWeek.getValue() % 7);
+            if (anyDayOfMonth || anyDayOfWeek) {
+                return dayOfMonth && dayOfWeekMatch;
+            }
+            return dayOfMonth || dayOfWeekMatch;
+        }
+
+        private static BitSet parseField(String field, int min, int max) {
+            BitSet values = new BitSet(max + 1);
+            for (String part : field.split(",")) {
+                int step = 1;
+                int slash = part.indexOf('/');
+                if (slash >= 0) {
+                    step = parseNumber(part.substring(slash + 1), 1, Integer.MAX_VALUE, field);
+                    part = part.substring(0, slash);
+                }
+                int start;
+                int end;
+                if (part.equals("*")) {
+                    start = min;
+                    end = max;
+                } else if (part.contains("-")) {
+                    String[] range = part.split("-", 2);
+                    start = parseNumber(range[0], min, max, field);
+                    end = parseNumber(range[1], start, max, field);
+                } else {
+                    start = parseNumber(part, min, max, field);
+                    end = slash >= 0 ? max : start;
+                }
+                for (int value = start; value <= end; value += step) {
+                    values.set(value);
+                }
+            }
+            return values;
+        }
+
+        private static int parseNumber(String text, int min, int max, String field) {
+            try {
+                int value = Integer.parseInt(text);
+                if (value < min || value > max) {
+                    throw new IllegalArgumentException("cron字段超出范围: " + field);
+                }
+                return value;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("无效的cron字段: " + field, e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return expression;
+        }
+    }
+
+    // =============== 后台运行 ===============
+
+    // 任务配置文件格式
+    static class SchedulerConfig {
+        int maxConcurrentJobs = 2;
+        int maxJobsPerDisk = 1;
+        List<JobConfig> jobs = new ArrayList<>();
+    }
+
+    static class JobConfig {
+        String name;
+        List<String> sources = new ArrayList<>();
+        String target;
+        String cron;
+        int priority;
+        String windowStart;         // HH:mm
+        String windowEnd;           // HH:mm
+        WindowAction windowAction = WindowAction.PAUSE;
+        EnhancedBackupService.EnhancedBackupOptions options = new EnhancedBackupService.EnhancedBackupOptions();
+    }
+
+    /**
+     * 读取任务配置文件（JSON）创建调度器
+     */
+    public static BackupScheduler fromConfig(Path configFile) throws IOException {
+        String json = new String(Files.readAllBytes(configFile), StandardCharsets.UTF_8);
+        SchedulerConfig config = new Gson().fromJson(json, SchedulerConfig.class);
+        if (config == null || config.jobs == null) {
+            throw new IOException("无效的任务配置文件: " + configFile);
+        }
+        SchedulerOptions options = new SchedulerOptions();
+        options.setMaxConcurrentJobs(config.maxConcurrentJobs);
+        options.setMaxJobsPerDisk(config.maxJobsPerDisk);
+        BackupScheduler scheduler = new BackupScheduler(options);
+        for (JobConfig jobConfig : config.jobs) {
+            if (jobConfig.name == null || jobConfig.target == null || jobConfig.sources.isEmpty()) {
+                throw new IOException("任务配置缺少名称、源路径或目标目录");
+            }
+            JobDefinition definition = new JobDefinition(jobConfig.name, jobConfig.sources, jobConfig.target,
+                jobConfig.options != null ? jobConfig.options : new EnhancedBackupService.EnhancedBackupOptions());
+            if (jobConfig.cron != null) {
+                definition.setSchedule(CronExpression.parse(jobConfig.cron));
+            }
+            definition.setPriority(jobConfig.priority);
+            if (jobConfig.windowStart != null && jobConfig.windowEnd != null) {
+                definition.setWindow(new TimeWindow(LocalTime.parse(jobConfig.windowStart),
+                    LocalTime.parse(jobConfig.windowEnd), jobConfig.windowAction));
+            }
+            scheduler.addJob(definition);
+        }
+        return scheduler;
+    }
+
+    /**
+     * 后台运行调度器，直到进程结束
+     * 用法: BackupScheduler <任务配置文件>
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("用法: BackupScheduler <任务配置文件>");
+            return;
+        }
+        BackupScheduler scheduler = fromConfig(Paths.get(args[0]));
+        scheduler.setListener(info -> System.out.println("任务 " + info.getName() + ": " + info.getStatus()
+            + (info.getNextRun() != null ? "，下次运行 " + info.getNextRun() : "")));
+        Runtime.getRuntime().addShutdownHook(new Thread(scheduler::shutdown));
+        scheduler.start();
+        Thread.currentThread().join();
+    }
+}
@@ -4,10 +4,15 @@ import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.*;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 
 public class BackupService {
     
@@ -24,9 +29,31 @@ public class BackupService {
     }
     
     // 备份选项类
-    public static class BackupOptions {
+    public static class BackupOptions implements Cloneable {
         private boolean includeSpecialFiles = true;
         private boolean preserveMetadata = true;
+        private boolean storeLeafHashes = false;   // 打包时是否在Manifest中保存Merkle叶子哈希
+        private BackupPackage.IntegrityLevel integrityLevel = BackupPackage.IntegrityLevel.STRONG; // 完整性级别
+        private int parityDataShards = 16;         // 纠删码每个条带的数据分片数
+        private int parityShards = 0;              // 纠删码每个条带的校验分片数（0表示不生成校验区）
+        private boolean blockSync = true;          // 目录模式更新已有的大文件时只写入变化的块
+        private boolean blockSyncInPlace = true;   // 块同步时允许原地写入（否则写临时文件后重命名）
+        private boolean snapshotMode = false;      // 目录备份时每次生成新的快照，未变化的文件硬链接到上一个快照
+        private int snapshotRetention = 0;         // 保留的快照数量（0表示全部保留）
+        private BackupPackage.CompressionMethod fileCompression = BackupPackage.CompressionMethod.NONE; // 目录模式逐文件压缩
+        private BackupPackage.EncryptionMethod fileEncryption = BackupPackage.EncryptionMethod.NONE;    // 目录模式逐文件加密
+        private String filePassword;               // 目录模式加密/解密密码
+        private int parallelism = Runtime.getRuntime().availableProcessors(); // 并行扫描、复制和编码的线程数（1表示单线程）
+        private boolean ioMode = false;            // 高并发I/O模式（网络文件系统）：扫描和读取使用虚拟线程
+        private int ioConcurrency = 256;           // 高并发I/O模式下每个挂载点同时进行的I/O操作数
+        private boolean fileIndex = false;         // 使用本地文件索引跳过属性未变化的文件的读取和比较
+        private String indexDirectory = FileIndex.DEFAULT_DIRECTORY; // 文件索引的保存目录
+        private transient JobControl jobControl;    // 计划任务的暂停/停止控制（为null时不检查）
+        private final transient IoThrottle throttle = new IoThrottle(); // 读写限速，运行中可随时调整
+        private boolean adaptiveConcurrency = false; // 按主机负载自动调整复制和打包的并发数（见ConcurrencyController）
+        private long latencyBudgetMillis = 200;    // 自适应并发：I/O延迟p95的预算（按每1MB折算，0表示不检查）
+        private double maxLoadPerCpu = 1.0;        // 自适应并发：每个CPU的负载平均值上限（0表示不检查）
+        private double maxCpuStealPercent = 10.0;  // 自适应并发：CPU窃取时间的百分比上限（0表示不检查）
         
         public BackupOptions() {}
         
@@ -40,10 +67,105 @@ public class BackupService {
         
         public boolean isPreserveMetadata() { return preserveMetadata; }
         public void setPreserveMetadata(boolean preserveMetadata) { this.preserveMetadata = preserveMetadata; }
+        
+        public boolean isStoreLeafHashes() { return storeLeafHashes; }
+        public void setStoreLeafHashes(boolean storeLeafHashes) { this.storeLeafHashes = storeLeafHashes; }
+        
+        public BackupPackage.IntegrityLevel getIntegrityLevel() { return integrityLevel; }
+        public void setIntegrityLevel(BackupPackage.IntegrityLevel integrityLevel) { this.integrityLevel = integrityLevel; }
+        
+        public int getParityDataShards() { return parityDataShards; }
+        public void setParityDataShards(int parityDataShards) { this.parityDataShards = parityDataShards; }
+        
+        public int getParityShards() { return parityShards; }
+        public void setParityShards(int parityShards) { this.parityShards = parityShards; }
+        
+        public boolean isBlockSync() { return blockSync; }
+        public void setBlockSync(boolean blockSync) { this.blockSync = blockSync; }
+        
+        public boolean isBlockSyncInPlace() { return blockSyncInPlace; }
+        public void setBlockSyncInPlace(boolean blockSyncInPlace) { this.blockSyncInPlace = blockSyncInPlace; }
+        
+        public boolean isSnapshotMode() { return snapshotMode; }
+        public void setSnapshotMode(boolean snapshotMode) { this.snapshotMode = snapshotMode; }
+        
+        public int getSnapshotRetention() { return snapshotRetention; }
+        public void setSnapshotRetention(int snapshotRetention) { this.snapshotRetention = snapshotRetention; }
+        
+        public BackupPackage.CompressionMethod getFileCompression() { return fileCompression; }
+        public void setFileCompression(BackupPackage.CompressionMethod fileCompression) { this.fileCompression = fileCompression; }
+        
+        public BackupPackage.EncryptionMethod getFileEncryption() { return fileEncryption; }
+        public void setFileEncryption(BackupPackage.EncryptionMethod fileEncryption) { this.fileEncryption = fileEncryption; }
+        
+        public String getFilePassword() { return filePassword; }
+        public void setFilePassword(String filePassword) { this.filePassword = filePassword; }
+        
+        public int getParallelism() { return parallelism; }
+        public void setParallelism(int parallelism) { this.parallelism = parallelism; }
+        
+        public boolean isIoMode() { return ioMode; }
+        public void setIoMode(boolean ioMode) { this.ioMode = ioMode; }
+        
+        public int getIoConcurrency() { return ioConcurrency; }
+        public void setIoConcurrency(int ioConcurrency) { this.ioConcurrency = ioConcurrency; }
+        
+        public boolean isFileIndex() { return fileIndex; }
+        public void setFileIndex(boolean fileIndex) { this.fileIndex = fileIndex; }
+        
+        public String getIndexDirectory() { return indexDirectory; }
+        public void setIndexDirectory(String indexDirectory) { this.indexDirectory = indexDirectory; }
+        
+        public JobControl getJobControl() { return jobControl; }
+        public void setJobControl(JobControl jobControl) { this.jobControl = jobControl; }
+        
+        // 读写限速（每秒字节数和每秒操作数，0表示不限制），修改立即作用于正在运行的备份
+        public IoThrottle getThrottle() { return throttle; }
+        
+        public long getReadBytesPerSecond() { return throttle.getReadBytesPerSecond(); }
+        public void setReadBytesPerSecond(long readBytesPerSecond) { throttle.setReadBytesPerSecond(readBytesPerSecond); }
+        
+        public long getReadOpsPerSecond() { return throttle.getReadOpsPerSecond(); }
+        public void setReadOpsPerSecond(long readOpsPerSecond) { throttle.setReadOpsPerSecond(readOpsPerSecond); }
+        
+        public long getWriteBytesPerSecond() { return throttle.getWriteBytesPerSecond(); }
+        public void setWriteBytesPerSecond(long writeBytesPerSecond) { throttle.setWriteBytesPerSecond(writeBytesPerSecond); }
+        
+        public long getWriteOpsPerSecond() { return throttle.getWriteOpsPerSecond(); }
+        public void setWriteOpsPerSecond(long writeOpsPerSecond) { throttle.setWriteOpsPerSecond(writeOpsPerSecond); }
+        
+        public boolean isAdaptiveConcurrency() { return adaptiveConcurrency; }
+        public void setAdaptiveConcurrency(boolean adaptiveConcurrency) { this.adaptiveConcurrency = adaptiveConcurrency; }
+        
+        public long getLatencyBudgetMillis() { return latencyBudgetMillis; }
+        public void setLatencyBudgetMillis(long latencyBudgetMillis) { this.latencyBudgetMillis = latencyBudgetMillis; }
+        
+        public double getMaxLoadPerCpu() { return maxLoadPerCpu; }
+        public void setMaxLoadPerCpu(double maxLoadPerCpu) { this.maxLoadPerCpu = maxLoadPerCpu; }
+        
+        public double getMaxCpuStealPercent() { return maxCpuStealPercent; }
+        public void setMaxCpuStealPercent(double maxCpuStealPercent) { this.maxCpuStealPercent = maxCpuStealPercent; }
+        
+        // 目录模式是否逐文件压缩或加密
+        public boolean isFileEncoding() { return FileCodec.isEnabled(fileCompression, fileEncryption); }
+        
+        /**
+         * 浅复制：读写限速和任务控制与原选项共享，其他设置各自独立
+         */
+        public BackupOptions copy() {
+            try {
+                return (BackupOptions) super.clone();
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
     }
     
     private static final String HISTORY_FILE = "backup_history.txt";
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter SNAPSHOT_NAME_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
+    private static final String SNAPSHOT_DIR_SUFFIX = ".snapshots";
+    private static final String PARTIAL_SUFFIX = ".partial";
     
     public static class BackupResult {
         private final int filesCopied;
@@ -98,52 +220,14 @@ public class BackupService {
         public BasicFileAttributes getAttrs() { return attrs; }
     }
     
-    // 检测文件类型
+    // 检测文件类型（一次不跟随链接的属性读取）
     private FileKind detectFileKind(Path path) throws IOException {
         try {
-            // 首先检查是否为符号链接（不跟随链接）
-            if (Files.isSymbolicLink(path)) {
-                return FileKind.SYMLINK;
-            }
-            
-            // 如果不是符号链接，再获取其他属性
-            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
-            
-            if (attrs.isRegularFile()) {
-                return FileKind.REGULAR;
-            } else if (attrs.isDirectory()) {
-                return FileKind.DIRECTORY;
-            } else if (attrs.isOther()) {
-                // 需要进一步检测具体类型
-                try {
-                    PosixFileAttributes posixAttrs = Files.readAttributes(path, PosixFileAttributes.class);
-                    if (posixAttrs.isSymbolicLink()) {
-                        return FileKind.SYMLINK;
-                    }
-                } catch (Exception e) {
-                    // 非POSIX系统，尝试其他方法
-                }
-                
-                // 在Unix系统上检查设备文件
-                if (System.getProperty("os.name").toLowerCase().contains("nix") ||
-                    System.getProperty("os.name").toLowerCase().contains("nux") ||
-                    System.getProperty("os.name").toLowerCase().contains("mac")) {
-                    try {
-                        FileStore store = Files.getFileStore(path);
-                        // 这里简化处理，实际需要更复杂的检测
-                        return FileKind.UNKNOWN;
-                    } catch (Exception e) {
-                        // 忽略
-                    }
-                }
-                
-                return FileKind.UNKNOWN;
-            }
+            return FileScanner.stat(path).getKind();
         } catch (Exception e) {
             // 读取属性失败
+            return FileKind.UNKNOWN;
         }
-        
-        return FileKind.UNKNOWN;
     }
     
     // 获取特殊文件信息
@@ -196,6 +280,9 @@ public class BackupService {
         }
         
         if (Files.isDirectory(sourcePath)) {
+            if (options.isSnapshotMode()) {
+                return backupSnapshot(sourcePath, targetPath, options);
+            }
             return backupDirectoryWithRoot(sourcePath, targetPath, options);
         } else {
             return backupFile(sourcePath, targetPath, options);
@@ -236,139 +323,365 @@ public class BackupService {
         return backupDirectoryWithRoot(sourcePath, targetPath, new BackupOptions());
     }
     
+    /**
+     * 只备份目录中发生变化的路径（目录模式，持续备份使用）
+     * 每个变化的路径按普通目录备份的规则处理：目录复制其整个子树，文件单独复制；已不存在的路径跳过
+     * （目录模式不删除目标中的文件）。包含根目录（空路径）时执行完整备份。
+     * @param relativePaths 相对源目录的路径
+     */
+    public BackupResult backupChanges(String sourcePathStr, String targetDir, Collection<String> relativePaths,
+                                      BackupOptions options) throws IOException {
+        Path sourcePath = Paths.get(sourcePathStr).normalize();
+        Path targetPath = Paths.get(targetDir);
+        
+        if (!Files.isDirectory(sourcePath)) {
+            return new BackupResult(0, 0, 0, "源路径不存在");
+        }
+        if (options.isSnapshotMode()) {
+            return new BackupResult(0, 0, 0, "快照模式不支持只备份变化的路径");
+        }
+        
+        // 去掉已包含在其他变化目录中的路径，按路径顺序遍历
+        List<Path> roots = new ArrayList<>();
+        for (String relativePath : new TreeSet<>(relativePaths)) {
+            Path path = sourcePath.resolve(relativePath).normalize();
+            if (path.equals(sourcePath)) {
+                return backupDirectoryWithRoot(sourcePath, targetPath, options);
+            }
+            if (path.startsWith(sourcePath) && roots.stream().noneMatch(path::startsWith)
+                && Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+                roots.add(path);
+            }
+        }
+        if (roots.isEmpty()) {
+            return new BackupResult(0, 0, 0, "备份完成");
+        }
+        return backupDirectoryWithRoot(sourcePath, targetPath, options, roots);
+    }
+    
     private BackupResult backupDirectoryWithRoot(Path sourcePath, Path targetPath, BackupOptions options) throws IOException {
+        return backupDirectoryWithRoot(sourcePath, targetPath, options, Collections.singletonList(sourcePath));
+    }
+    
+    /**
+     * 目录模式备份
+     * @param walkRoots 需要遍历的路径（源目录本身，或其中发生变化的子路径）
+     */
+    private BackupResult backupDirectoryWithRoot(Path sourcePath, Path targetPath, BackupOptions options,
+                                                 List<Path> walkRoots) throws IOException {
         final Path sourceParent = sourcePath.getParent() != null ? sourcePath.getParent() : Paths.get(".");
         
-        AtomicLong filesCopied = new AtomicLong(0);
-        AtomicLong directoriesCreated = new AtomicLong(0);
-        AtomicLong totalSize = new AtomicLong(0);
-        AtomicLong specialFilesProcessed = new AtomicLong(0);
+        LongAdder filesCopied = new LongAdder();
+        LongAdder directoriesCreated = new LongAdder();
+        LongAdder totalSize = new LongAdder();
+        LongAdder specialFilesProcessed = new LongAdder();
         
-        Files.walkFileTree(sourcePath, new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                Path relativePath = sourceParent.relativize(dir);
-                Path targetDirectory = targetPath.resolve(relativePath);
+        // 逐文件加密时，数据密钥保存在备份根目录的密钥文件中
+        byte[] dataKey;
+        try {
+            dataKey = resolveFileDataKey(targetPath.resolve(sourcePath.getFileName()), options);
+        } catch (IOException e) {
+            return new BackupResult(0, 0, 0, e.getMessage());
+        }
+        
+        // 文件索引：源文件属性与上次备份完全相同时不再比较目标文件
+        FileIndex index = options.isFileIndex()
+            ? FileIndex.load(FileIndex.locate(options.getIndexDirectory(), "directory:"
+                + sourcePath.toAbsolutePath().normalize() + " -> " + targetPath.toAbsolutePath().normalize()))
+            : null;
+        
+        boolean fullWalk = walkRoots.size() == 1 && walkRoots.get(0).equals(sourcePath);
+        try (ParallelCopyEngine engine = new ParallelCopyEngine(sourcePath, options)) {
+            FileVisitor<Path> visitor = new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    Path relativePath = sourceParent.relativize(dir);
+                    Path targetDirectory = targetPath.resolve(relativePath);
                 
-                boolean created = false;
-                if (!Files.exists(targetDirectory)) {
-                    Files.createDirectories(targetDirectory);
-                    directoriesCreated.incrementAndGet();
-                    created = true;
-                }
+                    boolean created = false;
+                    if (!Files.exists(targetDirectory)) {
+                        Files.createDirectories(targetDirectory);
+                        directoriesCreated.increment();
+                        created = true;
+                    }
                 
-                // 如果启用了元数据保留，设置目录属性
-                if (options.isPreserveMetadata()) {
-                    try {
-                        // 设置目录时间戳
-                        Files.setLastModifiedTime(targetDirectory, attrs.lastModifiedTime());
-                        
-                        // 尝试设置创建时间（如果系统支持）
+                    // 如果启用了元数据保留，设置目录属性
+                    if (options.isPreserveMetadata()) {
                         try {
-                            Files.setAttribute(targetDirectory, "creationTime", attrs.creationTime());
+                            // 设置目录时间戳
+                            Files.setLastModifiedTime(targetDirectory, attrs.lastModifiedTime());
+                        
+                            // 尝试设置创建时间（如果系统支持）
+                            try {
+                                Files.setAttribute(targetDirectory, "creationTime", attrs.creationTime());
+                            } catch (Exception e) {
+                                // 有些系统不支持设置创建时间
+                            }
+                        
+                            // 尝试设置访问时间
+                            try {
+                                Files.setAttribute(targetDirectory, "lastAccessTime", attrs.lastAccessTime());
+                            } catch (Exception e) {
+                                // 有些系统不支持设置访问时间
+                            }
+                        
+                            // 如果是新创建的目录，尝试复制POSIX权限
+                            if (created) {
+                                try {
+                                    PosixFileAttributes posixAttrs = Files.readAttributes(dir, PosixFileAttributes.class);
+                                    Files.setPosixFilePermissions(targetDirectory, posixAttrs.permissions());
+                                } catch (Exception e) {
+                                    // 非POSIX系统或权限不足，忽略
+                                }
+                            }
                         } catch (Exception e) {
-                            // 有些系统不支持设置创建时间
+                            // 设置属性失败，记录日志但不中断备份
+                            System.err.println("设置目录属性失败: " + dir + " - " + e.getMessage());
                         }
-                        
-                        // 尝试设置访问时间
+                    }
+                
+                    // 目录下的文件全部复制完成后再修正目录的修改时间
+                    engine.enterDirectory(options.isPreserveMetadata() ? () -> fixDirectoryTime(dir, targetDirectory, attrs.lastModifiedTime()) : null);
+                    return FileVisitResult.CONTINUE;
+                }
+            
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    engine.submit(() -> copyEntry(file, attrs), attrs.size());
+                    return FileVisitResult.CONTINUE;
+                }
+            
+                // 复制单个文件，在复制线程上执行
+                private void copyEntry(Path file, BasicFileAttributes attrs) throws IOException {
+                    Path relativePath = sourceParent.relativize(file);
+                    Path targetFile = targetPath.resolve(relativePath);
+                
+                    // 检测文件类型
+                    FileKind kind = FileScanner.kindOf(file, attrs);
+                
+                    // 检查是否为特殊文件
+                    boolean isSpecialFile = kind == FileKind.SYMLINK || kind == FileKind.FIFO || 
+                                           kind == FileKind.BLOCK || kind == FileKind.CHARACTER || 
+                                           kind == FileKind.SOCKET;
+                
+                    // 如果不包含特殊文件且当前文件是特殊文件，则跳过
+                    if (!options.isIncludeSpecialFiles() && isSpecialFile) {
+                        return;
+                    }
+                
+                    // 处理特殊文件
+                    if (isSpecialFile) {
                         try {
-                            Files.setAttribute(targetDirectory, "lastAccessTime", attrs.lastAccessTime());
+                            SpecialFileRecord record = getSpecialFileInfo(file, kind);
+                            // 创建特殊文件元数据记录文件
+                            createSpecialFileRecord(targetFile, record);
+                            specialFilesProcessed.increment();
                         } catch (Exception e) {
-                            // 有些系统不支持设置访问时间
+                            // 特殊文件处理失败，记录日志
+                            System.err.println("处理特殊文件失败: " + file + " - " + e.getMessage());
                         }
-                        
-                        // 如果是新创建的目录，尝试复制POSIX权限
-                        if (created) {
-                            try {
-                                PosixFileAttributes posixAttrs = Files.readAttributes(dir, PosixFileAttributes.class);
-                                Files.setPosixFilePermissions(targetDirectory, posixAttrs.permissions());
-                            } catch (Exception e) {
-                                // 非POSIX系统或权限不足，忽略
+                        return;
+                    }
+                
+                    // 文件索引中属性未变化且目标仍然存在：跳过修改时间的比较
+                    String indexKey = relativePath.toString();
+                    Path storedFile = options.isFileEncoding() ? FileCodec.encodedPath(targetFile) : targetFile;
+                    if (kind == FileKind.REGULAR && index != null
+                        && index.lookup(indexKey, attrs) != null && Files.exists(storedFile)) {
+                        return;
+                    }
+                
+                    // 逐文件压缩/加密
+                    if (kind == FileKind.REGULAR && options.isFileEncoding()) {
+                        Path encodedFile = storedFile;
+                        if (!Files.exists(encodedFile)
+                            || attrs.lastModifiedTime().compareTo(Files.getLastModifiedTime(encodedFile)) > 0) {
+                            FileCodec.encode(file, encodedFile, options.getFileCompression(), options.getFileEncryption(), dataKey,
+                                             options.getThrottle());
+                            copyFileAttributes(file, encodedFile, attrs);
+                            filesCopied.increment();
+                            totalSize.add(attrs.size());
+                        }
+                        if (index != null) {
+                            index.put(indexKey, attrs, null, 0, null);
+                        }
+                        return;
+                    }
+                
+                    // 处理普通文件（仅限REGULAR类型）
+                    if (kind == FileKind.REGULAR) {
+                        if (Files.exists(targetFile)) {
+                            if (attrs.lastModifiedTime().compareTo(Files.getLastModifiedTime(targetFile)) > 0) {
+                                updateExistingFile(file, targetFile, attrs, options);
+                                filesCopied.increment();
+                                totalSize.add(attrs.size());
                             }
+                        } else {
+                            options.getThrottle().copy(file, targetFile, StandardCopyOption.COPY_ATTRIBUTES);
+                            filesCopied.increment();
+                            totalSize.add(attrs.size());
                         }
+                        if (index != null) {
+                            index.put(indexKey, attrs, null, 0, null);
+                        }
+                    }
+                }
+            
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                    // 文件访问失败，记录日志并继续
+                    System.err.println("访问文件失败: " + file + " - " + exc.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+            
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                    engine.exitDirectory();
+                    return FileVisitResult.CONTINUE;
+                }
+            };
+            for (Path root : walkRoots) {
+                if (!fullWalk) {
+                    // 只遍历子路径时先创建目标中缺少的上级目录
+                    Files.createDirectories(targetPath.resolve(sourceParent.relativize(root.getParent())));
+                }
+                FileScanner.walkFileTree(root, options, visitor);
+            }
+            engine.await();
+        }
+        
+        // 全部复制成功后才保存索引（只遍历了部分路径时保留其他路径的条目）
+        if (index != null) {
+            index.saveQuietly(fullWalk);
+        }
+        
+        String message = "备份完成";
+        if (specialFilesProcessed.sum() > 0) {
+            message += " (处理了 " + specialFilesProcessed.sum() + " 个特殊文件)";
+        }
+        
+        return new BackupResult(
+            filesCopied.intValue(),
+            directoriesCreated.intValue(),
+            totalSize.longValue(),
+            message
+        );
+    }
+    
+    /**
+     * 快照模式备份（rsnapshot风格）
+     * 每次在 目标目录/<源目录名>.snapshots/<时间戳>/ 下生成一棵完整的目录树，
+     * 与上一个快照相比大小和修改时间都相同的文件硬链接到上一个快照，只复制变化的文件。
+     * 快照先写入 .partial 目录，完成后再重命名，中断的快照不会被当作上一个快照。
+     * 逐文件压缩/加密时所有快照共用快照根目录下的数据密钥，并在每个快照中放一份密钥文件以便单独还原。
+     */
+    private BackupResult backupSnapshot(Path sourcePath, Path targetPath, BackupOptions options) throws IOException {
+        final Path sourceParent = sourcePath.getParent() != null ? sourcePath.getParent() : Paths.get(".");
+        Path snapshotRoot = targetPath.resolve(sourcePath.getFileName() + SNAPSHOT_DIR_SUFFIX);
+        Files.createDirectories(snapshotRoot);
+        
+        Path previous = latestSnapshot(snapshotRoot);
+        String name = LocalDateTime.now().format(SNAPSHOT_NAME_FORMATTER);
+        Path snapshot = snapshotRoot.resolve(name);
+        for (int i = 1; Files.exists(snapshot); i++) {
+            snapshot = snapshotRoot.resolve(name + "_" + i);
+        }
+        Path partial = snapshotRoot.resolve(snapshot.getFileName() + PARTIAL_SUFFIX);
+        deleteTree(partial);
+        
+        AtomicLong filesCopied = new AtomicLong(0);
+        AtomicLong filesLinked = new AtomicLong(0);
+        AtomicLong directoriesCreated = new AtomicLong(0);
+        AtomicLong totalSize = new AtomicLong(0);
+        
+        byte[] dataKey;
+        try {
+            dataKey = resolveFileDataKey(snapshotRoot, options);
+        } catch (IOException e) {
+            return new BackupResult(0, 0, 0, e.getMessage());
+        }
+        boolean encoding = options.isFileEncoding();
+        
+        FileScanner.walkFileTree(sourcePath, options, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Path targetDirectory = partial.resolve(sourceParent.relativize(dir));
+                Files.createDirectories(targetDirectory);
+                directoriesCreated.incrementAndGet();
+                if (options.isPreserveMetadata()) {
+                    try {
+                        Files.setPosixFilePermissions(targetDirectory, Files.getPosixFilePermissions(dir));
                     } catch (Exception e) {
-                        // 设置属性失败，记录日志但不中断备份
-                        System.err.println("设置目录属性失败: " + dir + " - " + e.getMessage());
+                        // 非POSIX系统或权限不足，忽略
                     }
                 }
-                
                 return FileVisitResult.CONTINUE;
             }
             
             @Override
             public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                JobControl.checkpoint(options);
                 Path relativePath = sourceParent.relativize(file);
-                Path targetFile = targetPath.resolve(relativePath);
+                Path targetFile = partial.resolve(relativePath);
+                FileKind kind = FileScanner.kindOf(file, attrs);
                 
-                // 检测文件类型
-                FileKind kind = detectFileKind(file);
-                
-                // 检查是否为特殊文件
-                boolean isSpecialFile = kind == FileKind.SYMLINK || kind == FileKind.FIFO || 
-                                       kind == FileKind.BLOCK || kind == FileKind.CHARACTER || 
-                                       kind == FileKind.SOCKET;
-                
-                // 如果不包含特殊文件且当前文件是特殊文件，则跳过
-                if (!options.isIncludeSpecialFiles() && isSpecialFile) {
+                if (kind != FileKind.REGULAR && kind != FileKind.DIRECTORY && kind != FileKind.UNKNOWN) {
+                    if (options.isIncludeSpecialFiles()) {
+                        try {
+                            createSpecialFileRecord(targetFile, getSpecialFileInfo(file, kind));
+                        } catch (Exception e) {
+                            System.err.println("处理特殊文件失败: " + file + " - " + e.getMessage());
+                        }
+                    }
                     return FileVisitResult.CONTINUE;
                 }
-                
-                // 处理特殊文件
-                if (isSpecialFile) {
-                    try {
-                        SpecialFileRecord record = getSpecialFileInfo(file, kind);
-                        // 创建特殊文件元数据记录文件
-                        createSpecialFileRecord(targetFile, record);
-                        specialFilesProcessed.incrementAndGet();
-                    } catch (Exception e) {
-                        // 特殊文件处理失败，记录日志
-                        System.err.println("处理特殊文件失败: " + file + " - " + e.getMessage());
-                    }
+                if (kind != FileKind.REGULAR) {
                     return FileVisitResult.CONTINUE;
                 }
+                if (encoding) {
+                    targetFile = FileCodec.encodedPath(targetFile);
+                    relativePath = FileCodec.encodedPath(relativePath);
+                }
                 
-                // 处理普通文件（仅限REGULAR类型）
-                if (kind == FileKind.REGULAR) {
-                    if (Files.exists(targetFile)) {
-                        if (Files.getLastModifiedTime(file).compareTo(Files.getLastModifiedTime(targetFile)) > 0) {
-                            Files.copy(file, targetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
-                            filesCopied.incrementAndGet();
-                            totalSize.addAndGet(attrs.size());
+                // 未变化的文件硬链接到上一个快照
+                if (previous != null) {
+                    Path previousFile = previous.resolve(relativePath);
+                    if (isSameSnapshotFile(previousFile, attrs, encoding)) {
+                        try {
+                            Files.createLink(targetFile, previousFile);
+                            filesLinked.incrementAndGet();
+                            return FileVisitResult.CONTINUE;
+                        } catch (IOException | UnsupportedOperationException e) {
+                            // 跨文件系统、链接数超限或不支持硬链接，改为复制
                         }
-                    } else {
-                        Files.copy(file, targetFile, StandardCopyOption.COPY_ATTRIBUTES);
-                        filesCopied.incrementAndGet();
-                        totalSize.addAndGet(attrs.size());
                     }
                 }
                 
+                if (encoding) {
+                    FileCodec.encode(file, targetFile, options.getFileCompression(), options.getFileEncryption(), dataKey,
+                                     options.getThrottle());
+                    copyFileAttributes(file, targetFile, attrs);
+                } else {
+                    options.getThrottle().copy(file, targetFile, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+                filesCopied.incrementAndGet();
+                totalSize.addAndGet(attrs.size());
                 return FileVisitResult.CONTINUE;
             }
             
             @Override
             public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
-                // 文件访问失败，记录日志并继续
                 System.err.println("访问文件失败: " + file + " - " + exc.getMessage());
                 return FileVisitResult.CONTINUE;
             }
             
             @Override
             public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-                // 目录遍历完成后，确保目录的修改时间正确
-                // 因为目录内容可能已更新，需要更新目录的修改时间
                 if (options.isPreserveMetadata()) {
                     try {
-                        Path relativePath = sourceParent.relativize(dir);
-                        Path targetDirectory = targetPath.resolve(relativePath);
-                        
-                        // 获取原始目录的修改时间
-                        BasicFileAttributes sourceAttrs = Files.readAttributes(dir, BasicFileAttributes.class);
-                        
-                        // 设置目标目录的修改时间为原始目录的修改时间
-                        // 注意：这里使用原始目录的修改时间，而不是当前时间
-                        Files.setLastModifiedTime(targetDirectory, sourceAttrs.lastModifiedTime());
+                        Files.setLastModifiedTime(partial.resolve(sourceParent.relativize(dir)),
+                                                  Files.getLastModifiedTime(dir));
                     } catch (Exception e) {
-                        // 设置失败不影响主要功能
                         System.err.println("更新目录修改时间失败: " + dir + " - " + e.getMessage());
                     }
                 }
@@ -376,19 +689,162 @@ public class BackupService {
             }
         });
         
-        String message = "备份完成";
-        if (specialFilesProcessed.get() > 0) {
-            message += " (处理了 " + specialFilesProcessed.get() + " 个特殊文件)";
+        if (dataKey != null) {
+            Path keyFile = snapshotRoot.resolve(FileCodec.KEY_FILE_NAME);
+            Path snapshotKeyFile = partial.resolve(sourcePath.getFileName()).resolve(FileCodec.KEY_FILE_NAME);
+            try {
+                Files.createLink(snapshotKeyFile, keyFile);
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(keyFile, snapshotKeyFile);
+            }
         }
         
+        Files.move(partial, snapshot, StandardCopyOption.ATOMIC_MOVE);
+        pruneSnapshots(snapshotRoot, options.getSnapshotRetention());
+        
+        System.out.println("快照已创建: " + snapshot + " (复制 " + filesCopied.get() + " 个文件，硬链接 "
+                           + filesLinked.get() + " 个文件)");
         return new BackupResult(
             filesCopied.intValue(),
             directoriesCreated.intValue(),
             totalSize.longValue(),
-            message
+            "备份完成"
         );
     }
     
+    /**
+     * 列出源目录的全部快照（从旧到新）
+     * @return 各快照中源目录的路径，可直接用于还原
+     */
+    public List<String> listSnapshots(String sourcePathStr, String targetDir) throws IOException {
+        Path sourceName = Paths.get(sourcePathStr).getFileName();
+        Path snapshotRoot = Paths.get(targetDir).resolve(sourceName + SNAPSHOT_DIR_SUFFIX);
+        List<String> snapshots = new ArrayList<>();
+        for (Path snapshot : completedSnapshots(snapshotRoot)) {
+            snapshots.add(snapshot.resolve(sourceName).toString());
+        }
+        return snapshots;
+    }
+    
+    // 已完成的快照，按名称（即时间）从旧到新排序
+    private List<Path> completedSnapshots(Path snapshotRoot) throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        if (!Files.isDirectory(snapshotRoot)) {
+            return snapshots;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(snapshotRoot)) {
+            for (Path entry : stream) {
+                if (Files.isDirectory(entry) && !entry.getFileName().toString().endsWith(PARTIAL_SUFFIX)) {
+                    snapshots.add(entry);
+                }
+            }
+        }
+        snapshots.sort(null);
+        return snapshots;
+    }
+    
+    private Path latestSnapshot(Path snapshotRoot) throws IOException {
+        List<Path> snapshots = completedSnapshots(snapshotRoot);
+        return snapshots.isEmpty() ? null : snapshots.get(snapshots.size() - 1);
+    }
+    
+    // 上一个快照中的文件是否与源文件相同（大小和修改时间，复制时时间精度可能被截断，按毫秒比较）
+    // 编码文件比较文件头中记录的原始大小
+    private boolean isSameSnapshotFile(Path previousFile, BasicFileAttributes attrs, boolean encoded) {
+        try {
+            BasicFileAttributes previousAttrs = Files.readAttributes(previousFile, BasicFileAttributes.class,
+                                                                     LinkOption.NOFOLLOW_LINKS);
+            if (!previousAttrs.isRegularFile()
+                || previousAttrs.lastModifiedTime().toMillis() != attrs.lastModifiedTime().toMillis()) {
+                return false;
+            }
+            long previousSize = encoded ? FileCodec.readHeader(previousFile).getOriginalSize() : previousAttrs.size();
+            return previousSize == attrs.size();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    // 删除超出保留数量的旧快照（硬链接的文件在其他快照中仍然保留）
+    private void pruneSnapshots(Path snapshotRoot, int retention) throws IOException {
+        if (retention <= 0) {
+            return;
+        }
+        List<Path> snapshots = completedSnapshots(snapshotRoot);
+        for (int i = 0; i < snapshots.size() - retention; i++) {
+            deleteTree(snapshots.get(i));
+        }
+    }
+    
+    private static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        try (java.util.stream.Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths.sorted(java.util.Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+    
+    /**
+     * 更新目标中已存在的旧副本
+     * 大文件使用块级增量同步，只写入变化的块；其他文件或同步失败时整体复制
+     */
+    private void updateExistingFile(Path sourceFile, Path targetFile, BasicFileAttributes attrs,
+                                    BackupOptions options) throws IOException {
+        if (options.isBlockSync() && attrs.size() >= BlockSync.MIN_SYNC_SIZE
+            && Files.size(targetFile) >= BlockSync.MIN_SYNC_SIZE) {
+            try {
+                // 块同步读取两个文件，只写入变化的块：读写按实际的量分块计入限速
+                BlockSync.sync(sourceFile, targetFile, options.isBlockSyncInPlace(), options.getThrottle());
+                copyFileAttributes(sourceFile, targetFile, attrs);
+                return;
+            } catch (IOException e) {
+                System.err.println("块同步失败，改为整体复制: " + sourceFile + " - " + e.getMessage());
+            }
+        }
+        options.getThrottle().copy(sourceFile, targetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+    }
+    
+    // 目录内容更新会改变目标目录的修改时间，所有子项完成后再设置为原始目录的修改时间
+    private void fixDirectoryTime(Path dir, Path targetDirectory, FileTime lastModifiedTime) {
+        try {
+            Files.setLastModifiedTime(targetDirectory, lastModifiedTime);
+        } catch (Exception e) {
+            // 设置失败不影响主要功能
+            System.err.println("更新目录修改时间失败: " + dir + " - " + e.getMessage());
+        }
+    }
+    
+    // 与COPY_ATTRIBUTES一致：复制修改时间和权限
+    // 扫描记录中已有权限时不再读取源文件
+    private void copyFileAttributes(Path sourceFile, Path targetFile, BasicFileAttributes attrs) throws IOException {
+        Files.setLastModifiedTime(targetFile, attrs.lastModifiedTime());
+        try {
+            Set<PosixFilePermission> permissions = attrs instanceof FileScanner.ScanRecord
+                ? ((FileScanner.ScanRecord) attrs).getPermissions() : null;
+            Files.setPosixFilePermissions(targetFile, permissions != null ? permissions : Files.getPosixFilePermissions(sourceFile));
+        } catch (Exception e) {
+            // 非POSIX系统，忽略权限设置
+        }
+    }
+    
+    /**
+     * 逐文件加密时解锁（不存在时创建）备份根目录的数据密钥
+     * @return 数据密钥，不加密时为null
+     * @throws IOException 未提供密码或密码错误
+     */
+    private byte[] resolveFileDataKey(Path backupRoot, BackupOptions options) throws IOException {
+        if (options.getFileEncryption() == null || options.getFileEncryption() == BackupPackage.EncryptionMethod.NONE) {
+            return null;
+        }
+        if (options.getFilePassword() == null || options.getFilePassword().isEmpty()) {
+            throw new IOException("加密备份需要提供密码");
+        }
+        return FileCodec.loadOrCreateDataKey(backupRoot, options.getFilePassword());
+    }
+    
     // 创建特殊文件记录文件
     private void createSpecialFileRecord(Path targetFile, SpecialFileRecord record) throws IOException {
         Path recordFile = Paths.get(targetFile.toString() + ".special");
@@ -448,14 +904,14 @@ public class BackupService {
         BasicFileAttributes attrs = Files.readAttributes(sourceFile, BasicFileAttributes.class);
         
         if (Files.exists(targetFile)) {
-            if (Files.getLastModifiedTime(sourceFile).compareTo(Files.getLastModifiedTime(targetFile)) > 0) {
-                Files.copy(sourceFile, targetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            if (attrs.lastModifiedTime().compareTo(Files.getLastModifiedTime(targetFile)) > 0) {
+                updateExistingFile(sourceFile, targetFile, attrs, options);
                 return new BackupResult(1, 0, attrs.size(), "文件备份完成");
             } else {
                 return new BackupResult(0, 0, 0, "目标文件已是最新");
             }
         } else {
-            Files.copy(sourceFile, targetFile, StandardCopyOption.COPY_ATTRIBUTES);
+            options.getThrottle().copy(sourceFile, targetFile, StandardCopyOption.COPY_ATTRIBUTES);
             return new BackupResult(1, 0, attrs.size(), "文件备份完成");
         }
     }
@@ -507,120 +963,153 @@ public class BackupService {
     private BackupResult restoreDirectoryWithRoot(Path sourcePath, Path targetPath, BackupOptions options) throws IOException {
         final Path sourceParent = sourcePath.getParent() != null ? sourcePath.getParent() : Paths.get(".");
         
-        AtomicLong filesCopied = new AtomicLong(0);
-        AtomicLong directoriesCreated = new AtomicLong(0);
-        AtomicLong totalSize = new AtomicLong(0);
-        AtomicLong specialFilesRestored = new AtomicLong(0);
-        
-        Files.walkFileTree(sourcePath, new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                Path relativePath = sourceParent.relativize(dir);
-                Path targetDirectory = targetPath.resolve(relativePath);
+        LongAdder filesCopied = new LongAdder();
+        LongAdder directoriesCreated = new LongAdder();
+        LongAdder totalSize = new LongAdder();
+        LongAdder specialFilesRestored = new LongAdder();
+        LongAdder failedFiles = new LongAdder();
+        
+        // 逐文件加密的备份需要用密码解锁根目录的数据密钥
+        byte[] dataKey = null;
+        if (FileCodec.isKeyFile(sourcePath.resolve(FileCodec.KEY_FILE_NAME))
+            && (options.getFilePassword() == null || options.getFilePassword().isEmpty())) {
+            return new BackupResult(0, 0, 0, "备份已加密，还原需要提供密码");
+        }
+        if (options.getFilePassword() != null && !options.getFilePassword().isEmpty()) {
+            try {
+                dataKey = FileCodec.unlockDataKey(sourcePath, options.getFilePassword());
+            } catch (IOException e) {
+                return new BackupResult(0, 0, 0, e.getMessage());
+            }
+        }
+        final byte[] fileDataKey = dataKey;
+        
+        try (ParallelCopyEngine engine = new ParallelCopyEngine(sourcePath, options)) {
+            FileScanner.walkFileTree(sourcePath, options, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    Path relativePath = sourceParent.relativize(dir);
+                    Path targetDirectory = targetPath.resolve(relativePath);
                 
-                boolean created = false;
-                if (!Files.exists(targetDirectory)) {
-                    Files.createDirectories(targetDirectory);
-                    directoriesCreated.incrementAndGet();
-                    created = true;
-                }
+                    boolean created = false;
+                    if (!Files.exists(targetDirectory)) {
+                        Files.createDirectories(targetDirectory);
+                        directoriesCreated.increment();
+                        created = true;
+                    }
                 
-                // 如果启用了元数据保留，设置目录属性
-                if (options.isPreserveMetadata()) {
-                    try {
-                        // 设置目录时间戳
-                        Files.setLastModifiedTime(targetDirectory, attrs.lastModifiedTime());
-                        
-                        // 尝试设置创建时间（如果系统支持）
+                    // 如果启用了元数据保留，设置目录属性
+                    if (options.isPreserveMetadata()) {
                         try {
-                            Files.setAttribute(targetDirectory, "creationTime", attrs.creationTime());
-                        } catch (Exception e) {
-                            // 有些系统不支持设置创建时间
-                        }
+                            // 设置目录时间戳
+                            Files.setLastModifiedTime(targetDirectory, attrs.lastModifiedTime());
                         
-                        // 尝试设置访问时间
-                        try {
-                            Files.setAttribute(targetDirectory, "lastAccessTime", attrs.lastAccessTime());
-                        } catch (Exception e) {
-                            // 有些系统不支持设置访问时间
-                        }
+                            // 尝试设置创建时间（如果系统支持）
+                            try {
+                                Files.setAttribute(targetDirectory, "creationTime", attrs.creationTime());
+                            } catch (Exception e) {
+                                // 有些系统不支持设置创建时间
+                            }
                         
-                        // 如果是新创建的目录，尝试复制POSIX权限
-                        if (created) {
+                            // 尝试设置访问时间
                             try {
-                                PosixFileAttributes posixAttrs = Files.readAttributes(dir, PosixFileAttributes.class);
-                                Files.setPosixFilePermissions(targetDirectory, posixAttrs.permissions());
+                                Files.setAttribute(targetDirectory, "lastAccessTime", attrs.lastAccessTime());
                             } catch (Exception e) {
-                                // 非POSIX系统或权限不足，忽略
+                                // 有些系统不支持设置访问时间
                             }
+                        
+                            // 如果是新创建的目录，尝试复制POSIX权限
+                            if (created) {
+                                try {
+                                    PosixFileAttributes posixAttrs = Files.readAttributes(dir, PosixFileAttributes.class);
+                                    Files.setPosixFilePermissions(targetDirectory, posixAttrs.permissions());
+                                } catch (Exception e) {
+                                    // 非POSIX系统或权限不足，忽略
+                                }
+                            }
+                        } catch (Exception e) {
+                            // 设置属性失败，记录日志但不中断还原
+                            System.err.println("设置目录属性失败: " + dir + " - " + e.getMessage());
                         }
-                    } catch (Exception e) {
-                        // 设置属性失败，记录日志但不中断还原
-                        System.err.println("设置目录属性失败: " + dir + " - " + e.getMessage());
                     }
-                }
                 
-                return FileVisitResult.CONTINUE;
-            }
+                    // 目录下的文件全部还原完成后再修正目录的修改时间
+                    engine.enterDirectory(options.isPreserveMetadata() ? () -> fixDirectoryTime(dir, targetDirectory, attrs.lastModifiedTime()) : null);
+                    return FileVisitResult.CONTINUE;
+                }
             
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                Path relativePath = sourceParent.relativize(file);
-                Path targetFile = targetPath.resolve(relativePath);
-                
-                // 检查是否为特殊文件记录
-                if (file.toString().endsWith(".special")) {
-                    try {
-                        // 读取特殊文件记录并恢复
-                        restoreSpecialFileFromRecord(file, targetFile, options);
-                        specialFilesRestored.incrementAndGet();
-                    } catch (Exception e) {
-                        System.err.println("恢复特殊文件失败: " + file + " - " + e.getMessage());
-                    }
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    engine.submit(() -> restoreEntry(file, attrs), attrs.size());
                     return FileVisitResult.CONTINUE;
                 }
+            
+                // 还原单个文件，在复制线程上执行
+                private void restoreEntry(Path file, BasicFileAttributes attrs) throws IOException {
+                    Path relativePath = sourceParent.relativize(file);
+                    Path targetFile = targetPath.resolve(relativePath);
                 
-                // 处理普通文件
-                if (Files.exists(targetFile)) {
-                    if (Files.getLastModifiedTime(file).compareTo(Files.getLastModifiedTime(targetFile)) > 0) {
-                        Files.copy(file, targetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
-                        filesCopied.incrementAndGet();
-                        totalSize.addAndGet(attrs.size());
+                    // 检查是否为特殊文件记录
+                    if (file.toString().endsWith(".special")) {
+                        try {
+                            // 读取特殊文件记录并恢复
+                            restoreSpecialFileFromRecord(file, targetFile, options);
+                            specialFilesRestored.increment();
+                        } catch (Exception e) {
+                            System.err.println("恢复特殊文件失败: " + file + " - " + e.getMessage());
+                        }
+                        return;
                     }
-                } else {
-                    Files.copy(file, targetFile, StandardCopyOption.COPY_ATTRIBUTES);
-                    filesCopied.incrementAndGet();
-                    totalSize.addAndGet(attrs.size());
-                }
                 
-                return FileVisitResult.CONTINUE;
-            }
-            
-            @Override
-            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-                // 目录遍历完成后，确保目录的修改时间正确
-                if (options.isPreserveMetadata()) {
-                    try {
-                        Path relativePath = sourceParent.relativize(dir);
-                        Path targetDirectory = targetPath.resolve(relativePath);
-                        
-                        // 获取原始目录的修改时间
-                        BasicFileAttributes sourceAttrs = Files.readAttributes(dir, BasicFileAttributes.class);
-                        
-                        // 设置目标目录的修改时间为原始目录的修改时间
-                        Files.setLastModifiedTime(targetDirectory, sourceAttrs.lastModifiedTime());
-                    } catch (Exception e) {
-                        // 设置失败不影响主要功能
-                        System.err.println("更新目录修改时间失败: " + dir + " - " + e.getMessage());
+                    // 密钥文件不还原（用户自己的同名文件照常还原）
+                    if (file.getParent().equals(sourcePath) && FileCodec.isKeyFile(file)) {
+                        return;
+                    }
+                
+                    // 逐文件压缩/加密的文件解码后还原为原文件名；只按文件头识别，未编码备份中的.fbe文件原样复制
+                    if (FileCodec.isEncodedFile(file)) {
+                        Path decodedFile = FileCodec.decodedPath(targetFile);
+                        if (!Files.exists(decodedFile)
+                            || attrs.lastModifiedTime().compareTo(Files.getLastModifiedTime(decodedFile)) > 0) {
+                            try {
+                                FileCodec.decode(file, decodedFile, fileDataKey, options.getThrottle());
+                                copyFileAttributes(file, decodedFile, attrs);
+                                filesCopied.increment();
+                                totalSize.add(Files.size(decodedFile));
+                            } catch (IOException e) {
+                                System.err.println("还原编码文件失败: " + file + " - " + e.getMessage());
+                                failedFiles.increment();
+                            }
+                        }
+                        return;
+                    }
+                
+                    // 处理普通文件
+                    if (Files.exists(targetFile)) {
+                        if (attrs.lastModifiedTime().compareTo(Files.getLastModifiedTime(targetFile)) > 0) {
+                            options.getThrottle().copy(file, targetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                            filesCopied.increment();
+                            totalSize.add(attrs.size());
+                        }
+                    } else {
+                        options.getThrottle().copy(file, targetFile, StandardCopyOption.COPY_ATTRIBUTES);
+                        filesCopied.increment();
+                        totalSize.add(attrs.size());
                     }
                 }
-                return FileVisitResult.CONTINUE;
-            }
-        });
+            
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                    engine.exitDirectory();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            engine.await();
+        }
         
-        String message = "还原完成";
-        if (specialFilesRestored.get() > 0) {
-            message += " (恢复了 " + specialFilesRestored.get() + " 个特殊文件记录)";
+        String message = failedFiles.sum() > 0 ? "还原失败: " + failedFiles.sum() + " 个文件无法还原" : "还原完成";
+        if (specialFilesRestored.sum() > 0) {
+            message += " (恢复了 " + specialFilesRestored.sum() + " 个特殊文件记录)";
         }
         
         return new BackupResult(
@@ -653,14 +1142,14 @@ public class BackupService {
         BasicFileAttributes attrs = Files.readAttributes(sourceFile, BasicFileAttributes.class);
         
         if (Files.exists(targetFile)) {
-            if (Files.getLastModifiedTime(sourceFile).compareTo(Files.getLastModifiedTime(targetFile)) > 0) {
-                Files.copy(sourceFile, targetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            if (attrs.lastModifiedTime().compareTo(Files.getLastModifiedTime(targetFile)) > 0) {
+                options.getThrottle().copy(sourceFile, targetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
                 return new BackupResult(1, 0, attrs.size(), "文件还原完成");
             } else {
                 return new BackupResult(0, 0, 0, "目标文件已是最新");
             }
         } else {
-            Files.copy(sourceFile, targetFile, StandardCopyOption.COPY_ATTRIBUTES);
+            options.getThrottle().copy(sourceFile, targetFile, StandardCopyOption.COPY_ATTRIBUTES);
             return new BackupResult(1, 0, attrs.size(), "文件还原完成");
         }
     }
@@ -0,0 +1,415 @@
+package com.backup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 目录模式下已有副本的块级增量同步（rsync风格）
+ * 目标端副本按固定大小分块计算弱滚动哈希和SHA-256，在源文件上滚动查找相同的块，
+ * 得到由"复用目标中的一段"和"从源文件复制一段"组成的指令序列。
+ * 复用的块全部位于原位置时（追加、原地修改等），直接原地写入变化的部分并截断到新长度；
+ * 否则按指令写出同目录下的临时文件，落盘后原子重命名替换目标。
+ * 原地写入前先把目标的修改时间设为1970年（早于任何源文件）并落盘，写入并落盘后才恢复为同步开始时源文件的修改时间；
+ * 原地写入中断时目标显得比源文件旧，下次备份会重新同步，不会因为修改时间较新而跳过损坏的副本。
+ * 限速时签名计算和源文件查找按读取窗口计入读，写出时按1MB分块计入读和写。
+ */
+public final class BlockSync {
+
+    // 小于该大小的文件直接整体复制
+    public static final long MIN_SYNC_SIZE = 1 << 20;
+
+    // 源文件读取窗口大小
+    private static final int WINDOW_SIZE = 8 << 20;
+    // 写出时每次复制的大小
+    private static final int COPY_CHUNK_SIZE = 1 << 20;
+    // 目标文件分块数上限，超过时增大块大小以限制签名占用的内存
+    private static final int MAX_BLOCKS = 1 << 20;
+    private static final int STRONG_SIZE = 32;
+    private static final int MAX_CANDIDATES = 16;
+    // 原地写入期间目标文件的修改时间
+    private static final FileTime IN_PROGRESS_TIME = FileTime.fromMillis(0);
+
+    /**
+     * 同步结果
+     */
+    public static class Result {
+        private final long fileSize;
+        private final long bytesWritten;
+        private final long bytesReused;
+        private final boolean inPlace;
+
+        public Result(long fileSize, long bytesWritten, long bytesReused, boolean inPlace) {
+            this.fileSize = fileSize;
+            this.bytesWritten = bytesWritten;
+            this.bytesReused = bytesReused;
+            this.inPlace = inPlace;
+        }
+
+        public long getFileSize() { return fileSize; }
+        // 实际写入目标磁盘的字节数
+        public long getBytesWritten() { return bytesWritten; }
+        // 从目标原有内容复用的字节数
+        public long getBytesReused() { return bytesReused; }
+        public boolean isInPlace() { return inPlace; }
+    }
+
+    // 同步指令：reuse为true时复用目标[from, from+length)，否则复制源[from, from+length)
+    private static class Op {
+        final boolean reuse;
+        final long from;
+        long length;
+
+        Op(boolean reuse, long from, long length) {
+            this.reuse = reuse;
+            this.from = from;
+            this.length = length;
+        }
+    }
+
+    private BlockSync() {}
+
+    /**
+     * 将源文件同步到已存在的目标文件
+     * @param source 源文件
+     * @param target 目标文件（旧副本）
+     * @param allowInPlace 是否允许原地写入（否则总是写临时文件后重命名）
+     * @return 同步结果
+     */
+    public static Result sync(Path source, Path target, boolean allowInPlace) throws IOException {
+        return sync(source, target, allowInPlace, IoThrottle.unlimited());
+    }
+
+    /**
+     * 将源文件同步到已存在的目标文件，读写按实际的量计入限速
+     * @param source 源文件
+     * @param target 目标文件（旧副本）
+     * @param allowInPlace 是否允许原地写入（否则总是写临时文件后重命名）
+     * @param throttle 读写限速
+     * @return 同步结果
+     */
+    public static Result sync(Path source, Path target, boolean allowInPlace, IoThrottle throttle) throws IOException {
+        // 在读取源文件之前取修改时间：同步期间源文件再被修改时，目标保持较旧的时间，下次会再次同步
+        FileTime sourceTime = Files.getLastModifiedTime(source);
+        List<Op> ops;
+        long sourceSize;
+        try (FileChannel src = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel dst = FileChannel.open(target, StandardOpenOption.READ)) {
+            sourceSize = src.size();
+            long targetSize = dst.size();
+            int blockSize = DeltaCodec.blockSize(targetSize);
+            while (targetSize / blockSize > MAX_BLOCKS) {
+                blockSize <<= 1;
+            }
+            Signatures signatures = Signatures.compute(dst, targetSize, blockSize, throttle);
+            ops = match(src, sourceSize, signatures, throttle);
+        }
+
+        long reused = 0;
+        boolean aligned = true;
+        long position = 0;
+        for (Op op : ops) {
+            if (op.reuse) {
+                reused += op.length;
+                aligned &= op.from == position;
+            }
+            position += op.length;
+        }
+
+        if (allowInPlace && aligned) {
+            return new Result(sourceSize, writeInPlace(source, target, ops, sourceSize, sourceTime, throttle),
+                              reused, true);
+        }
+        writeTemporary(source, target, ops, throttle);
+        return new Result(sourceSize, sourceSize, reused, false);
+    }
+
+    // 在源文件上滚动查找目标中存在的块
+    private static List<Op> match(FileChannel src, long sourceSize, Signatures signatures,
+                                  IoThrottle throttle) throws IOException {
+        int blockSize = signatures.blockSize;
+        SourceWindow window = new SourceWindow(src, sourceSize, Math.max(WINDOW_SIZE, blockSize * 2), throttle);
+        MessageDigest sha = sha256();
+        List<Op> ops = new ArrayList<>();
+
+        long literalStart = 0;
+        long position = 0;
+        int weak = 0;
+        boolean rolling = false;
+
+        while (position + blockSize <= sourceSize) {
+            window.ensure(position, (int) Math.min(blockSize + 1L, sourceSize - position));
+            if (!rolling) {
+                weak = DeltaCodec.weakHash(window.buffer, window.offset(position), blockSize);
+                rolling = true;
+            }
+
+            // 同样内容的块优先选原位置的块，便于原地写入
+            int block = signatures.find(weak, window.buffer, window.offset(position), position, sha);
+            if (block >= 0) {
+                add(ops, false, literalStart, position - literalStart);
+                add(ops, true, (long) block * blockSize, blockSize);
+                position += blockSize;
+                literalStart = position;
+                rolling = false;
+                continue;
+            }
+
+            if (position + blockSize < sourceSize) {
+                weak = DeltaCodec.roll(weak, window.at(position), window.at(position + blockSize), blockSize);
+            }
+            position++;
+        }
+
+        add(ops, false, literalStart, sourceSize - literalStart);
+        return ops;
+    }
+
+    // 追加指令，与前一条连续的同类指令合并
+    private static void add(List<Op> ops, boolean reuse, long from, long length) {
+        if (length <= 0) {
+            return;
+        }
+        if (!ops.isEmpty()) {
+            Op last = ops.get(ops.size() - 1);
+            if (last.reuse == reuse && last.from + last.length == from) {
+                last.length += length;
+                return;
+            }
+        }
+        ops.add(new Op(reuse, from, length));
+    }
+
+    // 原地写入：复用的块都在原位置，只写入源文件中新的部分
+    private static long writeInPlace(Path source, Path target, List<Op> ops, long sourceSize,
+                                     FileTime sourceTime, IoThrottle throttle) throws IOException {
+        long written = 0;
+        Files.setLastModifiedTime(target, IN_PROGRESS_TIME);
+        try (FileChannel src = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel dst = FileChannel.open(target, StandardOpenOption.WRITE)) {
+            // 修改时间先落盘，再开始覆盖内容
+            dst.force(true);
+            for (Op op : ops) {
+                if (!op.reuse) {
+                    // 字面数据在输出中的位置与其在源文件中的位置相同
+                    dst.position(op.from);
+                    transfer(src, op.from, op.length, dst, throttle);
+                    written += op.length;
+                }
+            }
+            if (dst.size() > sourceSize) {
+                dst.truncate(sourceSize);
+            }
+            dst.force(true);
+        }
+        Files.setLastModifiedTime(target, sourceTime);
+        return written;
+    }
+
+    // 写临时文件后原子替换目标
+    private static void writeTemporary(Path source, Path target, List<Op> ops, IoThrottle throttle) throws IOException {
+        Path temp = target.resolveSibling("." + target.getFileName() + ".sync.tmp");
+        try {
+            try (FileChannel src = FileChannel.open(source, StandardOpenOption.READ);
+                 FileChannel old = FileChannel.open(target, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (Op op : ops) {
+                    // 复用的块从旧目标读取，同样计入读
+                    transfer(op.reuse ? old : src, op.from, op.length, out, throttle);
+                }
+                out.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    // 按块复制，每块分别计入读和写的限速
+    private static void transfer(FileChannel from, long position, long length, FileChannel to,
+                                 IoThrottle throttle) throws IOException {
+        while (length > 0) {
+            long chunk = Math.min(length, COPY_CHUNK_SIZE);
+            throttle.acquireRead(chunk);
+            throttle.acquireWrite(chunk);
+            while (chunk > 0) {
+                long copied = from.transferTo(position, chunk, to);
+                if (copied <= 0) {
+                    throw new IOException("文件在同步过程中被截断");
+                }
+                position += copied;
+                chunk -= copied;
+                length -= copied;
+            }
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 目标文件的块签名：开放寻址哈希表，键为弱哈希，值为块号
+     */
+    private static class Signatures {
+        final int blockSize;
+        private final byte[] strong;    // 每块的SHA-256
+        private final int[] hashes;
+        private final int[] blocks;     // 块号 + 1，0表示空槽
+        private final int mask;
+        private final byte[] candidateStrong = new byte[STRONG_SIZE];
+
+        private Signatures(int blockSize, int count) {
+            this.blockSize = blockSize;
+            this.strong = new byte[count * STRONG_SIZE];
+            int capacity = Integer.highestOneBit(Math.max(1, count) * 2 - 1) << 1;
+            this.hashes = new int[capacity];
+            this.blocks = new int[capacity];
+            this.mask = capacity - 1;
+        }
+
+        // 顺序读取目标文件计算每个完整块的签名（末尾不足一块的部分不参与匹配）
+        static Signatures compute(FileChannel channel, long size, int blockSize, IoThrottle throttle) throws IOException {
+            int count = (int) (size / blockSize);
+            Signatures signatures = new Signatures(blockSize, count);
+            MessageDigest sha = sha256();
+            int blocksPerRead = Math.max(1, WINDOW_SIZE / blockSize);
+            ByteBuffer buffer = ByteBuffer.allocate(blocksPerRead * blockSize);
+
+            for (int first = 0; first < count; first += blocksPerRead) {
+                int n = Math.min(blocksPerRead, count - first);
+                buffer.clear().limit(n * blockSize);
+                long position = (long) first * blockSize;
+                throttle.acquireRead(buffer.remaining());
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) {
+                        throw new IOException("文件在同步过程中被截断");
+                    }
+                }
+                byte[] data = buffer.array();
+                for (int i = 0; i < n; i++) {
+                    sha.update(data, i * blockSize, blockSize);
+                    try {
+                        sha.digest(signatures.strong, (first + i) * STRONG_SIZE, STRONG_SIZE);
+                    } catch (java.security.DigestException e) {
+                        throw new IOException(e);
+                    }
+                    signatures.insert(DeltaCodec.weakHash(data, i * blockSize, blockSize), first + i);
+                }
+            }
+            return signatures;
+        }
+
+        private void insert(int hash, int block) {
+            int slot = mix(hash) & mask;
+            while (blocks[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = hash;
+            blocks[slot] = block + 1;
+        }
+
+        /**
+         * 查找与data[offset, offset + blockSize)内容相同的块
+         * @param position 该段在输出中的位置，存在多个相同块时优先返回位于此处的块
+         * @return 块号，找不到返回-1
+         */
+        int find(int hash, byte[] data, int offset, long position, MessageDigest sha) throws IOException {
+            int slot = mix(hash) & mask;
+            int candidates = 0;
+            boolean hashed = false;
+            int found = -1;
+            while (blocks[slot] != 0 && candidates < MAX_CANDIDATES) {
+                if (hashes[slot] == hash) {
+                    candidates++;
+                    if (!hashed) {
+                        // 弱哈希命中后才计算强哈希
+                        sha.update(data, offset, blockSize);
+                        try {
+                            sha.digest(candidateStrong, 0, STRONG_SIZE);
+                        } catch (java.security.DigestException e) {
+                            throw new IOException(e);
+                        }
+                        hashed = true;
+                    }
+                    int block = blocks[slot] - 1;
+                    if (Arrays.equals(strong, block * STRONG_SIZE, (block + 1) * STRONG_SIZE,
+                                      candidateStrong, 0, STRONG_SIZE)) {
+                        if ((long) block * blockSize == position) {
+                            return block;
+                        }
+                        if (found < 0) {
+                            found = block;
+                        }
+                    }
+                }
+                slot = (slot + 1) & mask;
+            }
+            return found;
+        }
+
+        private static int mix(int hash) {
+            hash *= 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    /**
+     * 源文件的滑动读取窗口
+     */
+    private static class SourceWindow {
+        private final FileChannel channel;
+        private final long size;
+        private final IoThrottle throttle;
+        final byte[] buffer;
+        private long start;
+        private int length;
+
+        SourceWindow(FileChannel channel, long size, int capacity, IoThrottle throttle) {
+            this.channel = channel;
+            this.size = size;
+            this.throttle = throttle;
+            this.buffer = new byte[capacity];
+        }
+
+        // 保证[position, position + count)位于窗口内
+        void ensure(long position, int count) throws IOException {
+            if (position >= start && position + count <= start + length) {
+                return;
+            }
+            start = position;
+            ByteBuffer target = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, size - position));
+            throttle.acquireRead(target.remaining());
+            while (target.hasRemaining()) {
+                if (channel.read(target, position + target.position()) < 0) {
+                    throw new IOException("文件在同步过程中被截断");
+                }
+            }
+            length = target.position();
+        }
+
+        int offset(long position) {
+            return (int) (position - start);
+        }
+
+        byte at(long position) {
+            return buffer[(int) (position - start)];
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.backup;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * 按大小分级的直接内存缓冲区池
+ * 打包的读取、写入和提取阶段通过池中的直接缓冲区分块读写文件：堆数组直接交给FileChannel或RandomAccessFile时，
+ * JDK会为每次调用分配与数据同样大小的临时本地内存（大文件时每个线程缓存一块文件大小的直接缓冲区），
+ * 使用池中固定大小的缓冲区后稳定运行时不再分配新的本地内存。
+ * 容量按2的幂分级（64KB到16MB），超过最大级别的申请直接分配、归还时丢弃；每级缓存的总大小有上限。
+ *
+ * 缓冲区通过try-with-resources归还。泄漏检测：借出的Buffer对象未归还就被回收时打印警告并丢弃该缓冲区
+ * （泄漏的代码可能仍通过缓冲区的视图在读写，放回池中会被下一个借用者同时使用）；
+ * 设置系统属性 -Dbackup.bufferPool.leakTrace=true 时同时打印借出位置的调用栈（有额外开销，用于排查问题）。
+ */
+public final class BufferPool {
+
+    // 最小和最大的级别（2的幂）
+    private static final int MIN_SHIFT = 16;
+    private static final int MAX_SHIFT = 24;
+    // 每个级别缓存的总字节数上限
+    private static final long MAX_POOLED_BYTES_PER_CLASS = 64L * 1024 * 1024;
+
+    private static final boolean LEAK_TRACE = Boolean.getBoolean("backup.bufferPool.leakTrace");
+    private static final Cleaner CLEANER = Cleaner.create();
+    private static final BufferPool SHARED = new BufferPool();
+
+    private final Deque<ByteBuffer>[] free;
+    private long allocations;
+    private long reuses;
+    private long outstanding;
+    private long leaks;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    BufferPool() {
+        free = new Deque[MAX_SHIFT - MIN_SHIFT + 1];
+        for (int i = 0; i < free.length; i++) {
+            free[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * 进程内共享的缓冲区池
+     */
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * 借出至少capacity字节的直接缓冲区（position为0，limit为capacity）
+     */
+    public Buffer acquire(int capacity) {
+        int sizeClass = sizeClass(capacity);
+        ByteBuffer buffer = null;
+        synchronized (this) {
+            if (sizeClass >= 0) {
+                buffer = free[sizeClass].pollFirst();
+            }
+            if (buffer != null) {
+                reuses++;
+            } else {
+                allocations++;
+            }
+            outstanding++;
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(sizeClass >= 0 ? 1 << (sizeClass + MIN_SHIFT) : capacity);
+        }
+        buffer.clear().limit(capacity);
+        return new Buffer(this, buffer, sizeClass);
+    }
+
+    public synchronized long getAllocations() { return allocations; }
+    public synchronized long getReuses() { return reuses; }
+    public synchronized long getOutstanding() { return outstanding; }
+    public synchronized long getLeaks() { return leaks; }
+
+    /**
+     * 当前缓存在池中的缓冲区总字节数
+     */
+    public synchronized long getPooledBytes() {
+        long total = 0;
+        for (int i = 0; i < free.length; i++) {
+            total += (long) free[i].size() << (i + MIN_SHIFT);
+        }
+        return total;
+    }
+
+    private void giveBack(ByteBuffer buffer, int sizeClass, boolean leaked) {
+        synchronized (this) {
+            outstanding--;
+            if (leaked) {
+                leaks++;
+                return;
+            }
+            if (sizeClass >= 0 && ((long) (free[sizeClass].size() + 1) << (sizeClass + MIN_SHIFT)) <= MAX_POOLED_BYTES_PER_CLASS) {
+                free[sizeClass].addFirst(buffer);
+            }
+        }
+    }
+
+    // 容量所属的级别，超过最大级别返回-1
+    private static int sizeClass(int capacity) {
+        if (capacity <= 1 << MIN_SHIFT) {
+            return 0;
+        }
+        if (capacity > 1 << MAX_SHIFT) {
+            return -1;
+        }
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_SHIFT;
+    }
+
+    /**
+     * 借出的缓冲区，close()归还到池中，归还后不能再使用
+     */
+    public static final class Buffer implements AutoCloseable {
+        private final Lease lease;
+        private final Cleaner.Cleanable cleanable;
+
+        private Buffer(BufferPool pool, ByteBuffer buffer, int sizeClass) {
+            this.lease = new Lease(pool, buffer, sizeClass, LEAK_TRACE ? new Throwable("缓冲区借出位置") : null);
+            this.cleanable = CLEANER.register(this, lease);
+        }
+
+        public ByteBuffer buffer() {
+            if (lease.returned) {
+                throw new IllegalStateException("缓冲区已归还");
+            }
+            return lease.buffer;
+        }
+
+        @Override
+        public void close() {
+            if (!lease.returned) {
+                lease.returned = true;
+                cleanable.clean();
+            }
+        }
+    }
+
+    /**
+     * 借出状态：Buffer归还或被回收时执行，不能引用Buffer本身
+     */
+    private static final class Lease implements Runnable {
+        private final BufferPool pool;
+        private final ByteBuffer buffer;
+        private final int sizeClass;
+        private final Throwable origin;
+        private volatile boolean returned;
+
+        Lease(BufferPool pool, ByteBuffer buffer, int sizeClass, Throwable origin) {
+            this.pool = pool;
+            this.buffer = buffer;
+            this.sizeClass = sizeClass;
+            this.origin = origin;
+        }
+
+        @Override
+        public void run() {
+            boolean leaked = !returned;
+            if (leaked) {
+                System.err.println("检测到未归还的缓冲区（" + buffer.capacity() + " 字节）"
+                    + (origin == null ? "，设置 -Dbackup.bufferPool.leakTrace=true 查看借出位置" : ""));
+                if (origin != null) {
+                    origin.printStackTrace();
+                }
+            }
+            pool.giveBack(buffer, sizeClass, leaked);
+        }
+    }
+}
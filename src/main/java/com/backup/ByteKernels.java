@@ -0,0 +1,136 @@
+package com.backup;
+
+import java.util.Arrays;
+
+/**
+ * 字节数组热点内核 - XOR加密、游程扫描和字节比较
+ * 运行时检测 jdk.incubator.vector 模块：可用时使用SIMD实现，否则回退到标量实现。
+ * 启动时需添加 --add-modules jdk.incubator.vector 才能启用SIMD；
+ * 设置系统属性 -Dbackup.simd=false 可强制使用标量实现。
+ */
+public final class ByteKernels {
+
+    /**
+     * 内核实现接口
+     */
+    interface Impl {
+        String name();
+
+        // dst[i] = src[i] ^ key[i % key.length]，i ∈ [0, length)
+        void xor(byte[] src, byte[] key, byte[] dst, int length);
+
+        // 从from开始与data[from]相同的连续字节数，最多limit个（limit >= 1）
+        int runLength(byte[] data, int from, int limit);
+
+        // 第一个不同字节的相对位置，完全相同返回-1
+        int mismatch(byte[] a, int aFrom, byte[] b, int bFrom, int length);
+    }
+
+    // 标量实现（始终可用）
+    static final Impl SCALAR = new ScalarImpl();
+    // SIMD实现（不可用时为null）
+    static final Impl VECTOR = loadVectorImpl();
+
+    private static final Impl ACTIVE = VECTOR != null ? VECTOR : SCALAR;
+
+    private ByteKernels() {}
+
+    /**
+     * 当前是否使用SIMD实现
+     */
+    public static boolean isVectorized() {
+        return ACTIVE == VECTOR;
+    }
+
+    /**
+     * 当前实现名称
+     */
+    public static String implementationName() {
+        return ACTIVE.name();
+    }
+
+    /**
+     * 用循环密钥异或数据
+     * @param src 源数据
+     * @param key 密钥（循环使用）
+     * @param dst 目标数组，可与src相同
+     * @param length 处理长度
+     */
+    public static void xor(byte[] src, byte[] key, byte[] dst, int length) {
+        ACTIVE.xor(src, key, dst, length);
+    }
+
+    /**
+     * 计算从from开始的游程长度
+     * @param data 数据
+     * @param from 起始位置
+     * @param limit 最大游程长度
+     * @return 与data[from]相同的连续字节数（至少为1）
+     */
+    public static int runLength(byte[] data, int from, int limit) {
+        return ACTIVE.runLength(data, from, limit);
+    }
+
+    /**
+     * 比较两段字节
+     * @return 第一个不同字节的相对位置，完全相同返回-1
+     */
+    public static int mismatch(byte[] a, int aFrom, byte[] b, int bFrom, int length) {
+        return ACTIVE.mismatch(a, aFrom, b, bFrom, length);
+    }
+
+    // 加载SIMD实现，模块缺失或被禁用时返回null
+    private static Impl loadVectorImpl() {
+        if ("false".equalsIgnoreCase(System.getProperty("backup.simd"))) {
+            return null;
+        }
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            Class<?> type = Class.forName("com.backup.VectorByteKernels");
+            return (Impl) type.getDeclaredConstructor().newInstance();
+        } catch (Throwable e) {
+            // 平台不支持时回退到标量实现
+            return null;
+        }
+    }
+
+    /**
+     * 标量实现
+     */
+    static final class ScalarImpl implements Impl {
+        @Override
+        public String name() {
+            return "scalar";
+        }
+
+        @Override
+        public void xor(byte[] src, byte[] key, byte[] dst, int length) {
+            // 按密钥长度分段，避免逐字节取模
+            int keyLength = key.length;
+            for (int base = 0; base < length; base += keyLength) {
+                int limit = Math.min(keyLength, length - base);
+                for (int j = 0; j < limit; j++) {
+                    dst[base + j] = (byte) (src[base + j] ^ key[j]);
+                }
+            }
+        }
+
+        @Override
+        public int runLength(byte[] data, int from, int limit) {
+            int end = (int) Math.min(data.length, (long) from + limit);
+            byte value = data[from];
+            int i = from + 1;
+            while (i < end && data[i] == value) {
+                i++;
+            }
+            return i - from;
+        }
+
+        @Override
+        public int mismatch(byte[] a, int aFrom, byte[] b, int bFrom, int length) {
+            return Arrays.mismatch(a, aFrom, aFrom + length, b, bFrom, bFrom + length);
+        }
+    }
+}
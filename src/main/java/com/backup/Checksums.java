@@ -0,0 +1,118 @@
+package com.backup;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * 快速校验和工具
+ * CRC32C在现代CPU上由硬件指令加速，用于变化检测和存储数据的损坏检测；
+ * 需要内容标识（如去重）时仍使用SHA-256。
+ */
+public final class Checksums {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private Checksums() {}
+
+    /**
+     * 计算CRC32C校验和
+     */
+    public static int crc32c(byte[] data, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 计算整个数组的CRC32C校验和
+     */
+    public static int crc32c(byte[] data) {
+        return crc32c(data, 0, data.length);
+    }
+
+    /**
+     * 计算存储数据的校验和（记录在FileRecord.storedHash中）
+     */
+    public static String storedChecksum(byte[] data) {
+        return toHex(crc32c(data));
+    }
+
+    /**
+     * 按固定块大小计算每块的CRC32C校验和
+     */
+    public static List<String> blockChecksums(byte[] data, int blockSize) {
+        List<String> checksums = new ArrayList<>((data.length + blockSize - 1) / blockSize);
+        for (int offset = 0; offset < data.length; offset += blockSize) {
+            checksums.add(toHex(crc32c(data, offset, Math.min(blockSize, data.length - offset))));
+        }
+        return checksums;
+    }
+
+    /**
+     * 从通道的指定位置流式计算一段数据的CRC32C校验和
+     * @param channel 文件通道（使用定位读取，不改变通道位置）
+     * @param position 起始位置
+     * @param length 长度
+     * @param buffer 读取缓冲区
+     */
+    public static String storedChecksum(FileChannel channel, long position, long length, ByteBuffer buffer) throws IOException {
+        CRC32C crc = new CRC32C();
+        long remaining = length;
+        while (remaining > 0) {
+            buffer.clear();
+            if (remaining < buffer.capacity()) {
+                buffer.limit((int) remaining);
+            }
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("数据意外结束");
+            }
+            buffer.flip();
+            crc.update(buffer);
+            position += read;
+            remaining -= read;
+        }
+        return toHex((int) crc.getValue());
+    }
+
+    /**
+     * 字节数组转十六进制字符串（查表实现）
+     */
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int value = bytes[i] & 0xFF;
+            chars[i * 2] = HEX_DIGITS[value >>> 4];
+            chars[i * 2 + 1] = HEX_DIGITS[value & 0x0F];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * 32位整数转8位十六进制字符串
+     */
+    public static String toHex(int value) {
+        char[] chars = new char[8];
+        for (int i = 7; i >= 0; i--) {
+            chars[i] = HEX_DIGITS[value & 0x0F];
+            value >>>= 4;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * 十六进制字符串转字节数组
+     */
+    public static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ((Character.digit(hex.charAt(i * 2), 16) << 4) | Character.digit(hex.charAt(i * 2 + 1), 16));
+        }
+        return bytes;
+    }
+}
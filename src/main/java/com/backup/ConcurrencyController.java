@@ -0,0 +1,197 @@
+package com.backup;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 自适应并发控制（AIMD）
+ * 目录模式的复制引擎和打包流水线在每个文件任务开始前取得一个并发名额，结束后归还并报告耗时。
+ * 每秒评估一次主机负载：系统负载平均值（每个CPU）、备份自身I/O延迟的p95（按每1MB折算）和CPU窃取时间
+ * （虚拟机，读取/proc/stat）。任一指标超出预算时并发上限减半（乘性减），之后5秒内不再减小，
+ * 等待较慢的负载平均值反映变化；所有指标都在预算内且上一周期名额用满时加一个步长（加性增）。
+ * 上限在1到配置的线程数之间变化，初始为CPU核数。无法获取的指标（如Windows上的负载平均值）不参与判断。
+ */
+public final class ConcurrencyController {
+
+    // 评估周期
+    private static final long ADJUST_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // 减小上限后的冷却时间
+    private static final long DECREASE_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(5);
+    // 每个周期最多保留的延迟样本数
+    private static final int MAX_SAMPLES = 4096;
+    // 延迟按此大小折算为单次I/O
+    private static final long LATENCY_UNIT_BYTES = 1L << 20;
+    private static final Path PROC_STAT = Paths.get("/proc/stat");
+
+    private final int maximum;
+    private final int step;
+    private final long latencyBudgetNanos;
+    private final double maxLoadPerCpu;
+    private final double maxStealPercent;
+    private final int processors = Runtime.getRuntime().availableProcessors();
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+
+    private int limit;
+    private int active;
+    private boolean saturated;                  // 本周期内名额是否用满过
+    private final long[] samples = new long[MAX_SAMPLES];
+    private int sampleCount;
+    private long lastAdjust = System.nanoTime();
+    private long lastDecrease;
+    private long[] lastCpuTimes = readCpuTimes();
+
+    // 最近一次评估的测量值（-1表示无法获取）
+    private double loadPerCpu = -1;
+    private double stealPercent = -1;
+    private long latencyP95 = -1;
+
+    /**
+     * @param maximum 并发上限的最大值（工作线程数）
+     */
+    ConcurrencyController(int maximum, BackupService.BackupOptions options) {
+        this.maximum = Math.max(1, maximum);
+        this.step = Math.max(1, this.maximum / 16);
+        this.latencyBudgetNanos = TimeUnit.MILLISECONDS.toNanos(options.getLatencyBudgetMillis());
+        this.maxLoadPerCpu = options.getMaxLoadPerCpu();
+        this.maxStealPercent = options.getMaxCpuStealPercent();
+        this.limit = Math.min(this.maximum, processors);
+        this.lastDecrease = lastAdjust - DECREASE_COOLDOWN_NANOS;
+    }
+
+    /**
+     * 按备份选项创建：未启用自适应并发或最多只有一个工作线程时返回null
+     */
+    static ConcurrencyController create(BackupService.BackupOptions options, int maximum) {
+        if (!options.isAdaptiveConcurrency() || maximum <= 1) {
+            return null;
+        }
+        return new ConcurrencyController(maximum, options);
+    }
+
+    /**
+     * 取得一个并发名额，名额用尽时等待
+     */
+    public synchronized void acquire() {
+        boolean interrupted = false;
+        while (active >= limit) {
+            saturated = true;
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        active++;
+        if (active >= limit) {
+            saturated = true;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 归还名额并报告任务耗时
+     * @param elapsedNanos 任务耗时
+     * @param bytes 任务读写的字节数，用于折算单次I/O的延迟
+     */
+    public synchronized void release(long elapsedNanos, long bytes) {
+        active--;
+        long units = Math.max(1, (bytes + LATENCY_UNIT_BYTES - 1) / LATENCY_UNIT_BYTES);
+        samples[sampleCount++ % MAX_SAMPLES] = elapsedNanos / units;
+        long now = System.nanoTime();
+        if (now - lastAdjust >= ADJUST_INTERVAL_NANOS) {
+            adjust(now);
+        }
+        notifyAll();
+    }
+
+    public synchronized int getLimit() { return limit; }
+    public synchronized double getLoadPerCpu() { return loadPerCpu; }
+    public synchronized double getStealPercent() { return stealPercent; }
+    public synchronized long getLatencyP95Millis() { return latencyP95 < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(latencyP95); }
+
+    private void adjust(long now) {
+        double load = os.getSystemLoadAverage();
+        loadPerCpu = load < 0 ? -1 : load / processors;
+        stealPercent = measureSteal();
+        latencyP95 = percentile(95);
+
+        boolean overBudget = (maxLoadPerCpu > 0 && loadPerCpu > maxLoadPerCpu)
+            || (maxStealPercent > 0 && stealPercent > maxStealPercent)
+            || (latencyBudgetNanos > 0 && latencyP95 > latencyBudgetNanos);
+        if (overBudget) {
+            if (now - lastDecrease >= DECREASE_COOLDOWN_NANOS && limit > 1) {
+                limit = Math.max(1, limit / 2);
+                lastDecrease = now;
+                System.out.println("主机负载超出预算，并发数降为 " + limit + " (负载/CPU " + format(loadPerCpu)
+                    + ", CPU窃取 " + format(stealPercent) + "%, 延迟p95 " + getLatencyP95Millis() + "ms)");
+            }
+        } else if (saturated) {
+            limit = Math.min(maximum, limit + step);
+        }
+        saturated = active >= limit;
+        sampleCount = 0;
+        lastAdjust = now;
+    }
+
+    private long percentile(int p) {
+        int count = Math.min(sampleCount, MAX_SAMPLES);
+        if (count == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        return sorted[Math.min(count - 1, (int) Math.ceil(count * p / 100.0) - 1)];
+    }
+
+    // 两次评估之间CPU窃取时间的占比
+    private double measureSteal() {
+        long[] current = readCpuTimes();
+        long[] previous = lastCpuTimes;
+        lastCpuTimes = current;
+        if (current == null || previous == null || current[1] <= previous[1]) {
+            return -1;
+        }
+        return 100.0 * (current[0] - previous[0]) / (current[1] - previous[1]);
+    }
+
+    /**
+     * 读取/proc/stat第一行的CPU时间
+     * @return {窃取时间, 总时间}，非Linux系统返回null
+     */
+    private static long[] readCpuTimes() {
+        if (!Files.isReadable(PROC_STAT)) {
+            return null;
+        }
+        try {
+            List<String> lines = Files.readAllLines(PROC_STAT);
+            if (lines.isEmpty() || !lines.get(0).startsWith("cpu ")) {
+                return null;
+            }
+            // cpu user nice system idle iowait irq softirq steal ...
+            String[] fields = lines.get(0).trim().split("\\s+");
+            if (fields.length < 9) {
+                return null;
+            }
+            long total = 0;
+            for (int i = 1; i <= 8; i++) {
+                total += Long.parseLong(fields[i]);
+            }
+            return new long[] {Long.parseLong(fields[8]), total};
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String format(double value) {
+        return value < 0 ? "-" : String.format("%.2f", value);
+    }
+}
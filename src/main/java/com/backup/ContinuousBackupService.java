@@ -0,0 +1,366 @@
+package com.backup;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 持续备份服务（目录模式）
+ * 在源目录树上注册WatchService监视，把变化事件合并为一个脏路径集合（路径 -> 最后一次事件时间），
+ * 每隔固定时间把安静期已过的脏路径交给BackupService.backupChanges，只复制这些路径，不再扫描整棵树。
+ * 脏路径集合保存在本地状态文件中，重启后继续处理。
+ * 以下情况无法确定哪些路径变化，退回完整扫描备份：事件队列溢出（OVERFLOW）、根目录的监视失效、
+ * 服务启动时（停止期间的变化没有事件），以及目录监视注册失败（例如Linux的inotify监视数达到上限，此后每次都完整扫描）。
+ * Windows上使用FILE_TREE一次监视整棵树；其他平台用并行扫描列出所有目录后逐个注册。
+ */
+public class ContinuousBackupService {
+
+    private static final String STATE_FILE_NAME = ".continuous-state.json";
+
+    /**
+     * 持续备份选项
+     */
+    public static class ContinuousOptions {
+        private long flushIntervalSeconds = 60;             // 处理脏路径的间隔
+        private long quietMillis = 2000;                    // 路径最后一次变化后等待的安静期（合并连续写入）
+        private boolean rescanOnStart = true;               // 启动时执行一次完整扫描备份
+        private BackupService.BackupOptions backupOptions = new BackupService.BackupOptions();
+
+        public long getFlushIntervalSeconds() { return flushIntervalSeconds; }
+        public void setFlushIntervalSeconds(long flushIntervalSeconds) { this.flushIntervalSeconds = flushIntervalSeconds; }
+
+        public long getQuietMillis() { return quietMillis; }
+        public void setQuietMillis(long quietMillis) { this.quietMillis = quietMillis; }
+
+        public boolean isRescanOnStart() { return rescanOnStart; }
+        public void setRescanOnStart(boolean rescanOnStart) { this.rescanOnStart = rescanOnStart; }
+
+        public BackupService.BackupOptions getBackupOptions() { return backupOptions; }
+        public void setBackupOptions(BackupService.BackupOptions backupOptions) { this.backupOptions = backupOptions; }
+    }
+
+    // 持久化状态
+    static class ContinuousState {
+        List<String> dirtyPaths = new ArrayList<>();
+        boolean rescanPending;
+    }
+
+    private final Path source;
+    private final String targetDir;
+    private final Path stateFile;
+    private final ContinuousOptions options;
+    private final BackupService backupService = new BackupService();
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+    // 相对源目录的脏路径 -> 最后一次事件时间（毫秒）
+    private final Map<String, Long> dirty = new ConcurrentHashMap<>();
+    private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+    private volatile boolean rescanPending;
+    private volatile boolean watchIncomplete;
+    private volatile boolean stateChanged;
+
+    private final Object lifecycleLock = new Object();
+    private WatchService watchService;
+    private Thread watchThread;
+    private ScheduledExecutorService scheduler;
+
+    public ContinuousBackupService(String sourceDir, String targetDir, ContinuousOptions options) {
+        this(sourceDir, targetDir, Paths.get(targetDir).resolve(STATE_FILE_NAME).toString(), options);
+    }
+
+    public ContinuousBackupService(String sourceDir, String targetDir, String stateFile, ContinuousOptions options) {
+        if (options.getBackupOptions().isSnapshotMode()) {
+            throw new IllegalArgumentException("持续备份不支持快照模式");
+        }
+        this.source = Paths.get(sourceDir).toAbsolutePath().normalize();
+        this.targetDir = targetDir;
+        this.stateFile = Paths.get(stateFile);
+        this.options = options;
+    }
+
+    /**
+     * 注册监视并在后台按间隔处理脏路径
+     * 先注册监视再执行启动时的完整扫描，注册期间发生的变化不会遗漏
+     */
+    public void start() throws IOException {
+        synchronized (lifecycleLock) {
+            if (scheduler != null) {
+                return;
+            }
+            ContinuousState state = loadState();
+            long now = System.currentTimeMillis();
+            for (String path : state.dirtyPaths) {
+                dirty.put(path, now);
+            }
+            rescanPending = state.rescanPending || options.isRescanOnStart();
+
+            watchService = source.getFileSystem().newWatchService();
+            registerTree(source);
+
+            watchThread = new Thread(this::watchLoop, "backup-watch");
+            watchThread.setDaemon(true);
+            watchThread.start();
+
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "backup-continuous");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    BackupService.BackupResult result = flush();
+                    if (result != null && result.getFilesCopied() > 0) {
+                        System.out.println("持续备份: 复制 " + result.getFilesCopied() + " 个文件, "
+                            + result.getTotalSize() + " 字节");
+                    }
+                } catch (Exception e) {
+                    System.err.println("持续备份失败: " + e.getMessage());
+                }
+            }, 0, options.getFlushIntervalSeconds(), TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * 停止监视和后台处理，保存尚未处理的脏路径
+     */
+    public void stop() {
+        synchronized (lifecycleLock) {
+            if (scheduler == null) {
+                return;
+            }
+            scheduler.shutdownNow();
+            scheduler = null;
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                System.err.println("关闭目录监视失败: " + e.getMessage());
+            }
+            watchThread.interrupt();
+            watchedDirectories.clear();
+            try {
+                saveState();
+            } catch (IOException e) {
+                System.err.println("保存持续备份状态失败: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 处理一次脏路径：需要时完整扫描备份，否则只备份安静期已过的脏路径
+     * @return 备份结果；没有需要处理的路径时返回null
+     */
+    public synchronized BackupService.BackupResult flush() throws IOException {
+        BackupService.BackupOptions backupOptions = options.getBackupOptions();
+        long now = System.currentTimeMillis();
+        BackupService.BackupResult result = null;
+
+        if (rescanPending || watchIncomplete) {
+            // 先清除标记：备份期间再发生溢出时下一次重新扫描
+            rescanPending = false;
+            try {
+                result = backupService.backup(source.toString(), targetDir, backupOptions);
+            } catch (IOException | RuntimeException e) {
+                rescanPending = true;
+                throw e;
+            }
+            // 完整扫描开始之前的变化都已包含在内
+            dirty.entrySet().removeIf(entry -> entry.getValue() < now);
+            stateChanged = true;
+        } else {
+            Map<String, Long> ready = new ConcurrentHashMap<>();
+            for (Map.Entry<String, Long> entry : dirty.entrySet()) {
+                if (now - entry.getValue() >= options.getQuietMillis()) {
+                    ready.put(entry.getKey(), entry.getValue());
+                }
+            }
+            if (!ready.isEmpty()) {
+                result = backupService.backupChanges(source.toString(), targetDir, ready.keySet(), backupOptions);
+                // 只移除备份期间没有再次变化的路径
+                for (Map.Entry<String, Long> entry : ready.entrySet()) {
+                    dirty.remove(entry.getKey(), entry.getValue());
+                }
+                stateChanged = true;
+            }
+        }
+        saveStateIfChanged();
+        return result;
+    }
+
+    /**
+     * 尚未处理的脏路径数
+     */
+    public int getPendingCount() {
+        return dirty.size();
+    }
+
+    /**
+     * 下一次处理是否为完整扫描
+     */
+    public boolean isRescanPending() {
+        return rescanPending || watchIncomplete;
+    }
+
+    // 监视线程：把事件合并到脏路径集合
+    private void watchLoop() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path directory = watchedDirectories.get(key);
+            if (directory == null) {
+                key.cancel();
+                continue;
+            }
+            long now = System.currentTimeMillis();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    requestRescan("目录监视事件溢出");
+                    continue;
+                }
+                Path child = directory.resolve((Path) event.context());
+                markDirty(child, now);
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && !WatchRegistration.isFileTree()
+                    && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                    // 新目录：注册其子树（注册前已创建的内容由目录整体复制覆盖）
+                    registerTree(child);
+                }
+            }
+            if (!key.reset()) {
+                watchedDirectories.remove(key);
+                if (directory.equals(source)) {
+                    requestRescan("源目录的监视已失效");
+                } else {
+                    markDirty(directory, now);
+                }
+            }
+        }
+    }
+
+    private void markDirty(Path path, long now) {
+        dirty.put(source.relativize(path).toString(), now);
+        stateChanged = true;
+    }
+
+    private void requestRescan(String reason) {
+        if (!rescanPending) {
+            System.err.println(reason + "，下一次将完整扫描: " + source);
+        }
+        rescanPending = true;
+        stateChanged = true;
+    }
+
+    // 注册目录及其所有子目录的监视
+    private void registerTree(Path root) {
+        try {
+            if (WatchRegistration.isFileTree()) {
+                if (root.equals(source)) {
+                    watchedDirectories.put(WatchRegistration.register(root, watchService), root);
+                }
+                return;
+            }
+            List<FileScanner.ScanRecord> records = FileScanner.scan(root, options.getBackupOptions());
+            for (FileScanner.ScanRecord record : records) {
+                if (record.getKind() == BackupService.FileKind.DIRECTORY) {
+                    watchedDirectories.put(WatchRegistration.register(record.getPath(), watchService), record.getPath());
+                }
+            }
+        } catch (IOException e) {
+            // 通常是inotify监视数达到上限（fs.inotify.max_user_watches）
+            if (!watchIncomplete) {
+                System.err.println("注册目录监视失败，改为每次完整扫描: " + root + " - " + e.getMessage());
+            }
+            watchIncomplete = true;
+        }
+    }
+
+    private void saveStateIfChanged() throws IOException {
+        if (stateChanged) {
+            saveState();
+        }
+    }
+
+    private ContinuousState loadState() throws IOException {
+        if (!Files.exists(stateFile)) {
+            return new ContinuousState();
+        }
+        String json = new String(Files.readAllBytes(stateFile), StandardCharsets.UTF_8);
+        ContinuousState state = gson.fromJson(json, ContinuousState.class);
+        return state != null && state.dirtyPaths != null ? state : new ContinuousState();
+    }
+
+    // 先写临时文件再原子替换，避免中断时损坏状态文件
+    private synchronized void saveState() throws IOException {
+        stateChanged = false;
+        ContinuousState state = new ContinuousState();
+        state.dirtyPaths = new ArrayList<>(dirty.keySet());
+        state.rescanPending = rescanPending;
+        Path parent = stateFile.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+        Files.write(temp, gson.toJson(state).getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 监视注册：通过反射使用JDK的扩展修饰符，不存在时使用标准注册
+     * FILE_TREE（仅Windows）一次注册监视整棵树；SensitivityWatchEventModifier.HIGH缩短轮询实现（macOS）的检测间隔，
+     * 其他实现忽略该修饰符
+     */
+    private static final class WatchRegistration {
+        private static final WatchEvent.Kind<?>[] KINDS = {
+            StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY
+        };
+        private static final WatchEvent.Modifier FILE_TREE =
+            System.getProperty("os.name", "").toLowerCase().contains("win")
+                ? loadModifier("com.sun.nio.file.ExtendedWatchEventModifier", "FILE_TREE") : null;
+        private static final WatchEvent.Modifier HIGH_SENSITIVITY =
+            loadModifier("com.sun.nio.file.SensitivityWatchEventModifier", "HIGH");
+
+        static boolean isFileTree() {
+            return FILE_TREE != null;
+        }
+
+        static WatchKey register(Path directory, WatchService watchService) throws IOException {
+            List<WatchEvent.Modifier> modifiers = new ArrayList<>();
+            if (FILE_TREE != null) {
+                modifiers.add(FILE_TREE);
+            }
+            if (HIGH_SENSITIVITY != null) {
+                modifiers.add(HIGH_SENSITIVITY);
+            }
+            return directory.register(watchService, KINDS, modifiers.toArray(new WatchEvent.Modifier[0]));
+        }
+
+        private static WatchEvent.Modifier loadModifier(String className, String name) {
+            try {
+                return (WatchEvent.Modifier) Class.forName(className).getField(name).get(null);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.backup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 二进制差量编码（rsync/xdelta风格）
+ * 将基准内容按固定大小分块建立弱滚动哈希索引，在新内容上逐字节滚动查找匹配块，
+ * 命中后逐字节确认并向前后扩展匹配范围，输出COPY（引用基准的一段）和INSERT（字面数据）指令流。
+ * 基准内容在内存中，因此用字节比较代替强哈希确认匹配。
+ *
+ * 差量格式：魔数(4) + 目标长度(8) + 指令序列 + 结束指令
+ *   COPY:   1(1) + 基准偏移(8) + 长度(4)
+ *   INSERT: 2(1) + 长度(4) + 数据
+ *   END:    0(1)
+ */
+public final class DeltaCodec {
+
+    private static final byte[] MAGIC = "FBD1".getBytes(StandardCharsets.UTF_8);
+
+    private static final int OP_END = 0;
+    private static final int OP_COPY = 1;
+    private static final int OP_INSERT = 2;
+
+    private static final int MIN_BLOCK_SIZE = 512;
+    private static final int MAX_BLOCK_SIZE = 64 * 1024;
+    // 同一弱哈希最多比较的候选块数，避免大量重复块时退化
+    private static final int MAX_CANDIDATES = 16;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private DeltaCodec() {}
+
+    /**
+     * 计算差量
+     * @param base 基准内容
+     * @param target 新内容
+     * @return 差量数据
+     */
+    public static byte[] encode(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            encode(base, target, out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 计算差量并写入输出流
+     */
+    public static void encode(byte[] base, byte[] target, OutputStream output) throws IOException {
+        DataOutputStream out = new DataOutputStream(output);
+        out.write(MAGIC);
+        out.writeLong(target.length);
+
+        int blockSize = blockSize(base.length);
+        BlockIndex index = new BlockIndex(base, blockSize);
+
+        int literalStart = 0;   // 尚未输出的字面数据起点
+        int position = 0;
+        int weak = 0;
+        boolean rolling = false;
+
+        while (position + blockSize <= target.length) {
+            if (!rolling) {
+                weak = weakHash(target, position, blockSize);
+                rolling = true;
+            }
+
+            int baseOffset = index.find(weak, target, position);
+            if (baseOffset >= 0) {
+                // 向后扩展
+                int length = blockSize;
+                int limit = Math.min(base.length - baseOffset, target.length - position) - blockSize;
+                if (limit > 0) {
+                    int diff = ByteKernels.mismatch(base, baseOffset + blockSize, target, position + blockSize, limit);
+                    length += diff < 0 ? limit : diff;
+                }
+                // 向前扩展，吃掉待输出字面数据的尾部
+                int start = position;
+                while (start > literalStart && baseOffset > 0 && base[baseOffset - 1] == target[start - 1]) {
+                    start--;
+                    baseOffset--;
+                    length++;
+                }
+
+                writeInsert(out, target, literalStart, start - literalStart);
+                out.writeByte(OP_COPY);
+                out.writeLong(baseOffset);
+                out.writeInt(length);
+
+                position = start + length;
+                literalStart = position;
+                rolling = false;
+                continue;
+            }
+
+            // 滚动一个字节
+            if (position + blockSize < target.length) {
+                weak = roll(weak, target[position], target[position + blockSize], blockSize);
+            }
+            position++;
+        }
+
+        writeInsert(out, target, literalStart, target.length - literalStart);
+        out.writeByte(OP_END);
+        out.flush();
+    }
+
+    /**
+     * 应用差量
+     * @param base 基准内容
+     * @param delta 差量数据
+     * @return 还原的新内容
+     */
+    public static byte[] apply(byte[] base, byte[] delta) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+        long targetLength = readHeader(in);
+        if (targetLength > Integer.MAX_VALUE - 8) {
+            throw new IOException("差量目标过大: " + targetLength);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) targetLength);
+        applyOps(base, in, out, targetLength);
+        return out.toByteArray();
+    }
+
+    /**
+     * 流式应用差量：顺序读取差量指令，边还原边写出
+     * @param base 基准内容
+     * @param delta 差量数据流
+     * @param output 输出流
+     * @return 写出的字节数
+     */
+    public static long apply(byte[] base, InputStream delta, OutputStream output) throws IOException {
+        DataInputStream in = new DataInputStream(delta);
+        long targetLength = readHeader(in);
+        applyOps(base, in, output, targetLength);
+        return targetLength;
+    }
+
+    private static long readHeader(DataInputStream in) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("无效的差量数据");
+        }
+        long targetLength = in.readLong();
+        if (targetLength < 0) {
+            throw new IOException("差量数据已损坏");
+        }
+        return targetLength;
+    }
+
+    private static void applyOps(byte[] base, DataInputStream in, OutputStream out, long targetLength) throws IOException {
+        long written = 0;
+        byte[] buffer = null;
+        try {
+            while (true) {
+                int op = in.readUnsignedByte();
+                if (op == OP_END) {
+                    break;
+                }
+                if (op == OP_COPY) {
+                    long offset = in.readLong();
+                    int length = in.readInt();
+                    if (offset < 0 || length < 0 || offset + length > base.length) {
+                        throw new IOException("差量引用超出基准范围 [" + offset + ", " + (offset + length) + ")");
+                    }
+                    out.write(base, (int) offset, length);
+                    written += length;
+                } else if (op == OP_INSERT) {
+                    int length = in.readInt();
+                    if (length < 0) {
+                        throw new IOException("差量数据已损坏");
+                    }
+                    if (buffer == null) {
+                        buffer = new byte[COPY_BUFFER_SIZE];
+                    }
+                    int remaining = length;
+                    while (remaining > 0) {
+                        int chunk = Math.min(remaining, buffer.length);
+                        in.readFully(buffer, 0, chunk);
+                        out.write(buffer, 0, chunk);
+                        remaining -= chunk;
+                    }
+                    written += length;
+                } else {
+                    throw new IOException("未知的差量指令: " + op);
+                }
+                if (written > targetLength) {
+                    throw new IOException("差量数据已损坏: 输出超过目标长度");
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException("差量数据意外结束", e);
+        }
+        if (written != targetLength) {
+            throw new IOException("差量数据已损坏: 输出 " + written + " 字节，预期 " + targetLength);
+        }
+    }
+
+    private static void writeInsert(DataOutputStream out, byte[] data, int from, int length) throws IOException {
+        if (length > 0) {
+            out.writeByte(OP_INSERT);
+            out.writeInt(length);
+            out.write(data, from, length);
+        }
+    }
+
+    // 块大小取基准长度的平方根附近的2的幂，兼顾索引大小和匹配粒度
+    static int blockSize(long baseLength) {
+        int size = Integer.highestOneBit(Math.max(1, (int) Math.min(Integer.MAX_VALUE, (long) Math.sqrt(baseLength))));
+        return Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, size));
+    }
+
+    // rsync弱校验和：a = Σx，b = Σ(n - i)·x，各取16位
+    static int weakHash(byte[] data, int from, int length) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            int x = data[from + i] & 0xFF;
+            a += x;
+            b += (length - i) * x;
+        }
+        return (b << 16) | (a & 0xFFFF);
+    }
+
+    // 窗口右移一个字节
+    static int roll(int weak, byte out, byte in, int length) {
+        int a = weak & 0xFFFF;
+        int b = weak >>> 16;
+        int x = out & 0xFF;
+        a = (a - x + (in & 0xFF)) & 0xFFFF;
+        b = (b - length * x + a) & 0xFFFF;
+        return (b << 16) | a;
+    }
+
+    /**
+     * 基准块索引：开放寻址哈希表，键为弱哈希，值为块号
+     */
+    private static class BlockIndex {
+        private final byte[] base;
+        private final int blockSize;
+        private final int[] hashes;
+        private final int[] blocks;     // 块号 + 1，0表示空槽
+        private final int mask;
+
+        BlockIndex(byte[] base, int blockSize) {
+            this.base = base;
+            this.blockSize = blockSize;
+            int count = base.length / blockSize;
+            int capacity = Integer.highestOneBit(Math.max(1, count) * 2 - 1) << 1;
+            this.hashes = new int[capacity];
+            this.blocks = new int[capacity];
+            this.mask = capacity - 1;
+            for (int block = 0; block < count; block++) {
+                int hash = weakHash(base, block * blockSize, blockSize);
+                int slot = mix(hash) & mask;
+                while (blocks[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                hashes[slot] = hash;
+                blocks[slot] = block + 1;
+            }
+        }
+
+        // 查找与target[position, position + blockSize)内容相同的基准块，返回其偏移，找不到返回-1
+        int find(int hash, byte[] target, int position) {
+            int slot = mix(hash) & mask;
+            int candidates = 0;
+            while (blocks[slot] != 0 && candidates < MAX_CANDIDATES) {
+                if (hashes[slot] == hash) {
+                    candidates++;
+                    int offset = (blocks[slot] - 1) * blockSize;
+                    if (ByteKernels.mismatch(base, offset, target, position, blockSize) < 0) {
+                        return offset;
+                    }
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private static int mix(int hash) {
+            hash *= 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -6,7 +6,17 @@ import java.nio.file.attribute.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -23,6 +33,14 @@ public class EnhancedBackupService extends BackupService {
         private BackupPackage.EncryptionMethod encryptionMethod = BackupPackage.EncryptionMethod.NONE;
         private String password = "";                 // 加密密码
         private String backupName = "";               // 备份名称
+        private boolean incremental = false;          // 是否增量打包（只写入变化的文件）
+        private String parentPackagePath = "";        // 增量备份的父包（为空时自动选择目标目录中同一来源的最新包）
+        private boolean compareContentHash = false;   // 增量比较时是否比较内容哈希
+        private boolean deltaEncoding = false;        // 增量备份中变化的大文件是否存储为二进制差量
+        private boolean deviceParallel = false;       // 批量备份/还原时不同设备上的来源并行处理
+        private int sourcesPerDevice = 1;             // 同一设备上同时处理的来源数（1表示串行）
+        private int memoryBudgetMB = 0;               // 进程内文件数据缓冲区的内存预算（MB，0表示不限制，见MemoryBudget）
+        private transient String backupNameSuffix = ""; // 批量备份时加在包名后的来源序号
         
         public EnhancedBackupOptions() {
             super();
@@ -53,6 +71,72 @@ public class EnhancedBackupService extends BackupService {
         
         public String getBackupName() { return backupName; }
         public void setBackupName(String backupName) { this.backupName = backupName; }
+        
+        public boolean isIncremental() { return incremental; }
+        public void setIncremental(boolean incremental) { this.incremental = incremental; }
+        
+        public String getParentPackagePath() { return parentPackagePath; }
+        public void setParentPackagePath(String parentPackagePath) { this.parentPackagePath = parentPackagePath; }
+        
+        public boolean isCompareContentHash() { return compareContentHash; }
+        public void setCompareContentHash(boolean compareContentHash) { this.compareContentHash = compareContentHash; }
+        
+        public boolean isDeltaEncoding() { return deltaEncoding; }
+        public void setDeltaEncoding(boolean deltaEncoding) { this.deltaEncoding = deltaEncoding; }
+        
+        public boolean isDeviceParallel() { return deviceParallel; }
+        public void setDeviceParallel(boolean deviceParallel) { this.deviceParallel = deviceParallel; }
+        
+        public int getSourcesPerDevice() { return sourcesPerDevice; }
+        public void setSourcesPerDevice(int sourcesPerDevice) { this.sourcesPerDevice = sourcesPerDevice; }
+        
+        public int getMemoryBudgetMB() { return memoryBudgetMB; }
+        public void setMemoryBudgetMB(int memoryBudgetMB) { this.memoryBudgetMB = memoryBudgetMB; }
+        
+        String getBackupNameSuffix() { return backupNameSuffix; }
+        void setBackupNameSuffix(String backupNameSuffix) { this.backupNameSuffix = backupNameSuffix; }
+        
+        @Override
+        public EnhancedBackupOptions copy() { return (EnhancedBackupOptions) super.copy(); }
+    }
+    
+    // 批量备份/还原中每个设备的统计
+    public static class DeviceStats {
+        private final String device;
+        private final List<String> sources = new ArrayList<>();
+        private int files;
+        private long totalSize;
+        private int failures;
+        private long elapsedMillis;
+        
+        public DeviceStats(String device) {
+            this.device = device;
+        }
+        
+        public String getDevice() { return device; }
+        public List<String> getSources() { return sources; }
+        public int getFiles() { return files; }
+        public long getTotalSize() { return totalSize; }          // 还原时不统计
+        public int getFailures() { return failures; }
+        public long getElapsedMillis() { return elapsedMillis; }  // 设备上各来源的处理时间之和
+        
+        synchronized void record(int files, long totalSize, boolean success) {
+            this.files += files;
+            this.totalSize += totalSize;
+            if (!success) {
+                failures++;
+            }
+        }
+        
+        synchronized void addElapsed(long millis) {
+            elapsedMillis += millis;
+        }
+        
+        @Override
+        public String toString() {
+            return device + ": " + sources.size() + " 个来源, " + files + " 个文件, " + elapsedMillis + "ms"
+                + (failures > 0 ? ", " + failures + " 个失败" : "");
+        }
     }
     
     // 备份结果
@@ -80,6 +164,7 @@ public class EnhancedBackupService extends BackupService {
         private final boolean packaged;        // 是否已打包
         private final boolean compressed;      // 是否已压缩
         private final boolean encrypted;       // 是否已加密
+        private final List<DeviceStats> deviceStats; // 批量备份中每个设备的统计
         
         public EnhancedBackupResult(int filesCopied, int directoriesCreated, long totalSize, 
                                    String message, String packagePath, boolean packaged, 
@@ -89,39 +174,59 @@ public class EnhancedBackupService extends BackupService {
             this.packaged = packaged;
             this.compressed = compressed;
             this.encrypted = encrypted;
+            this.deviceStats = new ArrayList<>();
         }
         
         public EnhancedBackupResult(int filesCopied, int directoriesCreated, long totalSize, 
                                    String message, List<String> successfulPaths, 
                                    String packagePath, boolean packaged, 
                                    boolean compressed, boolean encrypted) {
+            this(filesCopied, directoriesCreated, totalSize, message, successfulPaths, packagePath,
+                 packaged, compressed, encrypted, new ArrayList<>());
+        }
+        
+        public EnhancedBackupResult(int filesCopied, int directoriesCreated, long totalSize, 
+                                   String message, List<String> successfulPaths, 
+                                   String packagePath, boolean packaged, 
+                                   boolean compressed, boolean encrypted, List<DeviceStats> deviceStats) {
             super(filesCopied, directoriesCreated, totalSize, message, successfulPaths);
             this.packagePath = packagePath;
             this.packaged = packaged;
             this.compressed = compressed;
             this.encrypted = encrypted;
+            this.deviceStats = deviceStats;
         }
         
         public String getPackagePath() { return packagePath; }
         public boolean isPackaged() { return packaged; }
         public boolean isCompressed() { return compressed; }
         public boolean isEncrypted() { return encrypted; }
+        public List<DeviceStats> getDeviceStats() { return deviceStats; }
     }
     
     // 还原结果
     public static class EnhancedRestoreResult extends RestoreResult {
         private final boolean fromPackage;     // 是否从包中还原
         private final String packagePath;      // 包文件路径
+        private final List<DeviceStats> deviceStats; // 批量还原中每个设备的统计
         
         public EnhancedRestoreResult(boolean success, String targetPath, String error, 
                                     int restoredFiles, boolean fromPackage, String packagePath) {
+            this(success, targetPath, error, restoredFiles, fromPackage, packagePath, new ArrayList<>());
+        }
+        
+        public EnhancedRestoreResult(boolean success, String targetPath, String error, 
+                                    int restoredFiles, boolean fromPackage, String packagePath,
+                                    List<DeviceStats> deviceStats) {
             super(success, targetPath, error, restoredFiles);
             this.fromPackage = fromPackage;
             this.packagePath = packagePath;
+            this.deviceStats = deviceStats;
         }
         
         public boolean isFromPackage() { return fromPackage; }
         public String getPackagePath() { return packagePath; }
+        public List<DeviceStats> getDeviceStats() { return deviceStats; }
     }
     
     // 验证结果
@@ -130,18 +235,49 @@ public class EnhancedBackupService extends BackupService {
         private final int checkedFiles;
         private final int failedFiles;
         private final String error;
+        private final List<PackageVerifier.EntryResult> failures;
+        private final long bytesVerified;
+        private final long elapsedMillis;
+        private final int repairedStripes;
+        private final int skippedFiles;
         
         public VerifyResult(boolean success, int checkedFiles, int failedFiles, String error) {
+            this(success, checkedFiles, failedFiles, error, new ArrayList<>(), 0, 0, 0);
+        }
+        
+        public VerifyResult(boolean success, int checkedFiles, int failedFiles, String error,
+                           List<PackageVerifier.EntryResult> failures, long bytesVerified, long elapsedMillis,
+                           int repairedStripes) {
+            this(success, checkedFiles, failedFiles, error, failures, bytesVerified, elapsedMillis, repairedStripes, 0);
+        }
+        
+        public VerifyResult(boolean success, int checkedFiles, int failedFiles, String error,
+                           List<PackageVerifier.EntryResult> failures, long bytesVerified, long elapsedMillis,
+                           int repairedStripes, int skippedFiles) {
             this.success = success;
             this.checkedFiles = checkedFiles;
             this.failedFiles = failedFiles;
             this.error = error;
+            this.failures = failures;
+            this.bytesVerified = bytesVerified;
+            this.elapsedMillis = elapsedMillis;
+            this.repairedStripes = repairedStripes;
+            this.skippedFiles = skippedFiles;
         }
         
         public boolean isSuccess() { return success; }
         public int getCheckedFiles() { return checkedFiles; }
         public int getFailedFiles() { return failedFiles; }
         public String getError() { return error; }
+        public List<PackageVerifier.EntryResult> getFailures() { return failures; }
+        public long getBytesVerified() { return bytesVerified; }
+        public long getElapsedMillis() { return elapsedMillis; }
+        public int getRepairedStripes() { return repairedStripes; }
+        // 未记录存储校验和的加密文件，快速验证时跳过
+        public int getSkippedFiles() { return skippedFiles; }
+        public long getBytesPerSecond() {
+            return elapsedMillis > 0 ? bytesVerified * 1000 / elapsedMillis : bytesVerified;
+        }
     }
     
     private static final DateTimeFormatter BACKUP_NAME_FORMATTER = 
@@ -158,12 +294,14 @@ public class EnhancedBackupService extends BackupService {
         if (!Files.exists(sourcePath)) {
             return new EnhancedBackupResult(0, 0, 0, "源路径不存在", null, false, false, false);
         }
+        applyMemoryBudget(options);
         
         // 如果启用打包模式
         if (options.isPackageMode()) {
             return backupWithPackage(sourcePathStr, targetDir, options);
         } else {
-            // 使用原有的目录模式备份
+            // 使用原有的目录模式备份，压缩/加密选项作用于每个文件
+            applyFileEncoding(options);
             BackupResult result = super.backup(sourcePathStr, targetDir, options);
             // 创建成功路径列表
             List<String> successfulPaths = new ArrayList<>();
@@ -181,6 +319,22 @@ public class EnhancedBackupService extends BackupService {
         }
     }
     
+    // 设置了内存预算时应用到进程内共享的预算
+    private static void applyMemoryBudget(EnhancedBackupOptions options) {
+        if (options.getMemoryBudgetMB() > 0) {
+            MemoryBudget.global().setLimitMegabytes(options.getMemoryBudgetMB());
+        }
+    }
+    
+    // 目录模式下把压缩/加密选项映射为逐文件编码选项
+    private void applyFileEncoding(EnhancedBackupOptions options) {
+        options.setFileCompression(options.isCompress() ? options.getCompressionMethod() : BackupPackage.CompressionMethod.NONE);
+        options.setFileEncryption(options.isEncrypt() ? options.getEncryptionMethod() : BackupPackage.EncryptionMethod.NONE);
+        if (options.getPassword() != null && !options.getPassword().isEmpty()) {
+            options.setFilePassword(options.getPassword());
+        }
+    }
+    
     /**
      * 打包模式备份
      */
@@ -189,12 +343,23 @@ public class EnhancedBackupService extends BackupService {
         Path sourcePath = Paths.get(sourcePathStr);
         Path targetPath = Paths.get(targetDir);
         
+        // 增量模式：确定父包，找不到时退回完整备份
+        String parentPackage = null;
+        if (options.isIncremental()) {
+            parentPackage = options.getParentPackagePath();
+            if (parentPackage == null || parentPackage.trim().isEmpty()) {
+                parentPackage = findLatestPackage(targetPath, sourcePathStr);
+            }
+        }
+        
         // 生成备份名称
         String backupName = options.getBackupName();
         if (backupName == null || backupName.trim().isEmpty()) {
             backupName = sourcePath.getFileName().toString() + "_" + 
-                        LocalDateTime.now().format(BACKUP_NAME_FORMATTER);
+                        LocalDateTime.now().format(BACKUP_NAME_FORMATTER) +
+                        (parentPackage != null ? "_incr" : "");
         }
+        backupName += options.getBackupNameSuffix();
         
         // 生成包文件路径
         String packageFileName = backupName + ".fbk";
@@ -203,7 +368,21 @@ public class EnhancedBackupService extends BackupService {
         try {
             // 创建备份包（支持加密和压缩）
             boolean success;
-            if (options.isCompress() || options.isEncrypt()) {
+            if (parentPackage != null) {
+                success = BackupPackage.createIncrementalPackage(
+                    sourcePathStr,
+                    packagePath.toString(),
+                    options,
+                    options.isCompress(),
+                    options.isEncrypt(),
+                    options.getCompressionMethod(),
+                    options.getEncryptionMethod(),
+                    options.getPassword(),
+                    parentPackage,
+                    options.isCompareContentHash(),
+                    options.isDeltaEncoding()
+                );
+            } else if (options.isCompress() || options.isEncrypt()) {
                 // 使用加密/压缩版本
                 success = BackupPackage.createPackage(
                     sourcePathStr, 
@@ -225,11 +404,25 @@ public class EnhancedBackupService extends BackupService {
                 List<String> successfulPaths = new ArrayList<>();
                 successfulPaths.add(sourcePathStr);
                 
+                String message = "打包备份完成: " + packageFileName;
+                if (parentPackage != null) {
+                    int changed = 0;
+                    int deleted = 0;
+                    for (BackupPackage.FileRecord record : BackupPackage.getPackageInfo(packagePath.toString()).getFiles()) {
+                        if (record.isDeleted()) {
+                            deleted++;
+                        } else if (record.isHasData()) {
+                            changed++;
+                        }
+                    }
+                    message = "增量打包备份完成: " + packageFileName + " (变化文件: " + changed + ", 删除: " + deleted + ")";
+                }
+                
                 return new EnhancedBackupResult(
                     1,  // 包文件算作一个文件
                     0,  // 没有创建目录
                     Files.size(packagePath),
-                    "打包备份完成: " + packageFileName,
+                    message,
                     successfulPaths,
                     packagePath.toString(), true, options.isCompress(), options.isEncrypt()
                 );
@@ -237,10 +430,48 @@ public class EnhancedBackupService extends BackupService {
                 return new EnhancedBackupResult(0, 0, 0, "打包备份失败", null, false, false, false);
             }
         } catch (Exception e) {
+            // 删除未完成的包文件，避免之后被当作增量备份的父包
+            try {
+                Files.deleteIfExists(packagePath);
+            } catch (IOException deleteError) {
+                System.err.println("删除未完成的包文件失败: " + packagePath + " - " + deleteError.getMessage());
+            }
             return new EnhancedBackupResult(0, 0, 0, "打包备份失败: " + e.getMessage(), null, false, false, false);
         }
     }
     
+    /**
+     * 查找目标目录中同一来源的最新包，作为增量备份的父包
+     * @return 包路径，没有时返回null
+     */
+    private String findLatestPackage(Path targetPath, String sourcePathStr) throws IOException {
+        if (!Files.isDirectory(targetPath)) {
+            return null;
+        }
+        String rootName = Paths.get(sourcePathStr).getFileName().toString();
+        String latestPath = null;
+        String latestCreatedAt = null;
+        
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(targetPath, "*.fbk")) {
+            for (Path candidate : stream) {
+                try {
+                    BackupPackage.BackupManifest manifest = BackupPackage.getPackageInfo(candidate.toString());
+                    boolean sameSource = manifest.getSourcePath() != null
+                        ? manifest.getSourcePath().equals(sourcePathStr)
+                        : rootName.equals(manifest.getRootName());
+                    if (sameSource && (latestCreatedAt == null || manifest.getCreatedAt().compareTo(latestCreatedAt) > 0)) {
+                        latestCreatedAt = manifest.getCreatedAt();
+                        latestPath = candidate.toString();
+                    }
+                } catch (Exception e) {
+                    // 跳过无法读取的包
+                    System.err.println("跳过无法读取的包: " + candidate + " - " + e.getMessage());
+                }
+            }
+        }
+        return latestPath;
+    }
+    
     /**
      * 执行还原（支持从包中还原）
      */
@@ -251,20 +482,17 @@ public class EnhancedBackupService extends BackupService {
         if (!Files.exists(sourcePath)) {
             return new EnhancedRestoreResult(false, targetDir, "源路径不存在", 0, false, null);
         }
+        applyMemoryBudget(options);
         
         // 检查是否为包文件
         if (sourcePathStr.toLowerCase().endsWith(".fbk")) {
             return restoreFromPackage(sourcePathStr, targetDir, options);
         } else {
-            // 使用原有的目录模式还原
-            BackupResult result = super.backup(sourcePathStr, targetDir, options);
+            // 使用原有的目录模式还原，逐文件压缩/加密的文件自动解码
+            applyFileEncoding(options);
+            BackupResult result = super.restore(sourcePathStr, targetDir, options);
             // 根据消息判断是否成功
-            boolean success = result.getMessage().equals("备份完成") || 
-                             result.getMessage().equals("文件备份完成") ||
-                             result.getMessage().contains("完成");
-            // 注意：这里应该是还原操作，但使用了错误的父类方法名
-            // 实际上应该使用还原方法，但由于BackupService中没有现成的还原方法
-            // 我们需要创建一个临时的返回值
+            boolean success = result.getMessage().contains("完成");
             return new EnhancedRestoreResult(
                 success,
                 targetDir,
@@ -289,16 +517,17 @@ public class EnhancedBackupService extends BackupService {
             boolean success;
             if (options.isEncrypt() && options.getPassword() != null && !options.getPassword().isEmpty()) {
                 // 使用支持密码和元数据保留的版本
-                success = BackupPackage.extractPackage(packagePathStr, targetDir, options.getPassword(), options.isPreserveMetadata());
+                success = BackupPackage.extractPackage(packagePathStr, targetDir, options.getPassword(),
+                                                       options.isPreserveMetadata(), options.getThrottle());
             } else {
                 // 使用支持元数据保留的版本
-                success = BackupPackage.extractPackage(packagePathStr, targetDir, options.isPreserveMetadata());
+                success = BackupPackage.extractPackage(packagePathStr, targetDir, null,
+                                                       options.isPreserveMetadata(), options.getThrottle());
             }
             
             if (success) {
-                // 获取包信息以统计文件数量
-                BackupPackage.BackupManifest manifest = BackupPackage.getPackageInfo(packagePathStr);
-                int fileCount = manifest.getFiles().size();
+                // 统计还原的文件数量（增量包包含整条增量链）
+                int fileCount = BackupPackage.listFiles(packagePathStr).size();
                 
                 return new EnhancedRestoreResult(
                     true,
@@ -331,8 +560,17 @@ public class EnhancedBackupService extends BackupService {
         boolean anyCompressed = false;
         boolean anyEncrypted = false;
         
-        for (String sourcePath : sourcePaths) {
-            EnhancedBackupResult result = enhancedBackup(sourcePath, targetDir, options);
+        List<DeviceStats> deviceStats = new ArrayList<>();
+        List<EnhancedBackupResult> results = runByDevice(sourcePaths, options, deviceStats,
+            (sourcePath, sourceOptions) -> enhancedBackup(sourcePath, targetDir, sourceOptions),
+            (device, result) -> device.record(result.getFilesCopied(), result.getTotalSize(),
+                                              !result.getSuccessfulPaths().isEmpty()),
+            // 打包模式的包名按来源序号区分，目录模式写入目标目录下与来源同名的目录
+            sourcePath -> options.isPackageMode() ? null : backupTarget(targetDir, sourcePath));
+        
+        for (int i = 0; i < sourcePaths.size(); i++) {
+            String sourcePath = sourcePaths.get(i);
+            EnhancedBackupResult result = results.get(i);
             totalFilesCopied += result.getFilesCopied();
             totalDirectoriesCreated += result.getDirectoriesCreated();
             totalSize += result.getTotalSize();
@@ -344,10 +582,9 @@ public class EnhancedBackupService extends BackupService {
             if (result.isCompressed()) anyCompressed = true;
             if (result.isEncrypted()) anyEncrypted = true;
             
-            if (result.getMessage().equals("备份完成") || 
-                result.getMessage().equals("打包备份完成") ||
-                result.getMessage().equals("文件备份完成")) {
-                successfulPaths.add(sourcePath);
+            // 以单个来源结果的成功路径为准，打包模式的消息带有包名，不能按消息判断
+            if (!result.getSuccessfulPaths().isEmpty()) {
+                successfulPaths.addAll(result.getSuccessfulPaths());
             } else {
                 messages.add(sourcePath + ": " + result.getMessage());
             }
@@ -367,10 +604,33 @@ public class EnhancedBackupService extends BackupService {
             packagePath,
             anyPackaged,
             anyCompressed,
-            anyEncrypted
+            anyEncrypted,
+            deviceStats
         );
     }
     
+    // 目录模式备份的目标路径
+    private static Path backupTarget(String targetDir, String sourcePath) {
+        Path fileName = Paths.get(sourcePath).getFileName();
+        return fileName != null ? Paths.get(targetDir).resolve(fileName.toString()) : null;
+    }
+    
+    // 还原的目标路径：包还原到目标目录下的根目录名，目录还原到同名目录
+    private static Path restoreTarget(String targetDir, String sourcePath) {
+        if (sourcePath.toLowerCase().endsWith(".fbk")) {
+            try {
+                String rootName = BackupPackage.getPackageInfo(sourcePath).getRootName();
+                if (rootName != null) {
+                    return Paths.get(targetDir).resolve(rootName);
+                }
+            } catch (Exception e) {
+                // 无法读取的包在还原时报告错误
+                return null;
+            }
+        }
+        return backupTarget(targetDir, sourcePath);
+    }
+    
     /**
      * 批量还原
      */
@@ -381,8 +641,15 @@ public class EnhancedBackupService extends BackupService {
         boolean anyFromPackage = false;
         String packagePath = null;
         
-        for (String sourcePath : sourcePaths) {
-            EnhancedRestoreResult result = enhancedRestore(sourcePath, targetDir, options);
+        List<DeviceStats> deviceStats = new ArrayList<>();
+        List<EnhancedRestoreResult> results = runByDevice(sourcePaths, options, deviceStats,
+            (sourcePath, sourceOptions) -> enhancedRestore(sourcePath, targetDir, sourceOptions),
+            (device, result) -> device.record(result.getRestoredFiles(), 0, result.isSuccess()),
+            sourcePath -> restoreTarget(targetDir, sourcePath));
+        
+        for (int i = 0; i < sourcePaths.size(); i++) {
+            String sourcePath = sourcePaths.get(i);
+            EnhancedRestoreResult result = results.get(i);
             totalRestoredFiles += result.getRestoredFiles();
             
             if (result.isFromPackage()) {
@@ -404,36 +671,251 @@ public class EnhancedBackupService extends BackupService {
             message,
             totalRestoredFiles,
             anyFromPackage,
-            packagePath
+            packagePath,
+            deviceStats
         );
     }
     
+    /**
+     * 批量任务中单个来源的处理（每个来源使用自己的选项副本）
+     */
+    private interface SourceTask<R> {
+        R run(String sourcePath, EnhancedBackupOptions options) throws IOException;
+    }
+    
+    /**
+     * 单个来源完成后记入设备统计
+     */
+    private interface SourceStats<R> {
+        void record(DeviceStats device, R result);
+    }
+    
+    /**
+     * 单个来源写入的目标路径，用于检查并行的来源之间是否冲突（不会冲突时返回null）
+     */
+    private interface TargetResolver {
+        Path resolve(String sourcePath);
+    }
+    
+    /**
+     * 按来源所在的设备（FileStore）分组处理多个来源
+     * 启用deviceParallel时不同设备上的来源并行处理，同一设备上的来源最多同时处理sourcesPerDevice个（默认1个，即串行），
+     * 避免多个任务同时读取同一块机械硬盘造成来回寻道，总耗时取决于最慢的设备而不是所有来源之和。
+     * 多个来源写入同一目标路径时（例如不同设备上的同名目录）不并行，按顺序处理。
+     * 每个来源使用选项的副本；包名会相同的来源加上来源序号后缀，避免写入同一个包文件。
+     * 结果按来源的原始顺序返回；有来源抛出异常时等待其他来源结束后抛出（按来源顺序的）第一个异常。
+     * 未启用deviceParallel（默认）时在调用线程上按顺序处理。
+     */
+    private static <R> List<R> runByDevice(List<String> sourcePaths, EnhancedBackupOptions options,
+                                           List<DeviceStats> deviceStats, SourceTask<R> task,
+                                           SourceStats<R> stats, TargetResolver targets) throws IOException {
+        Map<Object, DeviceStats> devices = new LinkedHashMap<>();
+        Map<DeviceStats, Queue<Integer>> pending = new LinkedHashMap<>();
+        List<DeviceStats> sourceDevices = new ArrayList<>();
+        List<EnhancedBackupOptions> sourceOptions = new ArrayList<>();
+        Set<Integer> nameConflicts = packageNameConflicts(sourcePaths, options);
+        for (int i = 0; i < sourcePaths.size(); i++) {
+            Path path = Paths.get(sourcePaths.get(i));
+            Object key;
+            String name;
+            try {
+                FileStore store = Files.getFileStore(path);
+                key = store;
+                name = store.name() + " (" + store.type() + ")";
+            } catch (IOException e) {
+                // 无法确定设备（例如路径不存在）时单独成组
+                key = path;
+                name = path.toString();
+            }
+            DeviceStats device = devices.get(key);
+            if (device == null) {
+                device = new DeviceStats(name);
+                devices.put(key, device);
+                pending.put(device, new ConcurrentLinkedQueue<>());
+            }
+            device.sources.add(sourcePaths.get(i));
+            pending.get(device).add(i);
+            sourceDevices.add(device);
+            
+            EnhancedBackupOptions copy = options.copy();
+            if (nameConflicts.contains(i)) {
+                copy.setBackupNameSuffix("_" + (i + 1));
+            }
+            sourceOptions.add(copy);
+        }
+        deviceStats.addAll(devices.values());
+        
+        List<R> results = new ArrayList<>();
+        if (!options.isDeviceParallel() || devices.size() <= 1 && options.getSourcesPerDevice() <= 1
+            || hasTargetConflict(sourcePaths, targets)) {
+            for (int i = 0; i < sourcePaths.size(); i++) {
+                long started = System.currentTimeMillis();
+                R result = task.run(sourcePaths.get(i), sourceOptions.get(i));
+                sourceDevices.get(i).addElapsed(System.currentTimeMillis() - started);
+                stats.record(sourceDevices.get(i), result);
+                results.add(result);
+            }
+            return results;
+        }
+        
+        // 每个设备sourcesPerDevice个处理任务，各自从设备的队列中取下一个来源
+        Object[] completed = new Object[sourcePaths.size()];
+        Throwable[] failures = new Throwable[sourcePaths.size()];
+        List<Runnable> lanes = new ArrayList<>();
+        for (Map.Entry<DeviceStats, Queue<Integer>> entry : pending.entrySet()) {
+            DeviceStats device = entry.getKey();
+            Queue<Integer> queue = entry.getValue();
+            int laneCount = Math.max(1, Math.min(options.getSourcesPerDevice(), queue.size()));
+            for (int lane = 0; lane < laneCount; lane++) {
+                lanes.add(() -> {
+                    Integer index;
+                    while ((index = queue.poll()) != null) {
+                        long started = System.currentTimeMillis();
+                        try {
+                            R result = task.run(sourcePaths.get(index), sourceOptions.get(index));
+                            stats.record(device, result);
+                            completed[index] = result;
+                        } catch (IOException | RuntimeException | Error e) {
+                            device.record(0, 0, false);
+                            failures[index] = e;
+                        } finally {
+                            device.addElapsed(System.currentTimeMillis() - started);
+                        }
+                    }
+                });
+            }
+        }
+        ExecutorService executor = IoExecutors.newCpuExecutor("backup-device", lanes.size());
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Runnable lane : lanes) {
+                futures.add(executor.submit(lane));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("批量任务被中断", e);
+        } catch (ExecutionException e) {
+            // 处理任务自身捕获了来源的异常，这里只可能是意外错误
+            throw new IOException("批量任务失败: " + e.getCause(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        for (int i = 0; i < sourcePaths.size(); i++) {
+            Throwable failure = failures[i];
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            @SuppressWarnings("unchecked")
+            R result = (R) completed[i];
+            results.add(result);
+        }
+        return results;
+    }
+    
+    // 是否有多个来源写入同一目标路径
+    private static boolean hasTargetConflict(List<String> sourcePaths, TargetResolver targets) {
+        Set<Path> seen = new HashSet<>();
+        for (String sourcePath : sourcePaths) {
+            Path target = targets.resolve(sourcePath);
+            if (target != null && !seen.add(target.toAbsolutePath().normalize())) {
+                System.out.println("多个来源写入同一目标路径，改为顺序处理: " + target);
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * 找出包名会相同的来源序号
+     * 指定了备份名称时多个来源的包名都相同；否则包名由来源名称加时间生成，只有来源名称相同的来源会冲突。
+     */
+    private static Set<Integer> packageNameConflicts(List<String> sourcePaths, EnhancedBackupOptions options) {
+        Set<Integer> conflicts = new HashSet<>();
+        if (sourcePaths.size() <= 1) {
+            return conflicts;
+        }
+        String backupName = options.getBackupName();
+        Map<String, List<Integer>> byName = new HashMap<>();
+        for (int i = 0; i < sourcePaths.size(); i++) {
+            String name;
+            if (backupName != null && !backupName.trim().isEmpty()) {
+                name = backupName;
+            } else {
+                Path fileName = Paths.get(sourcePaths.get(i)).getFileName();
+                name = fileName != null ? fileName.toString() : sourcePaths.get(i);
+            }
+            byName.computeIfAbsent(name, key -> new ArrayList<>()).add(i);
+        }
+        for (List<Integer> indexes : byName.values()) {
+            if (indexes.size() > 1) {
+                conflicts.addAll(indexes);
+            }
+        }
+        return conflicts;
+    }
+    
     /**
      * 验证备份包
      */
     public VerifyResult verifyPackage(String packagePathStr) throws IOException {
-        return verifyPackage(packagePathStr, null);  // 不提供密码，仅验证存储的数据完整性
+        // 不提供密码，仅验证存储的数据完整性
+        return verifyPackage(packagePathStr, null, BackupPackage.VerifyMode.FAST);
     }
     
     /**
      * 验证备份包（支持加密包）
      */
     public VerifyResult verifyPackage(String packagePathStr, String password) throws IOException {
+        return verifyPackage(packagePathStr, password, BackupPackage.VerifyMode.DEEP);
+    }
+    
+    /**
+     * 按指定模式验证备份包
+     */
+    public VerifyResult verifyPackage(String packagePathStr, String password, BackupPackage.VerifyMode mode) throws IOException {
         try {
-            boolean success = BackupPackage.verifyPackage(packagePathStr, password);
-            if (success) {
-                // 获取包信息以统计文件数量
-                BackupPackage.BackupManifest manifest = BackupPackage.getPackageInfo(packagePathStr);
-                int fileCount = manifest.getFiles().size();
-                return new VerifyResult(true, fileCount, 0, null);
-            } else {
-                return new VerifyResult(false, 0, 1, "包验证失败");
-            }
+            // 包含纠删校验区的包在验证失败时会先原地修复
+            PackageVerifier.Report report = new PackageVerifier(packagePathStr, password, mode).verifyAndRepair();
+            String error = report.isSuccess() ? null : report.getFailedEntries() + " 个文件验证失败";
+            int repairedStripes = report.getRepair() != null ? report.getRepair().getRepairedStripes() : 0;
+            return new VerifyResult(report.isSuccess(), report.getCheckedEntries(), report.getFailedEntries(), error,
+                                    report.getFailures(), report.getBytesVerified(), report.getElapsedMillis(),
+                                    repairedStripes, report.getSkippedEntries());
         } catch (Exception e) {
             return new VerifyResult(false, 0, 1, "验证失败: " + e.getMessage());
         }
     }
     
+    /**
+     * 将增量链合并为新的完整包（合成完整备份）
+     */
+    public boolean synthesizeFullPackage(String packagePathStr, String outputPathStr, String password,
+                                         EnhancedBackupOptions options) throws IOException {
+        return BackupPackage.synthesizeFullPackage(packagePathStr, outputPathStr, password, options);
+    }
+    
+    /**
+     * 使用纠删校验区修复备份包
+     */
+    public PackageParity.RepairReport repairPackage(String packagePathStr) throws IOException {
+        return BackupPackage.repairPackage(packagePathStr);
+    }
+    
+    /**
+     * 修改备份包密码（仅重写包头密钥槽）
+     */
+    public void changePackagePassword(String packagePathStr, String oldPassword, String newPassword) throws IOException {
+        BackupPackage.changePassword(packagePathStr, oldPassword, newPassword);
+    }
+    
     /**
      * 获取包文件信息
      */
@@ -36,6 +36,9 @@ public class EnhancedMainController extends MainControllerFixed {
     @FXML
     private CheckBox encryptCheck;
     
+    @FXML
+    private CheckBox incrementalCheck;
+    
     @FXML
     private ComboBox<String> compressionMethodCombo;
     
@@ -313,6 +316,7 @@ public class EnhancedMainController extends MainControllerFixed {
         options.setPackageMode(packageModeCheck.isSelected());
         options.setCompress(compressCheck.isSelected());
         options.setEncrypt(encryptCheck.isSelected());
+        options.setIncremental(incrementalCheck.isSelected());
         options.setBackupName(backupNameField.getText());
         options.setPassword(passwordField.getText());
         
@@ -595,10 +599,11 @@ public class EnhancedMainController extends MainControllerFixed {
             protected EnhancedBackupService.VerifyResult call() throws Exception {
                 // 获取密码 - 使用还原界面的密码框
                 String password = restorePasswordField != null ? restorePasswordField.getText() : null;
-                if (password == null) {
-                    password = "";
+                if (password == null || password.isEmpty()) {
+                    // 未输入密码时进行快速验证，只校验存储数据
+                    return enhancedBackupService.verifyPackage(packagePath);
                 }
-                // 使用带密码的验证方法
+                // 使用带密码的完整验证
                 return enhancedBackupService.verifyPackage(packagePath, password);
             }
         };
@@ -606,11 +611,21 @@ public class EnhancedMainController extends MainControllerFixed {
         verifyTask.setOnSucceeded(event -> {
             EnhancedBackupService.VerifyResult result = verifyTask.getValue();
             if (result.isSuccess()) {
+                String repaired = result.getRepairedStripes() > 0
+                    ? "\n已修复损坏条带: " + result.getRepairedStripes() : "";
+                if (result.getSkippedFiles() > 0) {
+                    repaired += "\n未校验的加密文件（旧版本包，需要密码）: " + result.getSkippedFiles();
+                }
                 showAlert("验证成功", 
-                    String.format("包文件验证通过\n检查文件数: %d\n失败文件数: %d",
-                        result.getCheckedFiles(), result.getFailedFiles()));
+                    String.format("包文件验证通过\n检查文件数: %d\n失败文件数: %d\n吞吐量: %s/s (%d ms)%s",
+                        result.getCheckedFiles(), result.getFailedFiles(),
+                        formatSize(result.getBytesPerSecond()), result.getElapsedMillis(), repaired));
             } else {
-                showAlert("验证失败", result.getError());
+                StringBuilder message = new StringBuilder(result.getError());
+                for (PackageVerifier.EntryResult failure : result.getFailures()) {
+                    message.append("\n").append(failure);
+                }
+                showAlert("验证失败", message.toString());
             }
         });
         
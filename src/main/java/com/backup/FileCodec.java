@@ -0,0 +1,368 @@
+package com.backup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * 目录模式的逐文件压缩和加密
+ * 文件按1MB分块，每块复用BackupPackage的压缩和加密方法独立编码（压缩无效时该块保持原样），
+ * 边读边写，不需要把整个文件读入内存。编码后的文件名加 .fbe 后缀，目录结构保持不变。
+ * 加密使用备份根目录下密钥文件（密钥槽）中的随机数据密钥；每块的密钥由数据密钥、文件随机数和块序号派生，
+ * 避免流密码在不同文件或不同块之间重复使用密钥流。
+ *
+ * 文件格式：魔数(4) + 压缩方法(1) + 加密方法(1) + 文件随机数(16) + 原始大小(8)
+ *         + 若干块：原始长度(4) + 存储长度(4) + 是否压缩(1) + 原始数据CRC32C(4) + 存储数据
+ */
+public final class FileCodec {
+
+    // 编码文件的后缀
+    public static final String SUFFIX = ".fbe";
+    // 备份根目录下的密钥文件
+    public static final String KEY_FILE_NAME = ".fbkeys";
+
+    static final int CHUNK_SIZE = 1 << 20;
+    // 编码/解码一个文件占用的内存（读缓冲区、当前块和编码结果），从内存预算中申请
+    private static final long WORKING_MEMORY = 3L * CHUNK_SIZE;
+
+    private static final byte[] MAGIC = "FBE1".getBytes(StandardCharsets.UTF_8);
+    private static final int NONCE_LENGTH = 16;
+    private static final int HEADER_SIZE = 4 + 1 + 1 + NONCE_LENGTH + 8;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * 编码文件头
+     */
+    public static class Header {
+        private final BackupPackage.CompressionMethod compressionMethod;
+        private final BackupPackage.EncryptionMethod encryptionMethod;
+        private final byte[] nonce;
+        private final long originalSize;
+
+        Header(BackupPackage.CompressionMethod compressionMethod, BackupPackage.EncryptionMethod encryptionMethod,
+               byte[] nonce, long originalSize) {
+            this.compressionMethod = compressionMethod;
+            this.encryptionMethod = encryptionMethod;
+            this.nonce = nonce;
+            this.originalSize = originalSize;
+        }
+
+        public BackupPackage.CompressionMethod getCompressionMethod() { return compressionMethod; }
+        public BackupPackage.EncryptionMethod getEncryptionMethod() { return encryptionMethod; }
+        public long getOriginalSize() { return originalSize; }
+        public boolean isEncrypted() { return encryptionMethod != BackupPackage.EncryptionMethod.NONE; }
+    }
+
+    private FileCodec() {}
+
+    /**
+     * 给定的压缩和加密方法是否需要编码文件
+     */
+    public static boolean isEnabled(BackupPackage.CompressionMethod compression, BackupPackage.EncryptionMethod encryption) {
+        return (compression != null && compression != BackupPackage.CompressionMethod.NONE)
+            || (encryption != null && encryption != BackupPackage.EncryptionMethod.NONE);
+    }
+
+    /**
+     * 文件编码后的路径
+     */
+    public static Path encodedPath(Path file) {
+        return file.resolveSibling(file.getFileName() + SUFFIX);
+    }
+
+    /**
+     * 编码文件还原后的路径
+     */
+    public static Path decodedPath(Path encodedFile) {
+        String name = encodedFile.getFileName().toString();
+        return encodedFile.resolveSibling(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * 文件名是否为编码文件
+     */
+    public static boolean isEncodedName(Path file) {
+        String name = file.getFileName().toString();
+        return name.endsWith(SUFFIX) && name.length() > SUFFIX.length();
+    }
+
+    /**
+     * 是否为编码文件：文件名以.fbe结尾且文件头是编码文件的标识
+     * 未编码的备份中用户自己的.fbe文件不是编码文件，还原时原样复制
+     */
+    public static boolean isEncodedFile(Path file) {
+        if (!isEncodedName(file)) {
+            return false;
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            return Arrays.equals(in.readNBytes(MAGIC.length), MAGIC);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 是否为备份根目录的密钥文件（名称、大小和结构都与密钥槽区域一致，用户自己的同名文件不算）
+     */
+    public static boolean isKeyFile(Path file) {
+        if (!file.getFileName().toString().equals(KEY_FILE_NAME)) {
+            return false;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
+            if (raf.length() != KeySlots.AREA_SIZE) {
+                return false;
+            }
+            KeySlots.readFrom(raf);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 编码文件：先写入同目录下的临时文件，完成后再替换目标，避免中断时留下看似最新的半成品
+     * @param dataKey 数据密钥（不加密时为null）
+     * @return 编码后的大小
+     */
+    public static long encode(Path source, Path target, BackupPackage.CompressionMethod compression,
+                              BackupPackage.EncryptionMethod encryption, byte[] dataKey) throws IOException {
+        return encode(source, target, compression, encryption, dataKey, IoThrottle.unlimited());
+    }
+    
+    /**
+     * 编码文件，每块的读写计入限速
+     */
+    public static long encode(Path source, Path target, BackupPackage.CompressionMethod compression,
+                              BackupPackage.EncryptionMethod encryption, byte[] dataKey,
+                              IoThrottle throttle) throws IOException {
+        if (compression == null) {
+            compression = BackupPackage.CompressionMethod.NONE;
+        }
+        if (encryption == null || dataKey == null) {
+            encryption = BackupPackage.EncryptionMethod.NONE;
+        }
+        byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+
+        Path temp = target.resolveSibling("." + target.getFileName() + ".tmp");
+        long memory = MemoryBudget.global().acquire(WORKING_MEMORY);
+        try {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(source), CHUNK_SIZE);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.write(MAGIC);
+                out.writeByte(compression.ordinal());
+                out.writeByte(encryption.ordinal());
+                out.write(nonce);
+                out.writeLong(Files.size(source));
+
+                byte[] buffer = new byte[CHUNK_SIZE];
+                long chunk = 0;
+                int length;
+                while ((length = in.readNBytes(buffer, 0, CHUNK_SIZE)) > 0) {
+                    throttle.acquireRead(length);
+                    byte[] plain = length == CHUNK_SIZE ? buffer : Arrays.copyOf(buffer, length);
+                    byte[] stored = plain;
+                    boolean compressed = false;
+                    if (compression != BackupPackage.CompressionMethod.NONE) {
+                        byte[] compressedData = BackupPackage.compressData(plain, compression);
+                        // 与打包模式一致：至少减小5%才使用压缩
+                        if (compressedData.length < plain.length * 0.95) {
+                            stored = compressedData;
+                            compressed = true;
+                        }
+                    }
+                    if (encryption != BackupPackage.EncryptionMethod.NONE) {
+                        stored = BackupPackage.encryptData(stored, chunkKey(dataKey, nonce, chunk), encryption);
+                    }
+                    throttle.acquireWrite(stored.length);
+                    out.writeInt(length);
+                    out.writeInt(stored.length);
+                    out.writeBoolean(compressed);
+                    out.writeInt(Checksums.crc32c(plain, 0, length));
+                    out.write(stored);
+                    chunk++;
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        } finally {
+            MemoryBudget.global().release(memory);
+        }
+        return Files.size(target);
+    }
+
+    /**
+     * 还原编码文件（同样先写临时文件，校验通过后再替换目标）
+     * @param dataKey 数据密钥（文件未加密时可为null）
+     */
+    public static void decode(Path source, Path target, byte[] dataKey) throws IOException {
+        decode(source, target, dataKey, IoThrottle.unlimited());
+    }
+    
+    /**
+     * 还原编码文件，每块的读写计入限速
+     */
+    public static void decode(Path source, Path target, byte[] dataKey, IoThrottle throttle) throws IOException {
+        Path temp = target.resolveSibling("." + target.getFileName() + ".tmp");
+        long memory = MemoryBudget.global().acquire(WORKING_MEMORY);
+        try {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(source), CHUNK_SIZE));
+                 BufferedOutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                decodeStream(in, out, source, dataKey, throttle);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        } finally {
+            MemoryBudget.global().release(memory);
+        }
+    }
+
+    private static void decodeStream(DataInputStream in, BufferedOutputStream out, Path source, byte[] dataKey,
+                                     IoThrottle throttle) throws IOException {
+        Header header = readHeader(in, source);
+        if (header.isEncrypted() && dataKey == null) {
+            throw new IOException("文件已加密，但未提供密码: " + source);
+        }
+
+        long remaining = header.originalSize;
+        long chunk = 0;
+        try {
+            while (remaining > 0) {
+                int length = in.readInt();
+                int storedLength = in.readInt();
+                boolean compressed = in.readBoolean();
+                int checksum = in.readInt();
+                if (length <= 0 || length > CHUNK_SIZE || length > remaining || storedLength < 0) {
+                    throw new IOException("编码文件已损坏: " + source);
+                }
+                byte[] data = new byte[storedLength];
+                in.readFully(data);
+                throttle.acquireRead(storedLength);
+
+                if (header.isEncrypted()) {
+                    data = BackupPackage.decryptData(data, chunkKey(dataKey, header.nonce, chunk), header.encryptionMethod);
+                }
+                if (compressed) {
+                    data = BackupPackage.decompressData(data, header.compressionMethod);
+                }
+                if (data.length != length || Checksums.crc32c(data, 0, length) != checksum) {
+                    throw new IOException(header.isEncrypted()
+                        ? "密码错误或文件已损坏: " + source : "编码文件已损坏: " + source);
+                }
+                throttle.acquireWrite(length);
+                out.write(data);
+                remaining -= length;
+                chunk++;
+            }
+        } catch (EOFException e) {
+            throw new IOException("编码文件意外结束: " + source, e);
+        }
+    }
+
+    /**
+     * 读取编码文件头
+     */
+    public static Header readHeader(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            return readHeader(in, file);
+        }
+    }
+
+    private static Header readHeader(DataInputStream in, Path file) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        try {
+            in.readFully(header);
+        } catch (EOFException e) {
+            throw new IOException("不是有效的编码文件: " + file, e);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        int compression = buffer.get();
+        int encryption = buffer.get();
+        if (!Arrays.equals(magic, MAGIC)
+            || compression < 0 || compression >= BackupPackage.CompressionMethod.values().length
+            || encryption < 0 || encryption >= BackupPackage.EncryptionMethod.values().length) {
+            throw new IOException("不是有效的编码文件: " + file);
+        }
+        byte[] nonce = new byte[NONCE_LENGTH];
+        buffer.get(nonce);
+        return new Header(BackupPackage.CompressionMethod.values()[compression],
+                          BackupPackage.EncryptionMethod.values()[encryption], nonce, buffer.getLong());
+    }
+
+    /**
+     * 读取备份根目录的数据密钥，不存在密钥文件时生成新的数据密钥并保存
+     * @param backupRoot 备份根目录
+     * @param password 密码
+     * @return 数据密钥
+     * @throws IOException 密码错误
+     */
+    public static byte[] loadOrCreateDataKey(Path backupRoot, String password) throws IOException {
+        Path keyFile = backupRoot.resolve(KEY_FILE_NAME);
+        if (Files.exists(keyFile)) {
+            return unlockDataKey(backupRoot, password);
+        }
+        byte[] dataKey = KeySlots.generateDataKey();
+        KeySlots keySlots = KeySlots.empty();
+        keySlots.addSlot(dataKey, password);
+        Files.createDirectories(backupRoot);
+        try (RandomAccessFile raf = new RandomAccessFile(keyFile.toFile(), "rw")) {
+            raf.setLength(0);
+            keySlots.writeTo(raf);
+        }
+        return dataKey;
+    }
+
+    /**
+     * 用密码解锁备份根目录的数据密钥
+     * @return 数据密钥；没有密钥文件时返回null
+     * @throws IOException 密码错误
+     */
+    public static byte[] unlockDataKey(Path backupRoot, String password) throws IOException {
+        Path keyFile = backupRoot.resolve(KEY_FILE_NAME);
+        if (!isKeyFile(keyFile)) {
+            return null;
+        }
+        KeySlots keySlots;
+        try (RandomAccessFile raf = new RandomAccessFile(keyFile.toFile(), "r")) {
+            keySlots = KeySlots.readFrom(raf);
+        }
+        byte[] dataKey = keySlots.unlock(password);
+        if (dataKey == null) {
+            throw new IOException("密码错误: 无法解锁数据密钥");
+        }
+        return dataKey;
+    }
+
+    // 每块的密钥：SHA-256(数据密钥 || 文件随机数 || 块序号)
+    private static byte[] chunkKey(byte[] dataKey, byte[] nonce, long chunk) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(dataKey);
+            sha.update(nonce);
+            sha.update(ByteBuffer.allocate(8).putLong(chunk).array());
+            return sha.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
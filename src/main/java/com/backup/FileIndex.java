@@ -0,0 +1,227 @@
+package com.backup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每个备份源的本地文件索引（持久化的二进制文件）
+ * 记录每个普通文件上次备份时的大小、修改时间（纳秒）、文件标识（inode等）和内容哈希。
+ * 下次备份时属性完全相同的文件视为未变化：打包模式直接使用缓存的哈希，不再读取内容比较；
+ * 目录模式不再读取目标文件的属性。本次备份中没有出现的路径在保存时删除。
+ * 索引只是缓存：文件缺失或损坏时按空索引处理，不影响备份结果。可在多个线程中同时查询和更新。
+ *
+ * 文件格式：魔数(4) + 条目数(4) + 条目：路径(UTF) + 大小(8) + 修改时间(8) + 文件标识(UTF)
+ *         + 哈希算法(UTF) + 哈希叶子大小(4) + 哈希(UTF)
+ */
+public final class FileIndex {
+
+    // 默认的索引目录（与备份历史一样位于工作目录）
+    public static final String DEFAULT_DIRECTORY = ".backup_index";
+
+    private static final byte[] MAGIC = "FBI1".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 索引条目
+     */
+    public static final class Entry {
+        private final long size;
+        private final long modifiedNanos;
+        private final String fileKey;
+        private final String hashAlgorithm;
+        private final int hashLeafSize;
+        private final String hash;
+
+        Entry(long size, long modifiedNanos, String fileKey, String hashAlgorithm, int hashLeafSize, String hash) {
+            this.size = size;
+            this.modifiedNanos = modifiedNanos;
+            this.fileKey = fileKey;
+            this.hashAlgorithm = hashAlgorithm;
+            this.hashLeafSize = hashLeafSize;
+            this.hash = hash;
+        }
+
+        public long getSize() { return size; }
+        public long getModifiedNanos() { return modifiedNanos; }
+        public String getFileKey() { return fileKey; }
+        // 内容哈希，未记录时为空字符串
+        public String getHash() { return hash; }
+        public String getHashAlgorithm() { return hashAlgorithm; }
+        public int getHashLeafSize() { return hashLeafSize; }
+
+        public boolean hasHash() { return !hash.isEmpty(); }
+
+        // 哈希是否可以代替按记录的算法和叶子大小计算的结果
+        public boolean hasHash(String algorithm, int leafSize) {
+            return hasHash() && hashAlgorithm.equals(algorithm) && hashLeafSize == leafSize;
+        }
+    }
+
+    private final Path file;
+    private final Map<String, Entry> entries;
+    private final Set<String> touched = ConcurrentHashMap.newKeySet();
+
+    private FileIndex(Path file, Map<String, Entry> entries) {
+        this.file = file;
+        this.entries = entries;
+    }
+
+    /**
+     * 索引文件的位置：索引目录下以备份源（和用途）的哈希命名
+     * @param indexDirectory 索引目录（为null或空时使用默认目录）
+     * @param key 区分索引的键，例如源路径和备份目标
+     */
+    public static Path locate(String indexDirectory, String key) {
+        Path directory = Paths.get(indexDirectory == null || indexDirectory.isEmpty() ? DEFAULT_DIRECTORY : indexDirectory);
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                name.append(String.format("%02x", digest[i]));
+            }
+            return directory.resolve(name + ".idx");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 读取索引，文件不存在或无法解析时返回空索引
+     */
+    public static FileIndex load(Path file) {
+        Map<String, Entry> entries = new ConcurrentHashMap<>();
+        if (Files.exists(file)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                byte[] magic = new byte[MAGIC.length];
+                in.readFully(magic);
+                if (!Arrays.equals(magic, MAGIC)) {
+                    throw new IOException("无效的索引文件");
+                }
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String path = in.readUTF();
+                    long size = in.readLong();
+                    long modifiedNanos = in.readLong();
+                    String fileKey = in.readUTF();
+                    String hashAlgorithm = in.readUTF();
+                    int hashLeafSize = in.readInt();
+                    String hash = in.readUTF();
+                    entries.put(path, new Entry(size, modifiedNanos, fileKey, hashAlgorithm, hashLeafSize, hash));
+                }
+            } catch (IOException e) {
+                System.err.println("读取文件索引失败，重新建立: " + file + " - " + e.getMessage());
+                entries.clear();
+            }
+        }
+        return new FileIndex(file, entries);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * 查找属性与当前文件完全相同的条目，并标记该路径仍然存在
+     * @return 条目；没有记录或文件已变化时返回null
+     */
+    public Entry lookup(String relativePath, BasicFileAttributes attrs) {
+        touched.add(relativePath);
+        Entry entry = entries.get(relativePath);
+        if (entry == null || entry.size != attrs.size()
+            || entry.modifiedNanos != attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+            || !entry.fileKey.equals(fileKeyOf(attrs))) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * 记录文件的当前属性和内容哈希
+     * @param hashAlgorithm 哈希算法（不记录哈希时为null）
+     */
+    public void put(String relativePath, BasicFileAttributes attrs, String hashAlgorithm, int hashLeafSize, String hash) {
+        touched.add(relativePath);
+        entries.put(relativePath, new Entry(attrs.size(), attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+            fileKeyOf(attrs), hashAlgorithm != null ? hashAlgorithm : "", hashLeafSize, hash != null ? hash : ""));
+    }
+
+    /**
+     * 删除条目（文件处理失败时调用，下次重新检测）
+     */
+    public void remove(String relativePath) {
+        entries.remove(relativePath);
+    }
+
+    /**
+     * 保存索引：删除本次没有出现的路径，先写临时文件再替换
+     */
+    public void save() throws IOException {
+        save(true);
+    }
+
+    /**
+     * 保存索引
+     * @param prune 是否删除本次没有出现的路径（只处理了部分路径时为false）
+     */
+    public void save(boolean prune) throws IOException {
+        if (prune) {
+            entries.keySet().retainAll(touched);
+        }
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.write(MAGIC);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> item : entries.entrySet()) {
+                Entry entry = item.getValue();
+                out.writeUTF(item.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.modifiedNanos);
+                out.writeUTF(entry.fileKey);
+                out.writeUTF(entry.hashAlgorithm);
+                out.writeInt(entry.hashLeafSize);
+                out.writeUTF(entry.hash);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 保存索引，失败时只记录日志
+     */
+    public void saveQuietly() {
+        saveQuietly(true);
+    }
+
+    /**
+     * 保存索引，失败时只记录日志
+     * @param prune 是否删除本次没有出现的路径
+     */
+    public void saveQuietly(boolean prune) {
+        try {
+            save(prune);
+        } catch (IOException e) {
+            System.err.println("保存文件索引失败: " + file + " - " + e.getMessage());
+        }
+    }
+
+    private static String fileKeyOf(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        return key != null ? key.toString() : "";
+    }
+}
@@ -0,0 +1,510 @@
+package com.backup;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 并行文件系统扫描器（打包模式和目录模式共用）
+ * 每个条目只读取一次属性（POSIX系统上为一次lstat，不跟随符号链接），文件类型、大小、时间和权限都从这一次读取中得到，
+ * 不再对每个文件分别调用isDirectory/isRegularFile/size/getAttribute等。
+ * 各子目录作为独立任务在ForkJoinPool中并行扫描，网络文件系统上可以同时发出多个目录读取和属性请求。
+ * 高并发I/O模式下改用虚拟线程（见IoExecutors），每个子项的属性读取也作为独立任务，
+ * 同时在途的目录读取和属性读取数由挂载点的信号量限制。
+ * 结果按先序交给访问器（目录在其内容之前，同一目录下按名称排序），与walkFileTree的访问顺序一致；
+ * 某个目录的子项全部读取完成即可访问，不等待整棵树扫描结束，预读的目录数有上限（见Scan）。
+ */
+public final class FileScanner {
+
+    // 文件类型位（st_mode & S_IFMT）
+    private static final int S_IFMT = 0170000;
+    private static final int S_IFIFO = 0010000;
+    private static final int S_IFCHR = 0020000;
+    private static final int S_IFBLK = 0060000;
+    private static final int S_IFSOCK = 0140000;
+
+    /**
+     * 扫描记录（不可变），同时实现BasicFileAttributes，可直接作为文件属性传给原有的访问逻辑
+     */
+    public static final class ScanRecord implements BasicFileAttributes {
+        private final Path path;
+        private final String relativePath;
+        private final BackupService.FileKind kind;
+        private final long size;
+        private final FileTime creationTime;
+        private final FileTime lastModifiedTime;
+        private final FileTime lastAccessTime;
+        private final Object fileKey;
+        private final Set<PosixFilePermission> permissions;
+        private final IOException error;
+
+        ScanRecord(Path path, String relativePath, BackupService.FileKind kind, BasicFileAttributes attrs,
+                   Set<PosixFilePermission> permissions) {
+            this.path = path;
+            this.relativePath = relativePath;
+            this.kind = kind;
+            this.size = attrs.size();
+            this.creationTime = attrs.creationTime();
+            this.lastModifiedTime = attrs.lastModifiedTime();
+            this.lastAccessTime = attrs.lastAccessTime();
+            this.fileKey = attrs.fileKey();
+            this.permissions = permissions != null ? Collections.unmodifiableSet(permissions) : null;
+            this.error = null;
+        }
+
+        // 读取失败的条目，只在扫描内部使用
+        private ScanRecord(Path path, String relativePath, IOException error) {
+            this.path = path;
+            this.relativePath = relativePath;
+            this.kind = BackupService.FileKind.UNKNOWN;
+            this.size = 0;
+            this.creationTime = null;
+            this.lastModifiedTime = null;
+            this.lastAccessTime = null;
+            this.fileKey = null;
+            this.permissions = null;
+            this.error = error;
+        }
+
+        public Path getPath() { return path; }
+        // 相对于源路径父目录的路径（包含源目录名），与打包模式的相对路径一致
+        public String getRelativePath() { return relativePath; }
+        public BackupService.FileKind getKind() { return kind; }
+        // POSIX权限，非POSIX文件系统为null
+        public Set<PosixFilePermission> getPermissions() { return permissions; }
+        public long getCreatedAt() { return creationTime.toMillis(); }
+        public long getModifiedAt() { return lastModifiedTime.toMillis(); }
+        public long getAccessedAt() { return lastAccessTime.toMillis(); }
+
+        @Override public FileTime lastModifiedTime() { return lastModifiedTime; }
+        @Override public FileTime lastAccessTime() { return lastAccessTime; }
+        @Override public FileTime creationTime() { return creationTime; }
+        @Override public boolean isRegularFile() { return kind == BackupService.FileKind.REGULAR; }
+        @Override public boolean isDirectory() { return kind == BackupService.FileKind.DIRECTORY; }
+        @Override public boolean isSymbolicLink() { return kind == BackupService.FileKind.SYMLINK; }
+        @Override public boolean isOther() { return !isRegularFile() && !isDirectory() && !isSymbolicLink(); }
+        @Override public long size() { return size; }
+        @Override public Object fileKey() { return fileKey; }
+
+        @Override
+        public String toString() {
+            return relativePath + " (" + kind + ", " + size + " bytes)";
+        }
+    }
+
+    private FileScanner() {}
+
+    /**
+     * 按备份选项扫描（并行度和高并发I/O模式）
+     */
+    public static List<ScanRecord> scan(Path root, BackupService.BackupOptions options) throws IOException {
+        return scan(root, options.getParallelism(), options.isIoMode(), options.getIoConcurrency(), options.getThrottle());
+    }
+
+    /**
+     * 扫描目录树，读取失败的条目记录日志后跳过
+     * @param root 源路径（文件或目录）
+     * @param parallelism 并行扫描的线程数
+     * @param ioMode 是否使用高并发I/O模式
+     * @param ioConcurrency 高并发I/O模式下每个挂载点同时进行的I/O操作数
+     * @return 先序排列的扫描记录
+     */
+    public static List<ScanRecord> scan(Path root, int parallelism, boolean ioMode, int ioConcurrency) throws IOException {
+        return scan(root, parallelism, ioMode, ioConcurrency, IoThrottle.unlimited());
+    }
+
+    /**
+     * 扫描目录树，每次属性读取和目录列举计为一次读操作
+     * @param throttle 读写限速
+     */
+    public static List<ScanRecord> scan(Path root, int parallelism, boolean ioMode, int ioConcurrency,
+                                        IoThrottle throttle) throws IOException {
+        List<ScanRecord> result = new ArrayList<>();
+        walk(root, parallelism, ioMode, ioConcurrency, throttle, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                result.add((ScanRecord) attrs);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                result.add((ScanRecord) attrs);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                System.err.println("访问文件失败: " + file + " - " + exc.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 并行扫描目录树并按walkFileTree的顺序交给访问器，可替代Files.walkFileTree
+     * 目录调用preVisitDirectory/postVisitDirectory，其他条目调用visitFile，读取失败的条目调用visitFileFailed；
+     * 传给访问器的属性是ScanRecord。不跟随符号链接。访问器在调用线程上执行，扫描在后台继续进行。
+     */
+    public static void walkFileTree(Path root, BackupService.BackupOptions options, FileVisitor<Path> visitor) throws IOException {
+        walk(root, options.getParallelism(), options.isIoMode(), options.getIoConcurrency(), options.getThrottle(), visitor);
+    }
+
+    /**
+     * 读取单个路径的属性（不跟随符号链接）
+     */
+    public static ScanRecord stat(Path path) throws IOException {
+        Path parent = path.getParent() != null ? path.getParent() : Paths.get(".");
+        return stat(path, parent.relativize(path).toString(), usesPosix(path));
+    }
+
+    /**
+     * 根据已读取的属性判断文件类型
+     * 属性来自不跟随链接的读取；只有FIFO、设备等特殊文件才需要再读一次文件模式
+     */
+    public static BackupService.FileKind kindOf(Path path, BasicFileAttributes attrs) {
+        if (attrs instanceof ScanRecord) {
+            return ((ScanRecord) attrs).getKind();
+        }
+        if (attrs.isSymbolicLink()) {
+            return BackupService.FileKind.SYMLINK;
+        }
+        if (attrs.isRegularFile()) {
+            return BackupService.FileKind.REGULAR;
+        }
+        if (attrs.isDirectory()) {
+            return BackupService.FileKind.DIRECTORY;
+        }
+        try {
+            int mode = (Integer) Files.getAttribute(path, "unix:mode", LinkOption.NOFOLLOW_LINKS);
+            switch (mode & S_IFMT) {
+                case S_IFIFO: return BackupService.FileKind.FIFO;
+                case S_IFCHR: return BackupService.FileKind.CHARACTER;
+                case S_IFBLK: return BackupService.FileKind.BLOCK;
+                case S_IFSOCK: return BackupService.FileKind.SOCKET;
+                default: return BackupService.FileKind.UNKNOWN;
+            }
+        } catch (Exception e) {
+            // 不支持unix属性视图
+            return BackupService.FileKind.UNKNOWN;
+        }
+    }
+
+    private static void walk(Path root, int parallelism, boolean ioMode, int ioConcurrency, IoThrottle throttle,
+                             FileVisitor<Path> visitor) throws IOException {
+        Path rootParent = root.getParent() != null ? root.getParent() : Paths.get(".");
+        boolean posix = usesPosix(root);
+        throttle.acquireRead(0);
+        ScanRecord rootRecord = stat(root, rootParent.relativize(root).toString(), posix);
+        if (rootRecord.kind != BackupService.FileKind.DIRECTORY) {
+            visitor.visitFile(root, rootRecord);
+            return;
+        }
+
+        ExecutorService executor = ioMode
+            ? IoExecutors.newIoExecutor("backup-scan", ioConcurrency)
+            : new ForkJoinPool(Math.max(1, parallelism));
+        Semaphore permits = ioMode ? IoExecutors.mountPermits(root, ioConcurrency) : null;
+        try {
+            Scan scan = new Scan(rootParent, posix, executor, permits, throttle, ioMode);
+            scan.register(rootRecord);
+            // 用显式的栈按先序遍历，目录层数很深时不会栈溢出
+            Deque<Frame> stack = new ArrayDeque<>();
+            if (visit(scan, rootRecord, true, visitor, stack) == FileVisitResult.TERMINATE) {
+                return;
+            }
+            while (!stack.isEmpty()) {
+                Frame frame = stack.peek();
+                if (frame.next == frame.children.length) {
+                    stack.pop();
+                    if (frame.visible && visitor.postVisitDirectory(frame.directory, null) == FileVisitResult.TERMINATE) {
+                        return;
+                    }
+                    continue;
+                }
+                ScanRecord child = frame.children[frame.next++];
+                FileVisitResult result = visit(scan, child, frame.visible && !frame.skipSiblings, visitor, stack);
+                if (result == FileVisitResult.TERMINATE) {
+                    return;
+                } else if (result == FileVisitResult.SKIP_SIBLINGS) {
+                    frame.skipSiblings = true;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 访问一个条目，目录的子项读取完成后入栈
+     * visible为false时（被跳过的子树）不调用访问器，只取用已预读的子目录以归还预读名额
+     */
+    private static FileVisitResult visit(Scan scan, ScanRecord record, boolean visible, FileVisitor<Path> visitor,
+                                         Deque<Frame> stack) throws IOException {
+        if (record.kind == BackupService.FileKind.DIRECTORY && record.error == null) {
+            Listing listing = scan.take(record, visible);
+            if (listing == null) {
+                return FileVisitResult.CONTINUE;
+            }
+            if (!visible) {
+                if (listing.records != null) {
+                    stack.push(new Frame(record.path, listing.records, false));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+            // 与walkFileTree一致：无法打开的目录作为访问失败处理
+            if (listing.error != null) {
+                return visitor.visitFileFailed(record.path, listing.error);
+            }
+            FileVisitResult result = visitor.preVisitDirectory(record.path, record);
+            stack.push(new Frame(record.path, listing.records, result == FileVisitResult.CONTINUE));
+            return result;
+        }
+        if (!visible) {
+            return FileVisitResult.CONTINUE;
+        }
+        if (record.error != null) {
+            return visitor.visitFileFailed(record.path, record.error);
+        }
+        return visitor.visitFile(record.path, record);
+    }
+
+    private static boolean usesPosix(Path path) {
+        return path.getFileSystem().supportedFileAttributeViews().contains("posix");
+    }
+
+    // 一次属性读取
+    private static ScanRecord stat(Path path, String relativePath, boolean posix) throws IOException {
+        if (posix) {
+            PosixFileAttributes attrs = Files.readAttributes(path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            return new ScanRecord(path, relativePath, kindOf(path, attrs), attrs, attrs.permissions());
+        }
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        return new ScanRecord(path, relativePath, kindOf(path, attrs), attrs, null);
+    }
+
+    /**
+     * 遍历栈中的一个目录
+     */
+    private static final class Frame {
+        private final Path directory;
+        private final ScanRecord[] children;
+        private final boolean visible;          // 是否调用访问器（被跳过的子树为false）
+        private boolean skipSiblings;           // 访问器返回了SKIP_SIBLINGS
+        private int next;
+
+        Frame(Path directory, ScanRecord[] children, boolean visible) {
+            this.directory = directory;
+            this.children = children;
+            this.visible = visible;
+        }
+    }
+
+    /**
+     * 一个目录的读取状态：子项记录（按名称排序）或读取目录失败的异常
+     */
+    private static final class Listing {
+        private final Path directory;
+        private final boolean prefetched;       // 由扫描任务读取（否则由访问线程到达时读取）
+        private final AtomicInteger remaining = new AtomicInteger();
+        private volatile ScanRecord[] records;
+        private volatile IOException error;
+        private boolean complete;               // 由Scan的锁保护
+
+        Listing(Path directory, boolean prefetched) {
+            this.directory = directory;
+            this.prefetched = prefetched;
+        }
+    }
+
+    /**
+     * 一次扫描：每个目录的读取是一个任务，读到子目录后再提交子目录的任务；
+     * 访问线程按先序取用各目录的子项，某个目录的子项属性全部读取完成即可取用。
+     * 已预读但尚未被取用的目录最多MAX_LOOKAHEAD个，超出时子目录留给访问线程到达时再读取，
+     * 扫描占用的内存与预读窗口成正比，而不是与整棵树的条目数成正比。
+     */
+    private static final class Scan {
+        private static final int MAX_LOOKAHEAD = 1024;
+
+        private final Path rootParent;
+        private final boolean posix;
+        private final ExecutorService executor;
+        private final Semaphore permits;
+        private final IoThrottle throttle;
+        private final boolean statInParallel;
+        // 已发现但访问线程尚未取用的目录
+        private final Map<Path, Listing> listings = new ConcurrentHashMap<>();
+        private final AtomicInteger ahead = new AtomicInteger();
+        private volatile Throwable failure;
+
+        Scan(Path rootParent, boolean posix, ExecutorService executor, Semaphore permits, IoThrottle throttle,
+             boolean statInParallel) {
+            this.rootParent = rootParent;
+            this.posix = posix;
+            this.executor = executor;
+            this.permits = permits;
+            this.throttle = throttle;
+            this.statInParallel = statInParallel;
+        }
+
+        /**
+         * 登记发现的目录，预读窗口未满时提交读取任务
+         */
+        void register(ScanRecord directory) {
+            boolean prefetch = ahead.incrementAndGet() <= MAX_LOOKAHEAD;
+            if (!prefetch) {
+                ahead.decrementAndGet();
+            }
+            Listing listing = new Listing(directory.path, prefetch);
+            listings.put(directory.path, listing);
+            if (prefetch) {
+                submit(() -> listDirectory(listing));
+            }
+        }
+
+        /**
+         * 取用目录的子项，等待读取完成；未预读的目录在当前线程读取
+         * @param needed 为false时（被跳过的子树）未预读的目录不再读取，返回null
+         */
+        Listing take(ScanRecord directory, boolean needed) throws IOException {
+            Listing listing = listings.remove(directory.path);
+            if (!listing.prefetched) {
+                if (!needed) {
+                    return null;
+                }
+                listDirectory(listing);
+            }
+            synchronized (this) {
+                while (!listing.complete && failure == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("扫描被中断", e);
+                    }
+                }
+            }
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            if (listing.prefetched) {
+                ahead.decrementAndGet();
+            }
+            return listing;
+        }
+
+        private void submit(Runnable task) {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException | Error e) {
+                    synchronized (this) {
+                        failure = e;
+                        notifyAll();
+                    }
+                }
+            });
+        }
+
+        private void listDirectory(Listing listing) {
+            List<Path> children = new ArrayList<>();
+            acquire();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(listing.directory)) {
+                for (Path child : stream) {
+                    children.add(child);
+                }
+            } catch (IOException e) {
+                listing.error = e;
+                complete(listing);
+                return;
+            } finally {
+                release();
+            }
+            Collections.sort(children);
+
+            ScanRecord[] records = new ScanRecord[children.size()];
+            listing.records = records;
+            // 多计一次，所有子项提交之后再减去，避免提前完成
+            listing.remaining.set(records.length + 1);
+            for (int i = 0; i < records.length; i++) {
+                int index = i;
+                Path child = children.get(i);
+                if (statInParallel) {
+                    submit(() -> statChild(listing, index, child));
+                } else {
+                    statChild(listing, index, child);
+                }
+            }
+            childDone(listing);
+        }
+
+        private void statChild(Listing listing, int index, Path child) {
+            String relativePath = rootParent.relativize(child).toString();
+            ScanRecord record;
+            acquire();
+            try {
+                record = stat(child, relativePath, posix);
+            } catch (IOException e) {
+                record = new ScanRecord(child, relativePath, e);
+            } finally {
+                release();
+            }
+            // 子目录在父目录完成之前登记，访问线程取用父目录后总能找到它
+            if (record.kind == BackupService.FileKind.DIRECTORY) {
+                register(record);
+            }
+            listing.records[index] = record;
+            childDone(listing);
+        }
+
+        private void childDone(Listing listing) {
+            if (listing.remaining.decrementAndGet() == 0) {
+                complete(listing);
+            }
+        }
+
+        private synchronized void complete(Listing listing) {
+            listing.complete = true;
+            notifyAll();
+        }
+
+        // 先按限速等待，再占用挂载点的并发名额
+        private void acquire() {
+            throttle.acquireRead(0);
+            if (permits != null) {
+                permits.acquireUninterruptibly();
+            }
+        }
+
+        private void release() {
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.backup;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 高并发I/O模式的线程池
+ * 网络文件系统（NFS、SMB）上每次stat、open、read都要等待往返延迟，少量平台线程无法保持足够多的并发请求。
+ * I/O模式下扫描和文件读取使用虚拟线程（JDK 21+，运行时通过反射检测），同时在途的I/O由每个挂载点的信号量限制；
+ * 压缩、加密等CPU密集的工作仍在有界的平台线程池中执行，不占用虚拟线程的载体线程。
+ * 运行在JDK 17等不支持虚拟线程的环境时，I/O线程池回退为固定大小的平台线程池。
+ * 设置系统属性 -Dbackup.virtualThreads=false 可强制使用平台线程。
+ */
+public final class IoExecutors {
+
+    // 不支持虚拟线程时I/O线程池的最大线程数
+    private static final int MAX_PLATFORM_IO_THREADS = 64;
+
+    private static final Method NEW_VIRTUAL_EXECUTOR = loadVirtualExecutorFactory();
+
+    // 每个挂载点（FileStore）共享一个信号量，同一挂载点上的多个备份任务共同受限
+    private static final Map<FileStore, MountPermits> MOUNT_PERMITS = new ConcurrentHashMap<>();
+
+    private IoExecutors() {}
+
+    /**
+     * 当前运行时是否支持虚拟线程
+     */
+    public static boolean isVirtualThreadsAvailable() {
+        return NEW_VIRTUAL_EXECUTOR != null;
+    }
+
+    /**
+     * 创建I/O线程池：支持时每个任务一个虚拟线程，否则为固定大小的平台线程池
+     * @param name 线程名前缀（平台线程）
+     * @param concurrency 预期的并发I/O数，平台线程池的大小据此确定
+     */
+    public static ExecutorService newIoExecutor(String name, int concurrency) {
+        if (NEW_VIRTUAL_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("创建虚拟线程池失败，使用平台线程: " + e.getMessage());
+            }
+        }
+        return newPlatformExecutor(name, Math.max(1, Math.min(concurrency, MAX_PLATFORM_IO_THREADS)));
+    }
+
+    /**
+     * 创建CPU线程池（有界的平台线程池），用于压缩、加密、哈希等计算
+     */
+    public static ExecutorService newCpuExecutor(String name, int threads) {
+        return newPlatformExecutor(name, Math.max(1, threads));
+    }
+
+    /**
+     * 路径所在挂载点的并发I/O信号量
+     * 同一挂载点上的任务共用一个信号量，上限以最后一次请求的为准：请求的并发数与当前不同时调整信号量，
+     * 调小后已占用的名额不受影响，新的请求等待占用数降到新上限以下。
+     * @param path 挂载点上的任意路径
+     * @param permits 每个挂载点允许的并发I/O数
+     */
+    public static Semaphore mountPermits(Path path, int permits) {
+        FileStore store;
+        try {
+            store = Files.getFileStore(path);
+        } catch (IOException e) {
+            // 无法确定挂载点时单独限制
+            return new Semaphore(Math.max(1, permits));
+        }
+        MountPermits semaphore = MOUNT_PERMITS.computeIfAbsent(store, s -> new MountPermits(Math.max(1, permits)));
+        semaphore.resize(Math.max(1, permits));
+        return semaphore;
+    }
+
+    private static ExecutorService newPlatformExecutor(String name, int threads) {
+        AtomicInteger threadIndex = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+            runnable -> {
+                Thread thread = new Thread(runnable, name + "-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+    }
+
+    /**
+     * 可调整上限的挂载点信号量
+     */
+    private static final class MountPermits extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        private int limit;
+
+        MountPermits(int limit) {
+            super(limit);
+            this.limit = limit;
+        }
+
+        synchronized void resize(int newLimit) {
+            if (newLimit > limit) {
+                release(newLimit - limit);
+            } else if (newLimit < limit) {
+                reducePermits(limit - newLimit);
+            }
+            limit = newLimit;
+        }
+    }
+
+    private static Method loadVirtualExecutorFactory() {
+        if ("false".equalsIgnoreCase(System.getProperty("backup.virtualThreads"))) {
+            return null;
+        }
+        try {
+            return java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException | SecurityException e) {
+            return null;
+        }
+    }
+}
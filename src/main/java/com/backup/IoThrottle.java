@@ -0,0 +1,184 @@
+package com.backup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.CopyOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 读写限速（令牌桶）
+ * 读和写各有字节速率和操作速率（IOPS）两个令牌桶，速率为0表示不限制。桶容量为1秒的速率，
+ * 空闲后允许1秒的突发；大的请求按每片1秒的量分片取令牌，
+ * 速率可以在备份运行中随时修改（界面或API），最迟在当前分片结束后按新速率计算。多个线程共享同一个实例。
+ * 扫描器的每次属性读取和目录列举计为一次读操作；打包、提取、目录模式的复制和块同步按实际读写的字节计数。
+ */
+public final class IoThrottle {
+
+    // 限速复制时每次读写的大小
+    private static final int COPY_CHUNK_SIZE = 1 << 20;
+
+    private final TokenBucket readBytes = new TokenBucket();
+    private final TokenBucket readOps = new TokenBucket();
+    private final TokenBucket writeBytes = new TokenBucket();
+    private final TokenBucket writeOps = new TokenBucket();
+
+    public IoThrottle() {}
+
+    public IoThrottle(long readBytesPerSecond, long readOpsPerSecond, long writeBytesPerSecond, long writeOpsPerSecond) {
+        setReadBytesPerSecond(readBytesPerSecond);
+        setReadOpsPerSecond(readOpsPerSecond);
+        setWriteBytesPerSecond(writeBytesPerSecond);
+        setWriteOpsPerSecond(writeOpsPerSecond);
+    }
+
+    /**
+     * 不限速的实例（没有备份选项的调用方使用）
+     */
+    public static IoThrottle unlimited() {
+        return new IoThrottle();
+    }
+
+    public long getReadBytesPerSecond() { return readBytes.getRate(); }
+    public void setReadBytesPerSecond(long rate) { readBytes.setRate(rate); }
+
+    public long getReadOpsPerSecond() { return readOps.getRate(); }
+    public void setReadOpsPerSecond(long rate) { readOps.setRate(rate); }
+
+    public long getWriteBytesPerSecond() { return writeBytes.getRate(); }
+    public void setWriteBytesPerSecond(long rate) { writeBytes.setRate(rate); }
+
+    public long getWriteOpsPerSecond() { return writeOps.getRate(); }
+    public void setWriteOpsPerSecond(long rate) { writeOps.setRate(rate); }
+
+    /**
+     * 是否设置了任何限速
+     */
+    public boolean isLimited() {
+        return readBytes.getRate() > 0 || readOps.getRate() > 0 || writeBytes.getRate() > 0 || writeOps.getRate() > 0;
+    }
+
+    /**
+     * 一次读操作（bytes为0时只计操作数，例如读取属性或列举目录）
+     */
+    public void acquireRead(long bytes) {
+        acquire(readOps, readBytes, bytes);
+    }
+
+    /**
+     * 一次写操作
+     */
+    public void acquireWrite(long bytes) {
+        acquire(writeOps, writeBytes, bytes);
+    }
+
+    /**
+     * 复制文件，支持REPLACE_EXISTING和COPY_ATTRIBUTES（复制修改时间和POSIX权限）
+     * 不限速时直接使用Files.copy；限速时按1MB分块读写，每块分别计入读和写的令牌桶
+     */
+    public void copy(Path source, Path target, CopyOption... options) throws IOException {
+        if (!isLimited()) {
+            Files.copy(source, target, options);
+            return;
+        }
+        List<CopyOption> copyOptions = Arrays.asList(options);
+        StandardOpenOption create = copyOptions.contains(StandardCopyOption.REPLACE_EXISTING)
+            ? StandardOpenOption.CREATE : StandardOpenOption.CREATE_NEW;
+        long memory = MemoryBudget.global().acquire(COPY_CHUNK_SIZE);
+        try (InputStream in = Files.newInputStream(source);
+             OutputStream out = Files.newOutputStream(target, create, StandardOpenOption.TRUNCATE_EXISTING,
+                                                      StandardOpenOption.WRITE)) {
+            byte[] buffer = new byte[COPY_CHUNK_SIZE];
+            int length;
+            while ((length = in.readNBytes(buffer, 0, buffer.length)) > 0) {
+                acquireRead(length);
+                acquireWrite(length);
+                out.write(buffer, 0, length);
+            }
+        } finally {
+            MemoryBudget.global().release(memory);
+        }
+        if (copyOptions.contains(StandardCopyOption.COPY_ATTRIBUTES)) {
+            Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+            try {
+                Files.setPosixFilePermissions(target, Files.getPosixFilePermissions(source));
+            } catch (UnsupportedOperationException e) {
+                // 非POSIX系统，忽略权限设置
+            }
+        }
+    }
+
+    private static void acquire(TokenBucket ops, TokenBucket bytes, long count) {
+        pause(ops.reserve(1));
+        long remaining = count;
+        while (remaining > 0) {
+            long slice = bytes.slice(remaining);
+            pause(bytes.reserve(slice));
+            remaining -= slice;
+        }
+    }
+
+    private static void pause(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 令牌桶：按速率补充令牌，容量为1秒的速率，允许透支
+     */
+    private static final class TokenBucket {
+        private long rate;              // 每秒令牌数，0表示不限制
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        synchronized long getRate() {
+            return rate;
+        }
+
+        synchronized void setRate(long rate) {
+            refill();
+            this.rate = Math.max(0, rate);
+            tokens = Math.min(tokens, this.rate);
+        }
+
+        /**
+         * 一次最多取出的令牌数（1秒的速率），不限制时一次取完
+         */
+        synchronized long slice(long count) {
+            return rate > 0 ? Math.min(count, rate) : count;
+        }
+
+        /**
+         * 取出令牌
+         * @return 需要等待的纳秒数（令牌充足时为0）
+         */
+        synchronized long reserve(long count) {
+            if (rate <= 0 || count <= 0) {
+                return 0;
+            }
+            refill();
+            tokens -= count;
+            return tokens >= 0 ? 0 : (long) (-tokens * 1e9 / rate);
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            if (rate > 0) {
+                tokens = Math.min(rate, tokens + (now - lastRefill) * rate / 1e9);
+            }
+            lastRefill = now;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.backup;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * 备份任务的暂停/停止控制
+ * 备份过程在每个文件开始前调用checkpoint()：暂停时阻塞到恢复为止，停止后抛出CancellationException结束备份。
+ * 已开始处理的文件会正常完成，暂停和停止都在文件之间生效。
+ * 停止的目录模式备份再次运行时跳过已复制的文件，相当于从中断处继续。
+ */
+public final class JobControl {
+
+    private boolean paused;
+    private boolean stopped;
+
+    /**
+     * 检查点：暂停时等待恢复
+     * @throws CancellationException 任务已停止
+     */
+    public synchronized void checkpoint() {
+        while (paused && !stopped) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("任务被中断");
+            }
+        }
+        if (stopped) {
+            throw new CancellationException("任务已停止");
+        }
+    }
+
+    public synchronized void pause() {
+        paused = true;
+    }
+
+    public synchronized void resume() {
+        paused = false;
+        notifyAll();
+    }
+
+    public synchronized void stop() {
+        stopped = true;
+        notifyAll();
+    }
+
+    public synchronized boolean isPaused() {
+        return paused && !stopped;
+    }
+
+    public synchronized boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * 备份选项中设置了任务控制时执行检查点
+     */
+    static void checkpoint(BackupService.BackupOptions options) {
+        JobControl control = options.getJobControl();
+        if (control != null) {
+            control.checkpoint();
+        }
+    }
+}
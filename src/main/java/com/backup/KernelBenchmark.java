@@ -0,0 +1,98 @@
+package com.backup;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 字节内核性能测试程序 - 对比标量实现与SIMD实现的吞吐量
+ * 运行SIMD对比需添加 --add-modules jdk.incubator.vector
+ */
+public class KernelBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int size = sizeMb * 1024 * 1024;
+
+        System.out.println("数据大小: " + sizeMb + " MB");
+        System.out.println("当前实现: " + ByteKernels.implementationName());
+        if (ByteKernels.VECTOR == null) {
+            System.out.println("SIMD实现不可用（未添加 --add-modules jdk.incubator.vector 或已禁用），仅测试标量实现");
+        }
+
+        Random random = new Random(42);
+        byte[] randomData = new byte[size];
+        random.nextBytes(randomData);
+
+        // 长游程数据：每段随机长度的相同字节
+        byte[] runData = new byte[size];
+        for (int i = 0; i < size; ) {
+            int run = 1 + random.nextInt(400);
+            byte value = (byte) random.nextInt(256);
+            for (int j = 0; j < run && i < size; j++) {
+                runData[i++] = value;
+            }
+        }
+
+        byte[] copy = randomData.clone();
+        byte[] key = new byte[32];
+        random.nextBytes(key);
+        byte[] output = new byte[size];
+
+        for (ByteKernels.Impl impl : implementations()) {
+            System.out.println();
+            System.out.println("== " + impl.name() + " ==");
+            report("XOR加密", size, () -> impl.xor(randomData, key, output, size));
+            report("RLE游程扫描(随机数据)", size, () -> scanRuns(impl, randomData));
+            report("RLE游程扫描(长游程数据)", size, () -> scanRuns(impl, runData));
+            report("字节比较", size, () -> impl.mismatch(randomData, 0, copy, 0, size));
+        }
+
+        // 纠删码编码（查表实现，与内核选择无关）
+        System.out.println();
+        System.out.println("== reed-solomon ==");
+        ReedSolomon codec = new ReedSolomon(16, 4);
+        int shardSize = PackageParity.DEFAULT_SHARD_SIZE;
+        byte[][] parity = new byte[4][shardSize];
+        report("Reed-Solomon编码(16+4)", size, () -> {
+            byte[][] shards = new byte[16][];
+            for (int offset = 0; offset + 16 * shardSize <= size; offset += 16 * shardSize) {
+                for (int d = 0; d < 16; d++) {
+                    shards[d] = Arrays.copyOfRange(randomData, offset + d * shardSize, offset + (d + 1) * shardSize);
+                }
+                codec.encode(shards, parity, shardSize);
+            }
+        });
+    }
+
+    private static ByteKernels.Impl[] implementations() {
+        if (ByteKernels.VECTOR == null) {
+            return new ByteKernels.Impl[] { ByteKernels.SCALAR };
+        }
+        return new ByteKernels.Impl[] { ByteKernels.SCALAR, ByteKernels.VECTOR };
+    }
+
+    // 模拟compressRLE的扫描过程
+    private static void scanRuns(ByteKernels.Impl impl, byte[] data) {
+        int i = 0;
+        while (i < data.length) {
+            i += impl.runLength(data, i, 255);
+        }
+    }
+
+    // 预热后取多轮中的最好成绩
+    private static void report(String label, int bytes, Runnable task) {
+        for (int i = 0; i < 3; i++) {
+            task.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        double mbPerSecond = bytes / (1024.0 * 1024.0) / (best / 1e9);
+        System.out.printf("%-24s %10.1f MB/s%n", label, mbPerSecond);
+    }
+}
@@ -0,0 +1,257 @@
+package com.backup;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * 包密钥槽
+ * 包内数据使用随机生成的数据密钥(DEK)加密，DEK由口令派生的密钥(KEK)包裹后存放在包头的密钥槽中。
+ * 修改口令只需重写对应的密钥槽，无需重新处理包内数据；多个密钥槽允许同一个包使用多个口令。
+ */
+public class KeySlots {
+
+    // 密钥槽数量
+    public static final int SLOT_COUNT = 4;
+    // 数据密钥长度（AES-256）
+    public static final int DATA_KEY_LENGTH = 32;
+
+    // 单个密钥槽布局：状态(1) + 盐(16) + 迭代次数(4) + GCM随机数(12) + 包裹后的密钥(32 + 16字节认证标签)
+    private static final int SALT_LENGTH = 16;
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+    private static final int WRAPPED_LENGTH = DATA_KEY_LENGTH + TAG_BITS / 8;
+    static final int SLOT_SIZE = 1 + SALT_LENGTH + 4 + NONCE_LENGTH + WRAPPED_LENGTH;
+
+    // 密钥槽区域总大小：槽数量(4) + 各槽数据
+    public static final int AREA_SIZE = 4 + SLOT_COUNT * SLOT_SIZE;
+
+    // PBKDF2迭代次数
+    private static final int DEFAULT_ITERATIONS = 200_000;
+    // 读取密钥槽时接受的迭代次数范围：超出范围的槽（损坏或被篡改）视为不匹配，避免非法参数异常或长时间计算
+    private static final int MIN_ITERATIONS = 1_000;
+    private static final int MAX_ITERATIONS = 10_000_000;
+
+    private static final byte SLOT_EMPTY = 0;
+    private static final byte SLOT_ACTIVE = 1;
+    private static final byte[] WRAP_AAD = "FBS-KEYSLOT".getBytes(StandardCharsets.UTF_8);
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final byte[][] slots = new byte[SLOT_COUNT][SLOT_SIZE];
+
+    private KeySlots() {}
+
+    /**
+     * 创建空的密钥槽区域（未加密的包）
+     */
+    public static KeySlots empty() {
+        return new KeySlots();
+    }
+
+    /**
+     * 生成新的随机数据密钥
+     */
+    public static byte[] generateDataKey() {
+        byte[] key = new byte[DATA_KEY_LENGTH];
+        RANDOM.nextBytes(key);
+        return key;
+    }
+
+    /**
+     * 从包头当前位置读取密钥槽区域
+     */
+    public static KeySlots readFrom(RandomAccessFile raf) throws IOException {
+        int count = raf.readInt();
+        if (count != SLOT_COUNT) {
+            throw new IOException("无效的密钥槽区域: " + count);
+        }
+        KeySlots keySlots = new KeySlots();
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            raf.readFully(keySlots.slots[i]);
+        }
+        return keySlots;
+    }
+
+    /**
+     * 在当前位置写入密钥槽区域
+     */
+    public void writeTo(RandomAccessFile raf) throws IOException {
+        raf.writeInt(SLOT_COUNT);
+        for (byte[] slot : slots) {
+            raf.write(slot);
+        }
+    }
+
+    /**
+     * 是否没有任何已使用的密钥槽
+     */
+    public boolean isEmpty() {
+        return usedSlots() == 0;
+    }
+
+    /**
+     * 已使用的密钥槽数量
+     */
+    public int usedSlots() {
+        int used = 0;
+        for (byte[] slot : slots) {
+            if (slot[0] == SLOT_ACTIVE) used++;
+        }
+        return used;
+    }
+
+    /**
+     * 用口令包裹数据密钥并放入第一个空闲的密钥槽
+     * @return 使用的槽索引
+     */
+    public int addSlot(byte[] dataKey, String password) throws IOException {
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            if (slots[i][0] != SLOT_ACTIVE) {
+                setSlot(i, dataKey, password);
+                return i;
+            }
+        }
+        throw new IOException("密钥槽已满，最多支持 " + SLOT_COUNT + " 个密码");
+    }
+
+    /**
+     * 用口令包裹数据密钥并写入指定密钥槽（覆盖原有内容）
+     */
+    public void setSlot(int index, byte[] dataKey, String password) throws IOException {
+        if (dataKey == null || dataKey.length != DATA_KEY_LENGTH) {
+            throw new IOException("无效的数据密钥");
+        }
+        if (password == null || password.isEmpty()) {
+            throw new IOException("密码不能为空");
+        }
+
+        byte[] salt = new byte[SALT_LENGTH];
+        byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(salt);
+        RANDOM.nextBytes(nonce);
+
+        try {
+            byte[] kek = deriveKek(password, salt, DEFAULT_ITERATIONS);
+            javax.crypto.Cipher cipher = javax.crypto.Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(javax.crypto.Cipher.ENCRYPT_MODE,
+                        new javax.crypto.spec.SecretKeySpec(kek, "AES"),
+                        new javax.crypto.spec.GCMParameterSpec(TAG_BITS, nonce));
+            cipher.updateAAD(WRAP_AAD);
+            byte[] wrapped = cipher.doFinal(dataKey);
+
+            ByteBuffer buffer = ByteBuffer.wrap(slots[index]);
+            buffer.put(SLOT_ACTIVE);
+            buffer.put(salt);
+            buffer.putInt(DEFAULT_ITERATIONS);
+            buffer.put(nonce);
+            buffer.put(wrapped);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("包裹数据密钥失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 清空指定密钥槽
+     */
+    public void clearSlot(int index) {
+        Arrays.fill(slots[index], (byte) 0);
+    }
+
+    /**
+     * 查找能被该口令解锁的密钥槽
+     * @return 槽索引，未找到返回-1
+     */
+    public int findSlot(String password) {
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            if (unwrap(i, password) != null) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 用口令解锁数据密钥
+     * @return 数据密钥，口令错误返回null
+     */
+    public byte[] unlock(String password) {
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            byte[] dataKey = unwrap(i, password);
+            if (dataKey != null) {
+                return dataKey;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 复制全部密钥槽（用于派生包共享同一个数据密钥）
+     */
+    public KeySlots copy() {
+        KeySlots copy = new KeySlots();
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            System.arraycopy(slots[i], 0, copy.slots[i], 0, SLOT_SIZE);
+        }
+        return copy;
+    }
+
+    /**
+     * 两组密钥槽内容是否完全相同（由同一组复制而来时包裹的是同一个数据密钥）
+     */
+    public boolean sameAs(KeySlots other) {
+        return other != null && Arrays.deepEquals(slots, other.slots);
+    }
+
+    // 尝试用口令解开指定密钥槽
+    private byte[] unwrap(int index, String password) {
+        byte[] slot = slots[index];
+        if (slot[0] != SLOT_ACTIVE || password == null || password.isEmpty()) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(slot);
+        buffer.get();
+        byte[] salt = new byte[SALT_LENGTH];
+        buffer.get(salt);
+        int iterations = buffer.getInt();
+        if (iterations < MIN_ITERATIONS || iterations > MAX_ITERATIONS) {
+            return null;
+        }
+        byte[] nonce = new byte[NONCE_LENGTH];
+        buffer.get(nonce);
+        byte[] wrapped = new byte[WRAPPED_LENGTH];
+        buffer.get(wrapped);
+
+        try {
+            byte[] kek = deriveKek(password, salt, iterations);
+            javax.crypto.Cipher cipher = javax.crypto.Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(javax.crypto.Cipher.DECRYPT_MODE,
+                        new javax.crypto.spec.SecretKeySpec(kek, "AES"),
+                        new javax.crypto.spec.GCMParameterSpec(TAG_BITS, nonce));
+            cipher.updateAAD(WRAP_AAD);
+            return cipher.doFinal(wrapped);
+        } catch (javax.crypto.AEADBadTagException e) {
+            // 认证失败，口令不匹配此槽
+            return null;
+        } catch (GeneralSecurityException e) {
+            return null;
+        }
+    }
+
+    // 使用PBKDF2从口令派生密钥包裹密钥
+    private static byte[] deriveKek(String password, byte[] salt, int iterations) throws GeneralSecurityException {
+        javax.crypto.spec.PBEKeySpec spec = new javax.crypto.spec.PBEKeySpec(
+            password.toCharArray(), salt, iterations, DATA_KEY_LENGTH * 8);
+        try {
+            javax.crypto.SecretKeyFactory factory = javax.crypto.SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+            return factory.generateSecret(spec).getEncoded();
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
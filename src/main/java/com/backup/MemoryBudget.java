@@ -0,0 +1,149 @@
+package com.backup;
+
+/**
+ * 进程内共享的内存预算
+ * 打包、提取和目录模式编码在分配文件数据缓冲区之前按预计大小申请额度，用完后归还；额度不足时阻塞等待，
+ * 压缩、加密和I/O并行运行时在途缓冲区的总大小不会超过预算，一批大文件不会导致内存溢出。
+ * 单次申请超过整个预算时按整个预算计算（独占执行），不会永久阻塞。预算为0时不限制，只统计使用量。
+ * 同一进程中的所有备份任务共用一个预算，上限以最后一次设置的为准（EnhancedBackupOptions.memoryBudgetMB）。
+ * 统计峰值和按时间加权的平均使用量，用于确定堆大小。
+ */
+public final class MemoryBudget {
+
+    private static final long MB = 1024L * 1024;
+    private static final MemoryBudget GLOBAL = new MemoryBudget();
+
+    private long limit;                 // 字节数，0表示不限制
+    private long used;
+    private long peak;
+    private long waits;
+    private long waitNanos;
+    private double usedIntegral;        // 使用量对时间的积分（字节·纳秒）
+    private long statisticsStart = System.nanoTime();
+    private long lastChange = statisticsStart;
+
+    MemoryBudget() {}
+
+    /**
+     * 进程内共享的预算
+     */
+    public static MemoryBudget global() {
+        return GLOBAL;
+    }
+
+    public synchronized long getLimitBytes() {
+        return limit;
+    }
+
+    /**
+     * 设置预算（MB，0表示不限制）；调小后已申请的额度不受影响，新的申请等待使用量降到新预算以下
+     */
+    public synchronized void setLimitMegabytes(long megabytes) {
+        limit = Math.max(0, megabytes) * MB;
+        notifyAll();
+    }
+
+    /**
+     * 申请额度，不足时等待
+     * @return 实际申请的字节数（超过预算时为整个预算），归还时传入此值
+     */
+    public synchronized long acquire(long bytes) {
+        long amount = clamp(bytes);
+        if (limit > 0 && used + amount > limit) {
+            waits++;
+            long started = System.nanoTime();
+            boolean interrupted = false;
+            while (limit > 0 && used + (amount = clamp(bytes)) > limit) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            waitNanos += System.nanoTime() - started;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        add(amount);
+        return amount;
+    }
+
+    /**
+     * 尝试申请额度，不足时立即返回
+     * @return 实际申请的字节数，额度不足时返回-1
+     */
+    public synchronized long tryAcquire(long bytes) {
+        long amount = clamp(bytes);
+        if (limit > 0 && used + amount > limit) {
+            return -1;
+        }
+        add(amount);
+        return amount;
+    }
+
+    /**
+     * 归还acquire或tryAcquire返回的额度
+     */
+    public synchronized void release(long amount) {
+        if (amount <= 0) {
+            return;
+        }
+        add(-amount);
+        notifyAll();
+    }
+
+    public synchronized long getUsedBytes() {
+        return used;
+    }
+
+    public synchronized long getPeakBytes() {
+        return peak;
+    }
+
+    /**
+     * 从上次重置统计起按时间加权的平均使用量
+     */
+    public synchronized long getAverageBytes() {
+        long now = System.nanoTime();
+        double integral = usedIntegral + (double) used * (now - lastChange);
+        long elapsed = now - statisticsStart;
+        return elapsed > 0 ? (long) (integral / elapsed) : used;
+    }
+
+    /**
+     * 因额度不足而等待的次数
+     */
+    public synchronized long getWaits() {
+        return waits;
+    }
+
+    public synchronized long getWaitMillis() {
+        return waitNanos / 1_000_000;
+    }
+
+    /**
+     * 重置峰值、平均值和等待统计（当前使用量保留）
+     */
+    public synchronized void resetStatistics() {
+        statisticsStart = System.nanoTime();
+        lastChange = statisticsStart;
+        usedIntegral = 0;
+        peak = used;
+        waits = 0;
+        waitNanos = 0;
+    }
+
+    private long clamp(long bytes) {
+        long amount = Math.max(0, bytes);
+        return limit > 0 ? Math.min(amount, limit) : amount;
+    }
+
+    private void add(long delta) {
+        long now = System.nanoTime();
+        usedIntegral += (double) used * (now - lastChange);
+        lastChange = now;
+        used += delta;
+        peak = Math.max(peak, used);
+    }
+}
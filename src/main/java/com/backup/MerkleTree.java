@@ -0,0 +1,223 @@
+package com.backup;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * 文件内容的Merkle树哈希
+ * 内容按固定大小切分为叶子，叶子哈希 = H(0x00 || 叶子数据)，
+ * 内部节点哈希 = H(0x01 || 左 || 右)，奇数个节点时最后一个直接提升到上一层。
+ * 叶子之间互不依赖，可以在多个核心上并行计算；保存叶子哈希后可以只校验受影响的范围。
+ * H为SHA-256（内容标识）或CRC32C（仅用于变化和损坏检测的快速级别）。
+ */
+public final class MerkleTree {
+
+    // 默认叶子大小 1MB
+    public static final int DEFAULT_LEAF_SIZE = 1 << 20;
+
+    private static final byte LEAF_PREFIX = 0x00;
+    private static final byte NODE_PREFIX = 0x01;
+
+    private static final ThreadLocal<MessageDigest> SHA256_DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256不可用", e);
+        }
+    });
+
+    /**
+     * 节点哈希函数
+     */
+    public enum Digest {
+        SHA256("MERKLE-SHA256"),
+        CRC32C("MERKLE-CRC32C");
+
+        private final String algorithm;
+
+        Digest(String algorithm) {
+            this.algorithm = algorithm;
+        }
+
+        /**
+         * 记录在FileRecord.hashAlgorithm中的算法名称
+         */
+        public String getAlgorithm() { return algorithm; }
+
+        /**
+         * 根据算法名称查找，非Merkle算法返回null
+         */
+        public static Digest forAlgorithm(String algorithm) {
+            for (Digest digest : values()) {
+                if (digest.algorithm.equals(algorithm)) {
+                    return digest;
+                }
+            }
+            return null;
+        }
+
+        byte[] leaf(byte[] data, int offset, int length) {
+            if (this == CRC32C) {
+                java.util.zip.CRC32C crc = new java.util.zip.CRC32C();
+                crc.update(LEAF_PREFIX);
+                crc.update(data, offset, length);
+                return intBytes((int) crc.getValue());
+            }
+            MessageDigest digest = SHA256_DIGEST.get();
+            digest.update(LEAF_PREFIX);
+            digest.update(data, offset, length);
+            return digest.digest();
+        }
+
+        byte[] node(byte[] left, byte[] right) {
+            if (this == CRC32C) {
+                java.util.zip.CRC32C crc = new java.util.zip.CRC32C();
+                crc.update(NODE_PREFIX);
+                crc.update(left);
+                crc.update(right);
+                return intBytes((int) crc.getValue());
+            }
+            MessageDigest digest = SHA256_DIGEST.get();
+            digest.update(NODE_PREFIX);
+            digest.update(left);
+            digest.update(right);
+            return digest.digest();
+        }
+
+        private static byte[] intBytes(int value) {
+            return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+        }
+    }
+
+    /**
+     * 计算结果
+     */
+    public static class Result {
+        private final String root;
+        private final List<String> leafHashes;
+
+        Result(String root, List<String> leafHashes) {
+            this.root = root;
+            this.leafHashes = leafHashes;
+        }
+
+        public String getRoot() { return root; }
+        public List<String> getLeafHashes() { return leafHashes; }
+    }
+
+    private MerkleTree() {}
+
+    /**
+     * 计算数据的Merkle树
+     * @param data 文件内容
+     * @param leafSize 叶子大小
+     * @param digest 节点哈希函数
+     * @return 根哈希及全部叶子哈希
+     */
+    public static Result compute(byte[] data, int leafSize, Digest digest) {
+        byte[][] leaves = leafDigests(data, leafSize, digest);
+        List<String> leafHashes = new ArrayList<>(leaves.length);
+        for (byte[] leaf : leaves) {
+            leafHashes.add(Checksums.toHex(leaf));
+        }
+        return new Result(Checksums.toHex(rootOf(leaves, digest)), leafHashes);
+    }
+
+    /**
+     * 仅计算根哈希
+     */
+    public static String root(byte[] data, int leafSize, Digest digest) {
+        return Checksums.toHex(rootOf(leafDigests(data, leafSize, digest), digest));
+    }
+
+    /**
+     * 由叶子哈希重新计算根哈希
+     */
+    public static String rootFromLeaves(List<String> leafHashes, Digest digest) {
+        byte[][] leaves = new byte[leafHashes.size()][];
+        for (int i = 0; i < leaves.length; i++) {
+            leaves[i] = Checksums.fromHex(leafHashes.get(i));
+        }
+        return Checksums.toHex(rootOf(leaves, digest));
+    }
+
+    /**
+     * 计算单个叶子的哈希
+     * @param data 数据
+     * @param offset 叶子在数据中的起始位置
+     * @param length 叶子长度
+     * @param digest 节点哈希函数
+     */
+    public static String leafHash(byte[] data, int offset, int length, Digest digest) {
+        return Checksums.toHex(digest.leaf(data, offset, length));
+    }
+
+    /**
+     * 叶子数量（空内容视为一个空叶子）
+     */
+    public static int leafCount(long size, int leafSize) {
+        return (int) Math.max(1, (size + leafSize - 1) / leafSize);
+    }
+
+    /**
+     * 与数据范围 [offset, offset + length) 相交的第一个叶子
+     */
+    public static int firstLeaf(long offset, int leafSize) {
+        return (int) (offset / leafSize);
+    }
+
+    /**
+     * 与数据范围 [offset, offset + length) 相交的最后一个叶子
+     */
+    public static int lastLeaf(long offset, long length, int leafSize) {
+        return (int) ((offset + Math.max(1, length) - 1) / leafSize);
+    }
+
+    /**
+     * 找出与期望叶子哈希不一致的叶子
+     * @return 损坏叶子的索引
+     */
+    public static List<Integer> mismatchedLeaves(byte[] data, int leafSize, List<String> expectedLeaves, Digest digest) {
+        byte[][] leaves = leafDigests(data, leafSize, digest);
+        List<Integer> mismatched = new ArrayList<>();
+        for (int i = 0; i < Math.max(leaves.length, expectedLeaves.size()); i++) {
+            if (i >= leaves.length || i >= expectedLeaves.size()
+                || !Checksums.toHex(leaves[i]).equals(expectedLeaves.get(i))) {
+                mismatched.add(i);
+            }
+        }
+        return mismatched;
+    }
+
+    // 计算全部叶子哈希，多个叶子时并行计算
+    private static byte[][] leafDigests(byte[] data, int leafSize, Digest digest) {
+        int count = leafCount(data.length, leafSize);
+        byte[][] leaves = new byte[count][];
+        IntStream indexes = IntStream.range(0, count);
+        if (count > 1) {
+            indexes = indexes.parallel();
+        }
+        indexes.forEach(i -> {
+            int offset = i * leafSize;
+            leaves[i] = digest.leaf(data, offset, Math.min(leafSize, data.length - offset));
+        });
+        return leaves;
+    }
+
+    // 逐层两两合并得到根哈希
+    private static byte[] rootOf(byte[][] leaves, Digest digest) {
+        byte[][] level = leaves;
+        while (level.length > 1) {
+            byte[][] next = new byte[(level.length + 1) / 2][];
+            for (int i = 0; i < next.length; i++) {
+                int left = i * 2;
+                next[i] = left + 1 < level.length ? digest.node(level[left], level[left + 1]) : level[left];
+            }
+            level = next;
+        }
+        return level[0];
+    }
+}
@@ -0,0 +1,298 @@
+package com.backup;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * 包纠删校验区
+ * 受保护区域（包头之后的数据区和Manifest，不含包头，因此修改密码不影响校验数据）按固定大小切分为条带，
+ * 每个条带由k个数据分片组成，计算m个Reed–Solomon校验分片。校验区位于Manifest之后，由包头引用，
+ * 并记录每个分片的CRC32C，用于定位损坏的分片；每个条带损坏的分片不超过m个时可以原地修复。
+ *
+ * 校验区布局：魔数(4) + 数据分片数(4) + 校验分片数(4) + 分片大小(4) + 受保护区域起点(8) + 长度(8)
+ *           + 条带数(4) + 各分片CRC32C表(条带数 * (k+m) * 4) + 以上内容的CRC32C(4) + 各条带的校验分片
+ */
+public final class PackageParity {
+
+    // 默认分片大小 64KB
+    public static final int DEFAULT_SHARD_SIZE = 64 * 1024;
+
+    private static final byte[] MAGIC = "FBPR".getBytes(StandardCharsets.UTF_8);
+    private static final int FIXED_HEADER_SIZE = 4 + 4 + 4 + 4 + 8 + 8 + 4;
+
+    /**
+     * 校验或修复结果
+     */
+    public static class RepairReport {
+        private final int stripes;
+        private final int damagedStripes;
+        private final int repairedStripes;
+        private final int unrecoverableStripes;
+        private final long repairedBytes;
+
+        public RepairReport(int stripes, int damagedStripes, int repairedStripes, int unrecoverableStripes, long repairedBytes) {
+            this.stripes = stripes;
+            this.damagedStripes = damagedStripes;
+            this.repairedStripes = repairedStripes;
+            this.unrecoverableStripes = unrecoverableStripes;
+            this.repairedBytes = repairedBytes;
+        }
+
+        public boolean isClean() { return damagedStripes == 0; }
+        public boolean isRecovered() { return unrecoverableStripes == 0; }
+        public int getStripes() { return stripes; }
+        public int getDamagedStripes() { return damagedStripes; }
+        public int getRepairedStripes() { return repairedStripes; }
+        public int getUnrecoverableStripes() { return unrecoverableStripes; }
+        public long getRepairedBytes() { return repairedBytes; }
+    }
+
+    // 校验区头部与分片校验和表
+    private static class Layout {
+        int dataShards;
+        int parityShards;
+        int shardSize;
+        long protectedStart;
+        long protectedLength;
+        int stripeCount;
+        int[] checksums;        // [stripe * (k+m) + shard]
+        long parityDataStart;   // 校验分片起始位置
+
+        int totalShards() { return dataShards + parityShards; }
+        long stripeSize() { return (long) dataShards * shardSize; }
+
+        int tableBytes() { return FIXED_HEADER_SIZE + checksums.length * 4 + 4; }
+
+        // 数据分片在文件中的实际长度（最后一个条带可能不足一个分片）
+        int dataShardLength(int stripe, int shard) {
+            long offset = stripe * stripeSize() + (long) shard * shardSize;
+            return (int) Math.max(0, Math.min(shardSize, protectedLength - offset));
+        }
+
+        long dataShardPosition(int stripe, int shard) {
+            return protectedStart + stripe * stripeSize() + (long) shard * shardSize;
+        }
+
+        long parityShardPosition(int stripe, int shard) {
+            return parityDataStart + ((long) stripe * parityShards + shard) * shardSize;
+        }
+    }
+
+    private PackageParity() {}
+
+    /**
+     * 为受保护区域计算校验数据并写在其后
+     * @param raf 包文件（写入位置为受保护区域末尾）
+     * @param protectedStart 受保护区域起点
+     * @param protectedEnd 受保护区域终点（校验区从此处开始）
+     * @param dataShards 每个条带的数据分片数
+     * @param parityShards 每个条带的校验分片数
+     * @param shardSize 分片大小
+     * @return 校验区长度
+     */
+    static long write(RandomAccessFile raf, long protectedStart, long protectedEnd,
+                      int dataShards, int parityShards, int shardSize) throws IOException {
+        ReedSolomon codec = new ReedSolomon(dataShards, parityShards);
+        Layout layout = new Layout();
+        layout.dataShards = dataShards;
+        layout.parityShards = parityShards;
+        layout.shardSize = shardSize;
+        layout.protectedStart = protectedStart;
+        layout.protectedLength = protectedEnd - protectedStart;
+        layout.stripeCount = (int) Math.max(1, (layout.protectedLength + layout.stripeSize() - 1) / layout.stripeSize());
+        layout.checksums = new int[layout.stripeCount * layout.totalShards()];
+        layout.parityDataStart = protectedEnd + layout.tableBytes();
+
+        // 各条带互不依赖，并行编码；定位读写不依赖通道位置
+        FileChannel channel = raf.getChannel();
+        try {
+            IntStream.range(0, layout.stripeCount).parallel().forEach(stripe -> {
+                try {
+                    byte[][] shards = readStripe(channel, layout, stripe);
+                    byte[][] data = Arrays.copyOf(shards, dataShards);
+                    byte[][] parity = Arrays.copyOfRange(shards, dataShards, layout.totalShards());
+                    codec.encode(data, parity, shardSize);
+                    for (int i = 0; i < layout.totalShards(); i++) {
+                        layout.checksums[stripe * layout.totalShards() + i] = Checksums.crc32c(shards[i]);
+                    }
+                    for (int j = 0; j < parityShards; j++) {
+                        writeFully(channel, ByteBuffer.wrap(parity[j]), layout.parityShardPosition(stripe, j));
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        writeFully(channel, ByteBuffer.wrap(encodeTable(layout)), protectedEnd);
+        return layout.tableBytes() + (long) layout.stripeCount * parityShards * shardSize;
+    }
+
+    /**
+     * 检查受保护区域，可选地原地修复损坏的分片
+     * @param raf 包文件（修复时需以读写方式打开）
+     * @param parityOffset 校验区偏移量
+     * @param repair 是否修复
+     */
+    static RepairReport check(RandomAccessFile raf, long parityOffset, boolean repair) throws IOException {
+        Layout layout = readLayout(raf, parityOffset);
+        ReedSolomon codec = new ReedSolomon(layout.dataShards, layout.parityShards);
+        FileChannel channel = raf.getChannel();
+
+        AtomicInteger damaged = new AtomicInteger();
+        AtomicInteger repaired = new AtomicInteger();
+        AtomicInteger unrecoverable = new AtomicInteger();
+        AtomicLong repairedBytes = new AtomicLong();
+
+        try {
+            IntStream.range(0, layout.stripeCount).parallel().forEach(stripe -> {
+                try {
+                    byte[][] shards = readStripe(channel, layout, stripe);
+                    for (int j = 0; j < layout.parityShards; j++) {
+                        readFully(channel, shards[layout.dataShards + j], layout.shardSize, layout.parityShardPosition(stripe, j));
+                    }
+
+                    boolean[] present = new boolean[layout.totalShards()];
+                    int missing = 0;
+                    for (int i = 0; i < present.length; i++) {
+                        present[i] = Checksums.crc32c(shards[i]) == layout.checksums[stripe * layout.totalShards() + i];
+                        if (!present[i]) {
+                            missing++;
+                        }
+                    }
+                    if (missing == 0) {
+                        return;
+                    }
+                    damaged.incrementAndGet();
+                    if (missing > layout.parityShards) {
+                        unrecoverable.incrementAndGet();
+                        System.err.println("条带 " + stripe + " 损坏的分片过多 (" + missing + " > " + layout.parityShards + ")，无法修复");
+                        return;
+                    }
+                    if (!repair) {
+                        return;
+                    }
+
+                    codec.reconstruct(shards, present, layout.shardSize);
+                    for (int i = 0; i < present.length; i++) {
+                        if (present[i]) {
+                            continue;
+                        }
+                        if (i < layout.dataShards) {
+                            int length = layout.dataShardLength(stripe, i);
+                            writeFully(channel, ByteBuffer.wrap(shards[i], 0, length), layout.dataShardPosition(stripe, i));
+                            repairedBytes.addAndGet(length);
+                        } else {
+                            writeFully(channel, ByteBuffer.wrap(shards[i]), layout.parityShardPosition(stripe, i - layout.dataShards));
+                            repairedBytes.addAndGet(layout.shardSize);
+                        }
+                    }
+                    repaired.incrementAndGet();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        if (repaired.get() > 0) {
+            channel.force(false);
+        }
+        return new RepairReport(layout.stripeCount, damaged.get(), repaired.get(), unrecoverable.get(), repairedBytes.get());
+    }
+
+    // 读取条带的数据分片（不足部分补零），并为校验分片分配空间
+    private static byte[][] readStripe(FileChannel channel, Layout layout, int stripe) throws IOException {
+        byte[][] shards = new byte[layout.totalShards()][layout.shardSize];
+        for (int d = 0; d < layout.dataShards; d++) {
+            int length = layout.dataShardLength(stripe, d);
+            if (length > 0) {
+                readFully(channel, shards[d], length, layout.dataShardPosition(stripe, d));
+            }
+        }
+        return shards;
+    }
+
+    private static byte[] encodeTable(Layout layout) {
+        ByteBuffer buffer = ByteBuffer.allocate(layout.tableBytes());
+        buffer.put(MAGIC);
+        buffer.putInt(layout.dataShards);
+        buffer.putInt(layout.parityShards);
+        buffer.putInt(layout.shardSize);
+        buffer.putLong(layout.protectedStart);
+        buffer.putLong(layout.protectedLength);
+        buffer.putInt(layout.stripeCount);
+        for (int checksum : layout.checksums) {
+            buffer.putInt(checksum);
+        }
+        buffer.putInt(Checksums.crc32c(buffer.array(), 0, buffer.position()));
+        return buffer.array();
+    }
+
+    private static Layout readLayout(RandomAccessFile raf, long parityOffset) throws IOException {
+        raf.seek(parityOffset);
+        byte[] fixed = new byte[FIXED_HEADER_SIZE];
+        raf.readFully(fixed);
+        ByteBuffer buffer = ByteBuffer.wrap(fixed);
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("无效的校验区");
+        }
+
+        Layout layout = new Layout();
+        layout.dataShards = buffer.getInt();
+        layout.parityShards = buffer.getInt();
+        layout.shardSize = buffer.getInt();
+        layout.protectedStart = buffer.getLong();
+        layout.protectedLength = buffer.getLong();
+        layout.stripeCount = buffer.getInt();
+        if (layout.dataShards <= 0 || layout.parityShards <= 0
+            || layout.dataShards + layout.parityShards > ReedSolomon.MAX_TOTAL_SHARDS
+            || layout.shardSize <= 0 || layout.stripeCount <= 0) {
+            throw new IOException("校验区已损坏");
+        }
+        layout.checksums = new int[layout.stripeCount * layout.totalShards()];
+
+        byte[] table = new byte[layout.tableBytes()];
+        raf.seek(parityOffset);
+        raf.readFully(table);
+        ByteBuffer tableBuffer = ByteBuffer.wrap(table);
+        tableBuffer.position(FIXED_HEADER_SIZE);
+        for (int i = 0; i < layout.checksums.length; i++) {
+            layout.checksums[i] = tableBuffer.getInt();
+        }
+        if (tableBuffer.getInt() != Checksums.crc32c(table, 0, table.length - 4)) {
+            throw new IOException("校验区已损坏");
+        }
+        layout.parityDataStart = parityOffset + table.length;
+        return layout;
+    }
+
+    private static void readFully(FileChannel channel, byte[] target, int length, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(target, 0, length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("数据意外结束");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package com.backup;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 并行包验证器
+ * 所有工作线程共享同一个FileChannel，通过定位读取（线程安全，不依赖通道位置）并行校验各个文件，
+ * 校验完所有文件后汇总每个失败文件的原因、吞吐量和耗时。
+ * 完整验证增量包中的差量文件时，需要沿增量链读取基准版本还原后再校验内容哈希。
+ */
+public class PackageVerifier {
+
+    // 默认并行度
+    public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static final int STREAM_BUFFER_SIZE = 1 << 20;
+
+    /**
+     * 单个文件的验证结果
+     */
+    public static class EntryResult {
+        private final String relativePath;
+        private final boolean success;
+        private final String reason;
+        private final boolean skipped;
+
+        public EntryResult(String relativePath, boolean success, String reason) {
+            this(relativePath, success, reason, false);
+        }
+
+        private EntryResult(String relativePath, boolean success, String reason, boolean skipped) {
+            this.relativePath = relativePath;
+            this.success = success;
+            this.reason = reason;
+            this.skipped = skipped;
+        }
+
+        /**
+         * 当前条件下无法校验的文件（不计为失败）
+         */
+        public static EntryResult skipped(String relativePath, String reason) {
+            return new EntryResult(relativePath, true, reason, true);
+        }
+
+        public String getRelativePath() { return relativePath; }
+        public boolean isSuccess() { return success; }
+        public String getReason() { return reason; }
+        public boolean isSkipped() { return skipped; }
+
+        @Override
+        public String toString() {
+            return relativePath + ": " + reason;
+        }
+    }
+
+    /**
+     * 验证报告
+     */
+    public static class Report {
+        private final int checkedEntries;
+        private final List<EntryResult> failures;
+        private final long bytesVerified;
+        private final long elapsedMillis;
+        private final PackageParity.RepairReport repair;
+        private final int skippedEntries;
+
+        public Report(int checkedEntries, List<EntryResult> failures, long bytesVerified, long elapsedMillis) {
+            this(checkedEntries, failures, bytesVerified, elapsedMillis, null);
+        }
+
+        public Report(int checkedEntries, List<EntryResult> failures, long bytesVerified, long elapsedMillis,
+                      PackageParity.RepairReport repair) {
+            this(checkedEntries, failures, bytesVerified, elapsedMillis, repair, 0);
+        }
+
+        public Report(int checkedEntries, List<EntryResult> failures, long bytesVerified, long elapsedMillis,
+                      PackageParity.RepairReport repair, int skippedEntries) {
+            this.checkedEntries = checkedEntries;
+            this.failures = failures;
+            this.bytesVerified = bytesVerified;
+            this.elapsedMillis = elapsedMillis;
+            this.repair = repair;
+            this.skippedEntries = skippedEntries;
+        }
+
+        public boolean isSuccess() { return failures.isEmpty(); }
+        public int getCheckedEntries() { return checkedEntries; }
+        public int getFailedEntries() { return failures.size(); }
+        public List<EntryResult> getFailures() { return failures; }
+        public long getBytesVerified() { return bytesVerified; }
+        public long getElapsedMillis() { return elapsedMillis; }
+        // 验证失败后进行的纠删修复结果，未修复时为null
+        public PackageParity.RepairReport getRepair() { return repair; }
+        // 快速验证时没有存储校验和且已加密、无法不用密码校验的文件数
+        public int getSkippedEntries() { return skippedEntries; }
+
+        // 按读取的存储字节计算吞吐量
+        public long getBytesPerSecond() {
+            return elapsedMillis > 0 ? bytesVerified * 1000 / elapsedMillis : bytesVerified;
+        }
+    }
+
+    private final Path packageFile;
+    private final String password;
+    private final BackupPackage.VerifyMode mode;
+    private final int threads;
+
+    public PackageVerifier(String packagePath, String password, BackupPackage.VerifyMode mode) {
+        this(packagePath, password, mode, DEFAULT_THREADS);
+    }
+
+    public PackageVerifier(String packagePath, String password, BackupPackage.VerifyMode mode, int threads) {
+        this.packageFile = Paths.get(packagePath);
+        this.password = password;
+        this.mode = mode;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * 执行验证
+     * @return 验证报告
+     * @throws IOException 包文件无法打开、格式无效或密码错误
+     */
+    public Report verify() throws IOException {
+        if (!Files.exists(packageFile)) {
+            throw new IOException("包文件不存在: " + packageFile);
+        }
+
+        long start = System.nanoTime();
+
+        try (RandomAccessFile raf = new RandomAccessFile(packageFile.toFile(), "r")) {
+            BackupPackage.PackageHeader header = BackupPackage.PackageHeader.readFrom(raf);
+            BackupPackage.BackupManifest manifest = BackupPackage.readManifest(raf, header);
+            byte[] dataKey = mode == BackupPackage.VerifyMode.DEEP ? BackupPackage.resolveDataKey(header, password) : null;
+            FileChannel channel = raf.getChannel();
+
+            // 大文件优先调度，避免最后只剩一个大文件在单线程上运行
+            List<BackupPackage.FileRecord> records = new ArrayList<>();
+            for (BackupPackage.FileRecord record : manifest.getFiles()) {
+                if (record.isHasData()) {
+                    records.add(record);
+                }
+            }
+            records.sort(Comparator.comparingLong(BackupPackage.FileRecord::getStoredSize).reversed());
+
+            // 只有完整验证包含差量文件的包时才需要解析增量链
+            boolean hasDelta = mode == BackupPackage.VerifyMode.DEEP
+                && records.stream().anyMatch(BackupPackage.FileRecord::isDelta);
+            BackupPackage.ChainReader chainReader = hasDelta
+                ? new BackupPackage.ChainReader(BackupPackage.resolveChain(packageFile), password) : null;
+
+            List<EntryResult> failures = Collections.synchronizedList(new ArrayList<>());
+            LongAdder bytesVerified = new LongAdder();
+            AtomicInteger checked = new AtomicInteger();
+            AtomicInteger skipped = new AtomicInteger();
+
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, records.size())));
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (BackupPackage.FileRecord record : records) {
+                    futures.add(executor.submit(() -> {
+                        // 读取缓冲区从共享池借用，验证结束后全部归还，不随每次验证分配直接内存
+                        EntryResult result;
+                        try (BufferPool.Buffer buffer = BufferPool.shared().acquire(STREAM_BUFFER_SIZE)) {
+                            result = verifyEntry(channel, record, dataKey, chainReader, buffer.buffer());
+                        }
+                        bytesVerified.add(record.getStoredSize());
+                        checked.incrementAndGet();
+                        if (result.isSkipped()) {
+                            skipped.incrementAndGet();
+                        } else if (!result.isSuccess()) {
+                            failures.add(result);
+                        }
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("验证被中断", e);
+            } catch (ExecutionException e) {
+                throw new IOException("验证失败: " + e.getCause().getMessage(), e.getCause());
+            } finally {
+                executor.shutdownNow();
+                if (chainReader != null) {
+                    chainReader.close();
+                }
+            }
+
+            // 按路径排序，便于阅读
+            List<EntryResult> sortedFailures = new ArrayList<>(failures);
+            sortedFailures.sort(Comparator.comparing(EntryResult::getRelativePath));
+
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            return new Report(checked.get(), sortedFailures, bytesVerified.sum(), elapsedMillis, null, skipped.get());
+        }
+    }
+
+    /**
+     * 执行验证，失败且包含纠删校验区时原地修复损坏的条带后重新验证
+     * @return 验证报告（修复后重新验证的结果，附带修复结果）
+     */
+    public Report verifyAndRepair() throws IOException {
+        String packagePath = packageFile.toString();
+        Report report = null;
+        try {
+            report = verify();
+            if (report.isSuccess()) {
+                return report;
+            }
+        } catch (IOException | RuntimeException e) {
+            // Manifest损坏时无法开始验证，有校验区时仍可尝试修复
+            if (!BackupPackage.hasParity(packagePath)) {
+                throw e;
+            }
+        }
+        if (!BackupPackage.hasParity(packagePath)) {
+            return report;
+        }
+
+        PackageParity.RepairReport repair = BackupPackage.repairPackage(packagePath);
+        Report repaired = verify();
+        return new Report(repaired.getCheckedEntries(), repaired.getFailures(), repaired.getBytesVerified(),
+                          repaired.getElapsedMillis(), repair, repaired.getSkippedEntries());
+    }
+
+    // 校验单个文件，任何错误都记录为该文件的失败原因
+    private EntryResult verifyEntry(FileChannel channel, BackupPackage.FileRecord record, byte[] dataKey,
+                                    BackupPackage.ChainReader deltaReader, ByteBuffer buffer) {
+        String path = record.getRelativePath();
+        try {
+            if (mode == BackupPackage.VerifyMode.FAST) {
+                return record.getStoredHash() != null
+                    ? checkStored(channel, record, buffer) : checkWithoutStoredHash(channel, record);
+            }
+
+            if (record.isEncrypted() && dataKey == null) {
+                return new EntryResult(path, false, "文件已加密，需要提供密码进行完整验证");
+            }
+
+            byte[] storedData = readFully(channel, record.getDataOffset(), (int) record.getStoredSize());
+            byte[] data;
+            try {
+                data = BackupPackage.decodeStoredData(record, storedData, dataKey);
+            } catch (IOException e) {
+                return new EntryResult(path, false, "解密或解压失败: " + e.getMessage());
+            }
+            if (record.isDelta()) {
+                // 链读取器不是线程安全的
+                try {
+                    synchronized (deltaReader) {
+                        data = deltaReader.materialize(record, data);
+                    }
+                } catch (IOException e) {
+                    return new EntryResult(path, false, "差量还原失败: " + e.getMessage());
+                }
+            }
+
+            String calculatedHash = BackupPackage.contentHash(record, data);
+            if (!calculatedHash.equals(record.getHash())) {
+                return new EntryResult(path, false,
+                    "文件哈希验证失败 (Expected: " + record.getHash() + ", Got: " + calculatedHash
+                        + BackupPackage.describeCorruptRanges(record, data) + ")");
+            }
+            return new EntryResult(path, true, null);
+        } catch (IOException e) {
+            return new EntryResult(path, false, "读取失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 校验整个文件存储数据的校验和
+     */
+    static EntryResult checkStored(FileChannel channel, BackupPackage.FileRecord record, ByteBuffer buffer) throws IOException {
+        String path = record.getRelativePath();
+        if (record.getStoredHash() == null) {
+            return new EntryResult(path, false, "缺少存储校验和，请使用完整验证");
+        }
+        String checksum = Checksums.storedChecksum(channel, record.getDataOffset(), record.getStoredSize(), buffer);
+        if (!checksum.equals(record.getStoredHash())) {
+            return new EntryResult(path, false,
+                "存储数据校验失败 (Expected: " + record.getStoredHash() + ", Got: " + checksum + ")");
+        }
+        return new EntryResult(path, true, null);
+    }
+
+    /**
+     * 校验没有存储校验和的文件（记录存储校验和之前写入的包）
+     * 未加密的文件解压后校验内容哈希；加密或差量文件不用密码无法校验，标记为跳过，不计为失败
+     */
+    static EntryResult checkWithoutStoredHash(FileChannel channel, BackupPackage.FileRecord record) throws IOException {
+        String path = record.getRelativePath();
+        if (record.isEncrypted() || record.isDelta()) {
+            return EntryResult.skipped(path, "未记录存储校验和，需要提供密码进行完整验证");
+        }
+        byte[] data;
+        try {
+            data = BackupPackage.decodeStoredData(record, readFully(channel, record.getDataOffset(),
+                                                                    (int) record.getStoredSize()), null);
+        } catch (IOException e) {
+            return new EntryResult(path, false, "解压失败: " + e.getMessage());
+        }
+        String calculatedHash = BackupPackage.contentHash(record, data);
+        if (!calculatedHash.equals(record.getHash())) {
+            return new EntryResult(path, false,
+                "文件哈希验证失败 (Expected: " + record.getHash() + ", Got: " + calculatedHash + ")");
+        }
+        return new EntryResult(path, true, null);
+    }
+
+    /**
+     * 校验存储数据中的单个块（文件记录了分块校验和时可用）
+     */
+    static EntryResult checkStoredBlock(FileChannel channel, BackupPackage.FileRecord record, int block, ByteBuffer buffer) throws IOException {
+        String path = record.getRelativePath();
+        long blockSize = record.getStoredBlockSize();
+        long offset = block * blockSize;
+        long length = Math.min(blockSize, record.getStoredSize() - offset);
+        String expected = record.getStoredBlockChecksums().get(block);
+        String checksum = Checksums.storedChecksum(channel, record.getDataOffset() + offset, length, buffer);
+        if (!checksum.equals(expected)) {
+            return new EntryResult(path, false, "存储数据块校验失败 [" + offset + ", " + (offset + length)
+                + ") (Expected: " + expected + ", Got: " + checksum + ")");
+        }
+        return new EntryResult(path, true, null);
+    }
+
+    // 定位读取一段完整数据
+    private static byte[] readFully(FileChannel channel, long position, int length) throws IOException {
+        byte[] data = new byte[length];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new java.io.EOFException("数据意外结束");
+            }
+        }
+        return data;
+    }
+}
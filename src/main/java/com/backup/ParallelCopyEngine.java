@@ -0,0 +1,235 @@
+package com.backup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 目录模式的并行复制引擎
+ * 遍历线程（调用方的walkFileTree）只负责创建目录和提交文件任务，文件任务放入有界队列由复制线程池执行，
+ * 队列满时遍历线程阻塞等待，内存占用不随目录树规模增长。
+ * 每个目录记录尚未完成的子任务数（文件和子目录），目录本身遍历结束且所有子任务完成后才执行目录收尾
+ * （设置修改时间等），保证收尾之后不会再有子文件写入改变目录的修改时间。
+ * 并行度为1时所有任务在遍历线程上直接执行，行为与单线程遍历完全一致。
+ * 高并发I/O模式下每个文件任务一个虚拟线程（见IoExecutors），同时在途的任务数由源路径所在挂载点的信号量限制，
+ * 信号量用尽时遍历线程阻塞等待，起到有界队列的作用。
+ * 启用自适应并发时，同时执行的任务数还受ConcurrencyController的上限限制，上限随主机负载在1到线程数之间变化。
+ *
+ * 遍历相关的方法（enterDirectory/submit/exitDirectory）只能在遍历线程上调用。
+ */
+final class ParallelCopyEngine implements Closeable {
+
+    /**
+     * 可抛出IOException的任务
+     */
+    interface Task {
+        void run() throws IOException;
+    }
+
+    // 每个工作线程对应的队列长度
+    private static final int QUEUE_PER_THREAD = 64;
+
+    /**
+     * 目录节点：pending = 1（目录自身的遍历）+ 未完成的子任务数，降为0时执行收尾并通知父目录
+     */
+    private static final class DirectoryNode {
+        private final DirectoryNode parent;
+        private final Task finisher;
+        private final AtomicInteger pending = new AtomicInteger(1);
+
+        DirectoryNode(DirectoryNode parent, Task finisher) {
+            this.parent = parent;
+            this.finisher = finisher;
+        }
+    }
+
+    private final ExecutorService executor;
+    private final Semaphore permits;            // 高并发I/O模式下的挂载点信号量，其他模式为null
+    private final ConcurrencyController controller; // 自适应并发控制，未启用时为null
+    private final JobControl jobControl;        // 计划任务的暂停/停止控制，可为null
+    private final Deque<DirectoryNode> directories = new ArrayDeque<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicReference<IOException> failure = new AtomicReference<>();
+    private final Object idle = new Object();
+
+    /**
+     * 按备份选项创建：并行度小于等于1时不创建线程池；高并发I/O模式使用I/O线程池
+     * @param source 源路径，用于确定挂载点
+     */
+    ParallelCopyEngine(Path source, BackupService.BackupOptions options) {
+        if (options.isIoMode()) {
+            this.executor = IoExecutors.newIoExecutor("backup-copy", options.getIoConcurrency());
+            this.permits = IoExecutors.mountPermits(source, options.getIoConcurrency());
+        } else {
+            this.executor = newCopyExecutor(options.getParallelism());
+            this.permits = null;
+        }
+        this.controller = executor != null
+            ? ConcurrencyController.create(options, options.isIoMode() ? options.getIoConcurrency() : options.getParallelism())
+            : null;
+        this.jobControl = options.getJobControl();
+    }
+
+    private static ExecutorService newCopyExecutor(int parallelism) {
+        if (parallelism <= 1) {
+            return null;
+        }
+        AtomicInteger threadIndex = new AtomicInteger();
+        return new ThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(parallelism * QUEUE_PER_THREAD),
+            runnable -> {
+                Thread thread = new Thread(runnable, "backup-copy-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            (runnable, pool) -> {
+                // 队列已满：阻塞遍历线程直到有空位
+                try {
+                    pool.getQueue().put(runnable);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new java.util.concurrent.RejectedExecutionException("复制任务提交被中断", e);
+                }
+            });
+    }
+
+    /**
+     * 进入目录（在创建目标目录之后调用）
+     * @param finisher 目录下所有任务完成后执行的收尾操作，可为null
+     */
+    void enterDirectory(Task finisher) {
+        DirectoryNode parent = directories.peek();
+        if (parent != null) {
+            parent.pending.incrementAndGet();
+        }
+        directories.push(new DirectoryNode(parent, finisher));
+    }
+
+    /**
+     * 提交当前目录下的一个文件任务（任务暂停时在此等待）
+     * @throws IOException 之前的任务已经失败（不再继续提交）
+     */
+    void submit(Task task) throws IOException {
+        submit(task, 0);
+    }
+
+    /**
+     * 提交当前目录下的一个文件任务
+     * @param bytes 任务读写的字节数（自适应并发据此折算I/O延迟）
+     */
+    void submit(Task task, long bytes) throws IOException {
+        throwIfFailed();
+        if (jobControl != null) {
+            jobControl.checkpoint();
+        }
+        DirectoryNode node = directories.peek();
+        if (node != null) {
+            node.pending.incrementAndGet();
+        }
+        if (executor == null) {
+            try {
+                task.run();
+            } finally {
+                release(node);
+            }
+            return;
+        }
+        if (controller != null) {
+            controller.acquire();
+        }
+        if (permits != null) {
+            permits.acquireUninterruptibly();
+        }
+        running.incrementAndGet();
+        executor.execute(() -> {
+            long started = System.nanoTime();
+            try {
+                if (failure.get() == null) {
+                    task.run();
+                }
+            } catch (IOException e) {
+                failure.compareAndSet(null, e);
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, new IOException(e.getMessage(), e));
+            } finally {
+                release(node);
+                if (permits != null) {
+                    permits.release();
+                }
+                if (controller != null) {
+                    controller.release(System.nanoTime() - started, bytes);
+                }
+                if (running.decrementAndGet() == 0) {
+                    synchronized (idle) {
+                        idle.notifyAll();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 离开目录（对应walkFileTree的postVisitDirectory）
+     */
+    void exitDirectory() throws IOException {
+        release(directories.pop());
+        throwIfFailed();
+    }
+
+    /**
+     * 等待所有任务和目录收尾完成
+     * @throws IOException 第一个失败任务的异常
+     */
+    void await() throws IOException {
+        if (executor != null) {
+            synchronized (idle) {
+                while (running.get() > 0) {
+                    try {
+                        idle.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("复制被中断", e);
+                    }
+                }
+            }
+        }
+        throwIfFailed();
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private void throwIfFailed() throws IOException {
+        IOException e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    // 释放一个子任务，目录的最后一个任务完成后执行收尾，并继续向上释放
+    private void release(DirectoryNode node) {
+        while (node != null && node.pending.decrementAndGet() == 0) {
+            if (node.finisher != null) {
+                try {
+                    node.finisher.run();
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("目录收尾失败: " + e.getMessage());
+                }
+            }
+            node = node.parent;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.backup;
+
+import java.io.IOException;
+
+/**
+ * GF(256)上的系统Reed–Solomon纠删码
+ * 编码矩阵为单位矩阵叠加Cauchy矩阵，任意k行组成的子矩阵都可逆，
+ * 因此k个数据分片和m个校验分片中任意丢失不超过m个都能恢复。
+ * 域运算全部查表：对数/指数表用于求逆，256x256乘法表用于编码内循环。
+ */
+public final class ReedSolomon {
+
+    // 最大分片总数（GF(256)中互不相同的元素个数）
+    public static final int MAX_TOTAL_SHARDS = 256;
+
+    // 本原多项式 x^8 + x^4 + x^3 + x^2 + 1
+    private static final int PRIMITIVE_POLYNOMIAL = 0x11D;
+
+    private static final int[] LOG = new int[256];
+    private static final int[] EXP = new int[512];
+    private static final byte[][] MUL = new byte[256][256];
+
+    static {
+        int value = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = value;
+            LOG[value] = i;
+            value <<= 1;
+            if (value >= 256) {
+                value ^= PRIMITIVE_POLYNOMIAL;
+            }
+        }
+        for (int i = 255; i < EXP.length; i++) {
+            EXP[i] = EXP[i - 255];
+        }
+        for (int a = 1; a < 256; a++) {
+            for (int b = 1; b < 256; b++) {
+                MUL[a][b] = (byte) EXP[LOG[a] + LOG[b]];
+            }
+        }
+    }
+
+    private final int dataShards;
+    private final int parityShards;
+    private final byte[][] parityMatrix;    // m x k
+
+    /**
+     * @param dataShards 每个条带的数据分片数
+     * @param parityShards 每个条带的校验分片数
+     */
+    public ReedSolomon(int dataShards, int parityShards) {
+        if (dataShards <= 0 || parityShards <= 0 || dataShards + parityShards > MAX_TOTAL_SHARDS) {
+            throw new IllegalArgumentException("无效的分片数: " + dataShards + "+" + parityShards);
+        }
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+        this.parityMatrix = new byte[parityShards][dataShards];
+        for (int j = 0; j < parityShards; j++) {
+            for (int d = 0; d < dataShards; d++) {
+                parityMatrix[j][d] = (byte) inverse((dataShards + j) ^ d);
+            }
+        }
+    }
+
+    public int getDataShards() { return dataShards; }
+    public int getParityShards() { return parityShards; }
+
+    /**
+     * 由数据分片计算校验分片
+     * @param data k个数据分片
+     * @param parity m个校验分片（输出）
+     * @param length 分片长度
+     */
+    public void encode(byte[][] data, byte[][] parity, int length) {
+        for (int j = 0; j < parityShards; j++) {
+            multiplyRow(parityMatrix[j], data, parity[j], length);
+        }
+    }
+
+    /**
+     * 恢复丢失的分片
+     * @param shards k+m个分片，前k个为数据分片；丢失的分片内容会被覆盖
+     * @param present 各分片是否完好
+     * @param length 分片长度
+     * @throws IOException 丢失的分片超过校验分片数
+     */
+    public void reconstruct(byte[][] shards, boolean[] present, int length) throws IOException {
+        int total = dataShards + parityShards;
+        int[] rows = new int[dataShards];
+        int found = 0;
+        for (int i = 0; i < total && found < dataShards; i++) {
+            if (present[i]) {
+                rows[found++] = i;
+            }
+        }
+        if (found < dataShards) {
+            throw new IOException("损坏的分片过多，无法恢复");
+        }
+
+        boolean dataMissing = false;
+        for (int d = 0; d < dataShards; d++) {
+            dataMissing |= !present[d];
+        }
+
+        if (dataMissing) {
+            // 取k个完好分片对应的编码矩阵行并求逆，逆矩阵的第d行即由完好分片恢复数据分片d的系数
+            byte[][] sub = new byte[dataShards][];
+            byte[][] inputs = new byte[dataShards][];
+            for (int r = 0; r < dataShards; r++) {
+                sub[r] = encodingRow(rows[r]);
+                inputs[r] = shards[rows[r]];
+            }
+            byte[][] decode = invert(sub);
+            for (int d = 0; d < dataShards; d++) {
+                if (!present[d]) {
+                    multiplyRow(decode[d], inputs, shards[d], length);
+                }
+            }
+        }
+
+        // 数据分片齐全后重新计算丢失的校验分片
+        byte[][] data = new byte[dataShards][];
+        System.arraycopy(shards, 0, data, 0, dataShards);
+        for (int j = 0; j < parityShards; j++) {
+            if (!present[dataShards + j]) {
+                multiplyRow(parityMatrix[j], data, shards[dataShards + j], length);
+            }
+        }
+    }
+
+    // output = sum(coefficients[i] * inputs[i])
+    private static void multiplyRow(byte[] coefficients, byte[][] inputs, byte[] output, int length) {
+        byte[] table = MUL[coefficients[0] & 0xFF];
+        byte[] input = inputs[0];
+        for (int i = 0; i < length; i++) {
+            output[i] = table[input[i] & 0xFF];
+        }
+        for (int c = 1; c < coefficients.length; c++) {
+            table = MUL[coefficients[c] & 0xFF];
+            input = inputs[c];
+            for (int i = 0; i < length; i++) {
+                output[i] ^= table[input[i] & 0xFF];
+            }
+        }
+    }
+
+    // 编码矩阵的第row行
+    private byte[] encodingRow(int row) {
+        if (row >= dataShards) {
+            return parityMatrix[row - dataShards].clone();
+        }
+        byte[] identity = new byte[dataShards];
+        identity[row] = 1;
+        return identity;
+    }
+
+    // GF(256)上的高斯-约当消元求逆
+    private static byte[][] invert(byte[][] matrix) throws IOException {
+        int n = matrix.length;
+        byte[][] work = new byte[n][];
+        byte[][] result = new byte[n][n];
+        for (int i = 0; i < n; i++) {
+            work[i] = matrix[i].clone();
+            result[i][i] = 1;
+        }
+
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            while (pivot < n && work[pivot][col] == 0) {
+                pivot++;
+            }
+            if (pivot == n) {
+                throw new IOException("编码矩阵不可逆");
+            }
+            swap(work, col, pivot);
+            swap(result, col, pivot);
+
+            int scale = inverse(work[col][col] & 0xFF);
+            scaleRow(work[col], scale);
+            scaleRow(result[col], scale);
+
+            for (int row = 0; row < n; row++) {
+                int factor = work[row][col] & 0xFF;
+                if (row != col && factor != 0) {
+                    byte[] table = MUL[factor];
+                    for (int k = 0; k < n; k++) {
+                        work[row][k] ^= table[work[col][k] & 0xFF];
+                        result[row][k] ^= table[result[col][k] & 0xFF];
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void scaleRow(byte[] row, int scale) {
+        byte[] table = MUL[scale];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = table[row[i] & 0xFF];
+        }
+    }
+
+    private static void swap(byte[][] rows, int a, int b) {
+        byte[] temp = rows[a];
+        rows[a] = rows[b];
+        rows[b] = temp;
+    }
+
+    private static int inverse(int value) {
+        return EXP[255 - LOG[value]];
+    }
+}
@@ -0,0 +1,439 @@
+package com.backup;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 后台巡检服务
+ * 定期遍历备份目录中的.fbk文件，每次只校验每个包的一部分文件和数据块（按存储校验和快速验证，无需密码），
+ * 并记录每个包的巡检进度，保证在指定天数内覆盖全部数据。读取速度受I/O预算限制，进度保存在本地状态文件中。
+ */
+public class ScrubService {
+
+    private static final String STATE_FILE_NAME = ".scrub-state.json";
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * 抽样方式
+     */
+    public enum SampleMode {
+        ROTATING,       // 按路径顺序轮转
+        RANDOM          // 每轮随机打乱顺序
+    }
+
+    /**
+     * 巡检选项
+     */
+    public static class ScrubOptions {
+        private int coverageDays = 30;                      // 每个包的全部数据在多少天内校验一遍
+        private long runIntervalMinutes = 24 * 60;          // 后台运行间隔
+        private long ioBytesPerSecond = 50L * 1024 * 1024;  // I/O预算（0表示不限速）
+        private long maxBytesPerRun = 0;                    // 单次运行最多读取的字节数（0表示不限制）
+        private SampleMode sampleMode = SampleMode.ROTATING;
+
+        public int getCoverageDays() { return coverageDays; }
+        public void setCoverageDays(int coverageDays) { this.coverageDays = coverageDays; }
+
+        public long getRunIntervalMinutes() { return runIntervalMinutes; }
+        public void setRunIntervalMinutes(long runIntervalMinutes) { this.runIntervalMinutes = runIntervalMinutes; }
+
+        public long getIoBytesPerSecond() { return ioBytesPerSecond; }
+        public void setIoBytesPerSecond(long ioBytesPerSecond) { this.ioBytesPerSecond = ioBytesPerSecond; }
+
+        public long getMaxBytesPerRun() { return maxBytesPerRun; }
+        public void setMaxBytesPerRun(long maxBytesPerRun) { this.maxBytesPerRun = maxBytesPerRun; }
+
+        public SampleMode getSampleMode() { return sampleMode; }
+        public void setSampleMode(SampleMode sampleMode) { this.sampleMode = sampleMode; }
+    }
+
+    /**
+     * 单次巡检结果
+     */
+    public static class ScrubReport {
+        private final int packagesScanned;
+        private final int unitsVerified;
+        private final long bytesVerified;
+        private final int passesCompleted;
+        private final Map<String, List<PackageVerifier.EntryResult>> failures;
+        private final long elapsedMillis;
+        private final int unitsSkipped;
+
+        public ScrubReport(int packagesScanned, int unitsVerified, long bytesVerified, int passesCompleted,
+                           Map<String, List<PackageVerifier.EntryResult>> failures, long elapsedMillis) {
+            this(packagesScanned, unitsVerified, bytesVerified, passesCompleted, failures, elapsedMillis, 0);
+        }
+
+        public ScrubReport(int packagesScanned, int unitsVerified, long bytesVerified, int passesCompleted,
+                           Map<String, List<PackageVerifier.EntryResult>> failures, long elapsedMillis,
+                           int unitsSkipped) {
+            this.packagesScanned = packagesScanned;
+            this.unitsVerified = unitsVerified;
+            this.bytesVerified = bytesVerified;
+            this.passesCompleted = passesCompleted;
+            this.failures = failures;
+            this.elapsedMillis = elapsedMillis;
+            this.unitsSkipped = unitsSkipped;
+        }
+
+        public boolean isSuccess() { return failures.isEmpty(); }
+        public int getPackagesScanned() { return packagesScanned; }
+        public int getUnitsVerified() { return unitsVerified; }
+        public long getBytesVerified() { return bytesVerified; }
+        public int getPassesCompleted() { return passesCompleted; }
+        public Map<String, List<PackageVerifier.EntryResult>> getFailures() { return failures; }
+        public long getElapsedMillis() { return elapsedMillis; }
+        // 未记录存储校验和的加密文件，没有密码无法巡检，不计为损坏
+        public int getUnitsSkipped() { return unitsSkipped; }
+    }
+
+    // 持久化状态
+    static class ScrubState {
+        Map<String, PackageState> packages = new HashMap<>();
+    }
+
+    // 单个包的巡检进度，包文件大小或修改时间变化时重新开始
+    static class PackageState {
+        long fileSize;
+        long fileModified;
+        long passStartedAt;         // 本轮开始时间
+        long passSeed;              // 本轮随机顺序种子
+        int cursor;                 // 本轮已校验的单元数
+        long verifiedBytes;         // 本轮已校验的字节数
+        long lastCompletedAt;       // 上一轮完成时间
+        Map<String, String> failures = new LinkedHashMap<>(); // 已知损坏的文件及原因
+    }
+
+    // 校验单元：一个完整文件，或有分块校验和的文件中的一个块
+    private static class Unit {
+        final BackupPackage.FileRecord record;
+        final int block;            // -1 表示整个文件
+        final long length;
+
+        Unit(BackupPackage.FileRecord record, int block, long length) {
+            this.record = record;
+            this.block = block;
+            this.length = length;
+        }
+    }
+
+    private final Path backupDir;
+    private final Path stateFile;
+    private final ScrubOptions options;
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private final Object schedulerLock = new Object();
+    private ScheduledExecutorService scheduler;
+
+    public ScrubService(String backupDir, ScrubOptions options) {
+        this(backupDir, Paths.get(backupDir).resolve(STATE_FILE_NAME).toString(), options);
+    }
+
+    public ScrubService(String backupDir, String stateFile, ScrubOptions options) {
+        this.backupDir = Paths.get(backupDir);
+        this.stateFile = Paths.get(stateFile);
+        this.options = options;
+    }
+
+    /**
+     * 在后台线程中按运行间隔定期巡检
+     */
+    public void start() {
+        synchronized (schedulerLock) {
+            if (scheduler != null) {
+                return;
+            }
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "backup-scrub");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    ScrubReport report = runOnce();
+                    System.out.println("巡检完成: " + report.getPackagesScanned() + " 个包, "
+                        + report.getUnitsVerified() + " 个校验单元, " + report.getBytesVerified() + " 字节, "
+                        + report.getFailures().size() + " 个包发现损坏");
+                } catch (Exception e) {
+                    System.err.println("巡检失败: " + e.getMessage());
+                }
+            }, 0, options.getRunIntervalMinutes(), TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * 停止后台巡检
+     */
+    public void stop() {
+        synchronized (schedulerLock) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+        }
+    }
+
+    /**
+     * 执行一次巡检
+     * 每个包按本轮已过去的时间计算应完成的字节数，只校验尚未完成的部分；落后最多的包优先
+     */
+    public synchronized ScrubReport runOnce() throws IOException {
+        long start = System.currentTimeMillis();
+        ScrubState state = loadState();
+
+        List<Path> packages;
+        try (Stream<Path> stream = Files.list(backupDir)) {
+            packages = stream
+                .filter(p -> Files.isRegularFile(p) && p.getFileName().toString().endsWith(".fbk"))
+                .collect(Collectors.toList());
+        }
+
+        // 移除已删除包的状态
+        List<String> present = packages.stream().map(p -> p.getFileName().toString()).collect(Collectors.toList());
+        state.packages.keySet().retainAll(present);
+
+        for (Path packageFile : packages) {
+            String name = packageFile.getFileName().toString();
+            PackageState packageState = state.packages.get(name);
+            long size = Files.size(packageFile);
+            long modified = Files.getLastModifiedTime(packageFile).toMillis();
+            if (packageState == null || packageState.fileSize != size || packageState.fileModified != modified) {
+                packageState = new PackageState();
+                packageState.fileSize = size;
+                packageState.fileModified = modified;
+                startPass(packageState, start);
+                state.packages.put(name, packageState);
+            }
+        }
+        packages.sort(Comparator.comparingLong(p -> state.packages.get(p.getFileName().toString()).passStartedAt));
+
+        Map<String, List<PackageVerifier.EntryResult>> failures = new LinkedHashMap<>();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        Throttle throttle = new Throttle(options.getIoBytesPerSecond());
+        long runBudget = options.getMaxBytesPerRun() > 0 ? options.getMaxBytesPerRun() : Long.MAX_VALUE;
+        int scanned = 0;
+        int units = 0;
+        int skipped = 0;
+        long bytes = 0;
+        int passes = 0;
+
+        for (Path packageFile : packages) {
+            if (bytes >= runBudget || Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            String name = packageFile.getFileName().toString();
+            PackageState packageState = state.packages.get(name);
+            List<PackageVerifier.EntryResult> packageFailures = new ArrayList<>();
+
+            try (RandomAccessFile raf = new RandomAccessFile(packageFile.toFile(), "r")) {
+                BackupPackage.PackageHeader header = BackupPackage.PackageHeader.readFrom(raf);
+                BackupPackage.BackupManifest manifest = BackupPackage.readManifest(raf, header);
+                List<Unit> plan = units(manifest, packageState.passSeed);
+                long totalBytes = plan.stream().mapToLong(u -> u.length).sum();
+                long due = dueBytes(packageState, totalBytes, start);
+                FileChannel channel = raf.getChannel();
+                scanned++;
+
+                while (due > 0 && bytes < runBudget && packageState.cursor < plan.size()
+                       && !Thread.currentThread().isInterrupted()) {
+                    Unit unit = plan.get(packageState.cursor);
+                    // 记录存储校验和之前写入的包：未加密的文件校验内容哈希，加密的文件跳过
+                    PackageVerifier.EntryResult result = unit.block >= 0
+                        ? PackageVerifier.checkStoredBlock(channel, unit.record, unit.block, buffer)
+                        : unit.record.getStoredHash() != null
+                            ? PackageVerifier.checkStored(channel, unit.record, buffer)
+                            : PackageVerifier.checkWithoutStoredHash(channel, unit.record);
+                    if (result.isSkipped()) {
+                        skipped++;
+                    }
+                    if (result.isSuccess()) {
+                        if (unit.block < 0) {
+                            packageState.failures.remove(result.getRelativePath());
+                        }
+                    } else {
+                        packageFailures.add(result);
+                        packageState.failures.put(result.getRelativePath(), result.getReason());
+                        System.err.println("巡检发现损坏: " + name + " - " + result);
+                    }
+                    packageState.cursor++;
+                    packageState.verifiedBytes += unit.length;
+                    due -= unit.length;
+                    bytes += unit.length;
+                    units++;
+                    throttle.acquire(unit.length);
+                }
+
+                if (packageState.cursor >= plan.size()) {
+                    packageState.lastCompletedAt = System.currentTimeMillis();
+                    startPass(packageState, packageState.lastCompletedAt);
+                    passes++;
+                }
+            } catch (IOException e) {
+                packageFailures.add(new PackageVerifier.EntryResult(name, false, "无法读取包: " + e.getMessage()));
+                System.err.println("巡检无法读取包: " + name + " - " + e.getMessage());
+            }
+
+            if (!packageFailures.isEmpty()) {
+                failures.put(name, packageFailures);
+            }
+            // 每个包完成后保存进度，中断后可从断点继续
+            saveState(state);
+        }
+
+        saveState(state);
+        return new ScrubReport(scanned, units, bytes, passes, failures, System.currentTimeMillis() - start, skipped);
+    }
+
+    /**
+     * 各包最近一次完整覆盖的时间（用于界面展示）
+     * @return 包文件名到完成时间（毫秒，0表示尚未完成过）的映射
+     */
+    public synchronized Map<String, Long> lastCompletedTimes() throws IOException {
+        Map<String, Long> times = new LinkedHashMap<>();
+        for (Map.Entry<String, PackageState> entry : loadState().packages.entrySet()) {
+            times.put(entry.getKey(), entry.getValue().lastCompletedAt);
+        }
+        return times;
+    }
+
+    // 开始新的一轮
+    private static void startPass(PackageState packageState, long now) {
+        packageState.passStartedAt = now;
+        packageState.passSeed = new Random().nextLong();
+        packageState.cursor = 0;
+        packageState.verifiedBytes = 0;
+    }
+
+    // 按本轮已过去的时间（含下一次运行间隔）计算本次应校验的字节数，使整轮在覆盖周期内完成
+    private long dueBytes(PackageState packageState, long totalBytes, long now) {
+        long coverageMillis = TimeUnit.DAYS.toMillis(Math.max(1, options.getCoverageDays()));
+        long elapsed = now - packageState.passStartedAt + TimeUnit.MINUTES.toMillis(options.getRunIntervalMinutes());
+        double fraction = Math.min(1.0, (double) elapsed / coverageMillis);
+        long target = (long) Math.ceil(totalBytes * fraction);
+        return Math.max(target - packageState.verifiedBytes, packageState.verifiedBytes < totalBytes ? 1 : 0);
+    }
+
+    // 生成本轮的校验单元顺序；包内容不变时同一种子得到相同顺序，游标可以跨次运行继续
+    private List<Unit> units(BackupPackage.BackupManifest manifest, long seed) {
+        List<Unit> plan = new ArrayList<>();
+        List<BackupPackage.FileRecord> records = new ArrayList<>(manifest.getFiles());
+        records.sort(Comparator.comparing(BackupPackage.FileRecord::getRelativePath));
+        for (BackupPackage.FileRecord record : records) {
+            if (!record.isHasData()) {
+                continue;
+            }
+            List<String> blocks = record.getStoredBlockChecksums();
+            if (blocks != null && !blocks.isEmpty() && record.getStoredBlockSize() > 0) {
+                long blockSize = record.getStoredBlockSize();
+                for (int i = 0; i < blocks.size(); i++) {
+                    plan.add(new Unit(record, i, Math.min(blockSize, record.getStoredSize() - i * blockSize)));
+                }
+            } else {
+                plan.add(new Unit(record, -1, record.getStoredSize()));
+            }
+        }
+        if (options.getSampleMode() == SampleMode.RANDOM) {
+            Collections.shuffle(plan, new Random(seed));
+        }
+        return plan;
+    }
+
+    private ScrubState loadState() throws IOException {
+        if (!Files.exists(stateFile)) {
+            return new ScrubState();
+        }
+        String json = new String(Files.readAllBytes(stateFile), StandardCharsets.UTF_8);
+        ScrubState state = gson.fromJson(json, ScrubState.class);
+        return state != null && state.packages != null ? state : new ScrubState();
+    }
+
+    // 先写临时文件再原子替换，避免中断时损坏状态文件
+    private void saveState(ScrubState state) throws IOException {
+        Path parent = stateFile.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+        Files.write(temp, gson.toJson(state).getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // 按字节速率限速
+    private static class Throttle {
+        private final long bytesPerSecond;
+        private final long startNanos = System.nanoTime();
+        private long bytes;
+
+        Throttle(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        void acquire(long count) {
+            if (bytesPerSecond <= 0) {
+                return;
+            }
+            bytes += count;
+            long expectedNanos = (long) (bytes * 1e9 / bytesPerSecond);
+            long sleepNanos = expectedNanos - (System.nanoTime() - startNanos);
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * 命令行运行一次巡检
+     * 用法: ScrubService <备份目录> [覆盖天数] [每秒字节数]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("用法: ScrubService <备份目录> [覆盖天数] [每秒字节数]");
+            return;
+        }
+        ScrubOptions options = new ScrubOptions();
+        if (args.length > 1) {
+            options.setCoverageDays(Integer.parseInt(args[1]));
+        }
+        if (args.length > 2) {
+            options.setIoBytesPerSecond(Long.parseLong(args[2]));
+        }
+        ScrubReport report = new ScrubService(args[0], options).runOnce();
+        System.out.println("巡检包数: " + report.getPackagesScanned());
+        System.out.println("校验单元: " + report.getUnitsVerified());
+        System.out.println("校验字节: " + report.getBytesVerified());
+        System.out.println("完成轮次: " + report.getPassesCompleted());
+        System.out.println("耗时: " + report.getElapsedMillis() + " ms");
+        for (Map.Entry<String, List<PackageVerifier.EntryResult>> entry : report.getFailures().entrySet()) {
+            for (PackageVerifier.EntryResult failure : entry.getValue()) {
+                System.out.println("损坏: " + entry.getKey() + " - " + failure);
+            }
+        }
+    }
+}
@@ -25,6 +25,18 @@ public class TestExtract {
             if (success) {
                 System.out.println("解包成功!");
                 System.out.println("文件提取到: " + outputDir);
+                
+                // 检查缓冲区是否全部归还
+                BufferPool pool = BufferPool.shared();
+                // 触发回收，让未归还就被丢弃的缓冲区计入泄漏数
+                System.gc();
+                Thread.sleep(200);
+                System.out.println("缓冲区: 分配 " + pool.getAllocations() + " 次, 复用 " + pool.getReuses()
+                    + " 次, 未归还 " + pool.getOutstanding() + ", 泄漏 " + pool.getLeaks());
+                if (pool.getOutstanding() != 0 || pool.getLeaks() > 0) {
+                    System.err.println("错误: 缓冲区未全部归还");
+                    System.exit(1);
+                }
             } else {
                 System.out.println("解包失败!");
             }
@@ -30,6 +30,18 @@ public class TestPackage {
                 System.out.println("打包成功!");
                 System.out.println("包文件: " + target);
                 
+                // 检查缓冲区是否全部归还
+                BufferPool pool = BufferPool.shared();
+                // 触发回收，让未归还就被丢弃的缓冲区计入泄漏数
+                System.gc();
+                Thread.sleep(200);
+                System.out.println("缓冲区: 分配 " + pool.getAllocations() + " 次, 复用 " + pool.getReuses()
+                    + " 次, 未归还 " + pool.getOutstanding() + ", 泄漏 " + pool.getLeaks());
+                if (pool.getOutstanding() != 0 || pool.getLeaks() > 0) {
+                    System.err.println("错误: 缓冲区未全部归还");
+                    System.exit(1);
+                }
+                
                 // 获取包信息
                 System.out.println("\n获取包信息...");
                 try {
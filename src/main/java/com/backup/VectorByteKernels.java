@@ -0,0 +1,97 @@
+package com.backup;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * 基于Vector API的SIMD内核实现
+ * 仅在 jdk.incubator.vector 模块可用时由 {@link ByteKernels} 反射加载
+ */
+final class VectorByteKernels implements ByteKernels.Impl {
+
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    @Override
+    public String name() {
+        return "vector-" + SPECIES.vectorBitSize();
+    }
+
+    @Override
+    public void xor(byte[] src, byte[] key, byte[] dst, int length) {
+        int keyLength = key.length;
+
+        // 展开密钥，使任意偏移 i % keyLength 处都能取到一整个向量
+        byte[] expanded = new byte[keyLength + LANES];
+        for (int i = 0; i < expanded.length; i++) {
+            expanded[i] = key[i % keyLength];
+        }
+
+        int i = 0;
+        int upper = SPECIES.loopBound(length);
+        if (LANES % keyLength == 0) {
+            // 密钥模式与向量宽度对齐，密钥向量固定不变
+            ByteVector keyVector = ByteVector.fromArray(SPECIES, expanded, 0);
+            for (; i < upper; i += LANES) {
+                ByteVector.fromArray(SPECIES, src, i).lanewise(VectorOperators.XOR, keyVector).intoArray(dst, i);
+            }
+        } else {
+            for (; i < upper; i += LANES) {
+                ByteVector keyVector = ByteVector.fromArray(SPECIES, expanded, i % keyLength);
+                ByteVector.fromArray(SPECIES, src, i).lanewise(VectorOperators.XOR, keyVector).intoArray(dst, i);
+            }
+        }
+
+        // 处理剩余尾部
+        for (; i < length; i++) {
+            dst[i] = (byte) (src[i] ^ key[i % keyLength]);
+        }
+    }
+
+    @Override
+    public int runLength(byte[] data, int from, int limit) {
+        int end = (int) Math.min(data.length, (long) from + limit);
+        byte value = data[from];
+        int i = from + 1;
+
+        // 短游程（随机数据的常见情况）直接返回，避免向量开销
+        if (i >= end || data[i] != value) {
+            return i - from;
+        }
+
+        ByteVector runVector = ByteVector.broadcast(SPECIES, value);
+        for (; i + LANES <= end; i += LANES) {
+            VectorMask<Byte> differs = ByteVector.fromArray(SPECIES, data, i).compare(VectorOperators.NE, runVector);
+            if (differs.anyTrue()) {
+                return i + differs.firstTrue() - from;
+            }
+        }
+
+        while (i < end && data[i] == value) {
+            i++;
+        }
+        return i - from;
+    }
+
+    @Override
+    public int mismatch(byte[] a, int aFrom, byte[] b, int bFrom, int length) {
+        int i = 0;
+        int upper = SPECIES.loopBound(length);
+        for (; i < upper; i += LANES) {
+            ByteVector left = ByteVector.fromArray(SPECIES, a, aFrom + i);
+            ByteVector right = ByteVector.fromArray(SPECIES, b, bFrom + i);
+            VectorMask<Byte> differs = left.compare(VectorOperators.NE, right);
+            if (differs.anyTrue()) {
+                return i + differs.firstTrue();
+            }
+        }
+        for (; i < length; i++) {
+            if (a[aFrom + i] != b[bFrom + i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}